@@ -0,0 +1,565 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * A push parser, which builds a document from bytes as they arrive.
+ *
+ * Each call to {@link #feed(ByteBuffer)} parses every complete token of the
+ * bytes received so far and returns, so a network server can hand over
+ * buffers as it reads them, without dedicating a blocked thread to each slow
+ * client. The result is available from {@link #getResult()} once
+ * {@link #endOfInput()} is called.
+ *
+ * Documents in UTF-8, US-ASCII or ISO-8859-1 are parsed incrementally.
+ * Documents with a DOCTYPE, an XML declaration that isn't well-formed or
+ * another encoding, and every document under
+ * {@link ParserProfile#VALIDATING}, are buffered and parsed with
+ * {@link XML#parse(java.io.InputStream, ParserProfile)} at the end of the input.
+ *
+ * Instances aren't thread safe: the bytes of a document must be fed in order,
+ * one buffer at a time.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public final class AsyncXMLParser {
+
+    /**
+     * The UTF-8 byte order mark.
+     */
+    private static final byte[] BYTE_ORDER_MARK = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf};
+
+    /**
+     * The start of an XML declaration.
+     */
+    private static final byte[] DECLARATION_START = {'<', '?', 'x', 'm', 'l'};
+
+    /**
+     * An XML declaration, up to its closing <code>?&gt;</code>, as the XML 1.0 <code>XMLDecl</code> production.
+     */
+    private static final Pattern DECLARATION = Pattern.compile(
+            "<\\?xml[ \t\r\n]+version[ \t\r\n]*=[ \t\r\n]*(\"1\\.[0-9]+\"|'1\\.[0-9]+')"
+            + "([ \t\r\n]+encoding[ \t\r\n]*=[ \t\r\n]*(\"[A-Za-z][A-Za-z0-9._-]*\"|'[A-Za-z][A-Za-z0-9._-]*'))?"
+            + "([ \t\r\n]+standalone[ \t\r\n]*=[ \t\r\n]*(\"(yes|no)\"|'(yes|no)'))?"
+            + "[ \t\r\n]*");
+
+    /**
+     * The size of the decoded character buffer.
+     */
+    private static final int CHAR_BUFFER_SIZE = 4096;
+
+    /**
+     * The parser configuration.
+     */
+    private final ParserProfile profile;
+
+    /**
+     * The result, completed when the input ends or fails.
+     */
+    private final FutureTask<XML> result;
+
+    /**
+     * The parsed document, once complete.
+     */
+    private XML xml;
+
+    /**
+     * The failure, if any.
+     */
+    private Exception failure;
+
+    /**
+     * Every byte received, kept until the document element starts, or until the end for buffered parsing.
+     */
+    private ByteArrayOutputStream retained = new ByteArrayOutputStream();
+
+    /**
+     * True if the document is buffered and parsed at the end.
+     */
+    private boolean buffering;
+
+    /**
+     * The decoder, once the encoding is known.
+     */
+    private CharsetDecoder decoder;
+
+    /**
+     * The bytes of an incomplete character, carried over to the next buffer.
+     */
+    private ByteBuffer leftover;
+
+    /**
+     * The decoded characters.
+     */
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+
+    /**
+     * The incremental parser, once the encoding is known.
+     */
+    private PushParser parser;
+
+    /**
+     * True once the input has ended or failed.
+     */
+    private boolean finished;
+
+    /**
+     * The number of bytes received.
+     */
+    private long length;
+
+    /**
+     * The time spent parsing, if instrumented.
+     */
+    private long nanos;
+
+    /**
+     * Creates a new {@link AsyncXMLParser} with the {@link ParserProfile#DEFAULT} profile.
+     */
+    public AsyncXMLParser() {
+        this(ParserProfile.DEFAULT);
+    }
+
+    /**
+     * Creates a new {@link AsyncXMLParser}.
+     * @param profile the parser configuration to use.
+     */
+    public AsyncXMLParser(ParserProfile profile) {
+        this.profile = profile;
+        this.buffering = profile == ParserProfile.VALIDATING;
+        this.result = new FutureTask<XML>(new Callable<XML>() {
+            @Override
+            public XML call() throws Exception {
+                if (failure != null) {
+                    throw failure;
+                }
+                return xml;
+            }
+        });
+    }
+
+    /**
+     * Parses the next bytes of the document.
+     *
+     * The buffer's remaining bytes are consumed, and may be reused by the
+     * caller as soon as this method returns.
+     * @param buffer the bytes.
+     * @throws SAXException if the bytes received so far aren't well-formed, which also fails the result.
+     * @throws IllegalStateException if the input has already ended or failed.
+     */
+    public void feed(ByteBuffer buffer) throws SAXException {
+        if (finished) {
+            throw new IllegalStateException("The input has already ended.");
+        }
+
+        Instrumentation instruments = XML.getInstrumentation();
+        long start = 0;
+        if (instruments != Instrumentation.NONE) {
+            start = System.nanoTime();
+        }
+
+        length += buffer.remaining();
+        try {
+            if (retained != null) {
+                retain(buffer);
+                if (parser == null) {
+                    buffer.position(buffer.limit());
+                    if (!buffering) {
+                        detectEncoding();
+                    }
+                    return;
+                }
+            }
+
+            decode(buffer, false);
+            process();
+        } catch (SAXException e) {
+            fail(e);
+            throw e;
+        } catch (RuntimeException e) {
+            fail(e);
+            throw e;
+        } finally {
+            if (instruments != Instrumentation.NONE) {
+                nanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Ends the input, completing the result.
+     *
+     * Documents parsed incrementally are complete already, so this only checks
+     * that nothing is missing. Buffered documents are parsed now, by the calling thread.
+     * @return the result, already completed.
+     */
+    public Future<XML> endOfInput() {
+        if (finished) {
+            return result;
+        }
+
+        try {
+            if (parser == null && !buffering) {
+                detectEncoding();
+            }
+
+            if (parser == null || buffering) {
+                xml = XML.parse(new ByteArrayInputStream(retained.toByteArray()), profile);
+            } else {
+                Instrumentation instruments = XML.getInstrumentation();
+                long start = 0;
+                if (instruments != Instrumentation.NONE) {
+                    start = System.nanoTime();
+                }
+
+                decode(ByteBuffer.allocate(0), true);
+                parser.finish();
+
+                if (instruments != Instrumentation.NONE) {
+                    nanos += System.nanoTime() - start;
+                    XML.reportParse(instruments, parser.getDocument(), nanos, length);
+                }
+                xml = new XML(parser.getDocument());
+            }
+        } catch (SAXException e) {
+            failure = e;
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        complete();
+        return result;
+    }
+
+    /**
+     * @return the result, completed by {@link #endOfInput()} or by the first error.
+     */
+    public Future<XML> getResult() {
+        return result;
+    }
+
+    /**
+     * Chooses the decoder from the byte order mark or the XML declaration,
+     * once enough bytes have arrived, and starts parsing.
+     * @throws SAXException if the bytes received so far aren't well-formed.
+     */
+    private void detectEncoding() throws SAXException {
+        byte[] bytes = retained.toByteArray();
+        int offset = 0;
+        Charset charset = Charset.forName("UTF-8");
+
+        if (bytes.length == 0 || couldStart(bytes, 0, BYTE_ORDER_MARK)) {
+            return;
+        } else if (startsWith(bytes, 0, BYTE_ORDER_MARK)) {
+            offset = BYTE_ORDER_MARK.length;
+        } else if (bytes[0] != '<') {
+
+            // UTF-16, UTF-32, EBCDIC, or leading whitespace: leave it to the full parser
+            buffering = true;
+            return;
+        }
+
+        if (couldStart(bytes, offset, DECLARATION_START)) {
+            return;
+        }
+
+        if (startsWith(bytes, offset, DECLARATION_START)) {
+            int close = indexOf(bytes, offset, (byte) '?', (byte) '>');
+            if (close < 0) {
+                return;
+            }
+
+            // Leave anything but a well-formed declaration to the full parser
+            String declaration = new String(bytes, offset, close - offset, Charset.forName("US-ASCII"));
+            if (!isDeclaration(declaration)) {
+                buffering = true;
+                return;
+            }
+
+            String version = pseudoAttribute(declaration, "version");
+            String encoding = pseudoAttribute(declaration, "encoding");
+            if (!"1.0".equals(version)) {
+                buffering = true;
+                return;
+            }
+
+            if (encoding != null) {
+                charset = supportedCharset(encoding);
+                if (charset == null) {
+                    buffering = true;
+                    return;
+                }
+            }
+
+            parser = new PushParser(XML.newDocument(), profile.isStrippingWhitespace());
+            parser.getDocument().setXmlStandalone("yes".equals(pseudoAttribute(declaration, "standalone")));
+            offset = close + 2;
+        } else {
+            parser = new PushParser(XML.newDocument(), profile.isStrippingWhitespace());
+        }
+
+        decoder = charset.newDecoder();
+        decoder.onMalformedInput(CodingErrorAction.REPORT);
+        decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+
+        decode(ByteBuffer.wrap(bytes, offset, bytes.length - offset), false);
+        process();
+    }
+
+    /**
+     * Keeps a copy of bytes, leaving the buffer's position unchanged.
+     * @param buffer the bytes.
+     */
+    private void retain(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            retained.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            retained.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Decodes bytes and hands the characters to the parser.
+     * @param buffer the bytes.
+     * @param end true if no more bytes will come.
+     * @throws SAXException if the bytes aren't valid in the document's encoding.
+     */
+    private void decode(ByteBuffer buffer, boolean end) throws SAXException {
+        ByteBuffer input = buffer;
+        if (leftover != null) {
+            input = ByteBuffer.allocate(leftover.remaining() + buffer.remaining());
+            input.put(leftover).put(buffer);
+            input.flip();
+            leftover = null;
+        }
+
+        CoderResult coderResult;
+        do {
+            coderResult = decoder.decode(input, chars, end);
+            flushChars();
+            if (coderResult.isError()) {
+                throw new SAXException("Invalid byte sequence for " + decoder.charset().name()
+                        + " (at byte " + (length - input.remaining()) + ").");
+            }
+        } while (coderResult.isOverflow());
+
+        if (end) {
+            while (decoder.flush(chars).isOverflow()) {
+                flushChars();
+            }
+            flushChars();
+            if (input.hasRemaining()) {
+                throw new SAXException("Incomplete byte sequence at the end of the input.");
+            }
+        } else if (input.hasRemaining()) {
+            leftover = ByteBuffer.allocate(input.remaining());
+            leftover.put(input);
+            leftover.flip();
+        }
+    }
+
+    /**
+     * Hands the decoded characters to the parser.
+     * @throws SAXException if a character isn't allowed in XML.
+     */
+    private void flushChars() throws SAXException {
+        chars.flip();
+        parser.append(chars);
+        chars.clear();
+    }
+
+    /**
+     * Runs the parser over the characters received, switching to buffered
+     * parsing if it finds a DOCTYPE.
+     * @throws SAXException if the characters received so far aren't well-formed.
+     */
+    private void process() throws SAXException {
+        if (parser.process()) {
+            buffering = true;
+            parser = null;
+            decoder = null;
+            leftover = null;
+        } else if (parser.isRootStarted()) {
+            retained = null;
+        }
+    }
+
+    /**
+     * Fails the result.
+     * @param e the failure.
+     */
+    private void fail(Exception e) {
+        failure = e;
+        complete();
+    }
+
+    /**
+     * Completes the result, and releases the input.
+     */
+    private void complete() {
+        finished = true;
+        parser = null;
+        retained = null;
+        result.run();
+    }
+
+    /**
+     * Returns true if a byte array has a prefix at an offset.
+     * @param bytes the bytes.
+     * @param offset the offset.
+     * @param prefix the prefix.
+     * @return true if it matches.
+     */
+    static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        if (bytes.length - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the bytes after an offset are a proper prefix of a string.
+     * @param bytes the bytes.
+     * @param offset the offset.
+     * @param prefix the string.
+     * @return true if more bytes could complete it.
+     */
+    private static boolean couldStart(byte[] bytes, int offset, byte[] prefix) {
+        int available = bytes.length - offset;
+        if (available >= prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < available; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds a pair of bytes.
+     * @param bytes the bytes to search.
+     * @param offset the offset to search from.
+     * @param first the first byte of the pair.
+     * @param second the second byte of the pair.
+     * @return the offset of the pair, or -1 if it's not found.
+     */
+    private static int indexOf(byte[] bytes, int offset, byte first, byte second) {
+        for (int i = offset; i < bytes.length - 1; i++) {
+            if (bytes[i] == first && bytes[i + 1] == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if a string is a well-formed XML declaration.
+     * @param declaration the declaration, from <code>&lt;?xml</code> up to its closing <code>?&gt;</code>.
+     * @return true if it matches the <code>XMLDecl</code> production.
+     */
+    static boolean isDeclaration(String declaration) {
+        return DECLARATION.matcher(declaration).matches();
+    }
+
+    /**
+     * Reads a pseudo-attribute of the XML declaration.
+     * @param declaration the declaration, checked with {@link #isDeclaration(String)}.
+     * @param name the name of the pseudo-attribute.
+     * @return the value, or null if it's missing.
+     */
+    static String pseudoAttribute(String declaration, String name) {
+        int index = declaration.indexOf(name);
+        if (index < 0) {
+            return null;
+        }
+
+        int equals = declaration.indexOf('=', index + name.length());
+        if (equals < 0 || declaration.substring(index + name.length(), equals).trim().length() != 0) {
+            return null;
+        }
+
+        int open = equals + 1;
+        while (open < declaration.length() && Character.isWhitespace(declaration.charAt(open))) {
+            open++;
+        }
+        if (open == declaration.length()) {
+            return null;
+        }
+
+        int close = declaration.indexOf(declaration.charAt(open), open + 1);
+        if (close < 0) {
+            return null;
+        }
+        return declaration.substring(open + 1, close);
+    }
+
+    /**
+     * Gets the charset of a declared encoding, if it's parsed incrementally.
+     * @param encoding the declared encoding.
+     * @return the charset, or null if the document should be buffered.
+     */
+    static Charset supportedCharset(String encoding) {
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        String name = charset.name();
+        if (name.equals("UTF-8") || name.equals("US-ASCII") || name.equals("ISO-8859-1")) {
+            return charset;
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,163 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.w3c.dom.Element;
+
+/**
+ * An {@link XMLElement} that is the only wrapper of its element, for documents
+ * with canonical wrappers enabled by {@link XML#setCanonicalWrappers(boolean)}.
+ *
+ * The wrappers are kept in a {@link Registry} owned by the {@link XML}
+ * instance, so navigating back to an element returns the same object instead
+ * of allocating a new one, and {@link #equals(Object)} is an identity check.
+ * Wrappers of the same element kept by two {@link XML} instances are
+ * therefore not equal, unlike plain {@link XMLElement}s.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class CanonicalElement extends XMLElement {
+
+    /**
+     * The wrappers of a document's elements.
+     *
+     * Elements and wrappers are both weakly referenced: an entry is dropped
+     * once its element is no longer reachable, e.g. after being removed from
+     * the document, and a wrapper that nobody holds can be collected, since
+     * nobody can compare it with a new one.
+     *
+     * Lookups write to the map, so it is guarded by a {@link Lock}, rather
+     * than a monitor so that virtual threads park rather than pin.
+     */
+    static final class Registry {
+
+        /**
+         * Guards the wrappers.
+         */
+        private final Lock lock = new ReentrantLock();
+
+        /**
+         * The wrappers, by element.
+         */
+        private final Map<Element, WeakReference<CanonicalElement>> wrappers =
+                new WeakHashMap<Element, WeakReference<CanonicalElement>>();
+
+        /**
+         * The wrapper of the null element, e.g. the root of an empty document.
+         */
+        private final CanonicalElement empty = new CanonicalElement(null, this);
+
+        /**
+         * False once the registry has been released.
+         */
+        private volatile boolean enabled = true;
+
+        /**
+         * Releases the wrappers. Wrappers still held keep working, but wrap
+         * other elements with new {@link XMLElement}s from now on.
+         */
+        void release() {
+            lock.lock();
+            try {
+                enabled = false;
+                wrappers.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+    /**
+     * The registry this wrapper belongs to.
+     */
+    private final Registry registry;
+
+    /**
+     * Creates a new {@link CanonicalElement}.
+     * @param element the element to wrap.
+     * @param registry the registry the wrapper belongs to.
+     */
+    private CanonicalElement(Element element, Registry registry) {
+        super(element);
+        this.registry = registry;
+    }
+
+    /**
+     * Gets the wrapper of an element, creating it on first use.
+     * @param element the element, possibly null.
+     * @param registry the registry of the element's document.
+     * @return the element's wrapper, or a new {@link XMLElement} if the registry has been released.
+     */
+    static XMLElement of(Element element, Registry registry) {
+        if (element == null) {
+            return registry.enabled ? registry.empty : new XMLElement(null);
+        }
+
+        registry.lock.lock();
+        try {
+            if (!registry.enabled) {
+                return new XMLElement(element);
+            }
+
+            WeakReference<CanonicalElement> reference = registry.wrappers.get(element);
+            CanonicalElement wrapper = reference == null ? null : reference.get();
+            if (wrapper == null) {
+                wrapper = new CanonicalElement(element, registry);
+                registry.wrappers.put(element, new WeakReference<CanonicalElement>(wrapper));
+            }
+
+            return wrapper;
+        } finally {
+            registry.lock.unlock();
+        }
+    }
+
+    @Override
+    XMLElement wrap(Element other) {
+        return of(other, registry);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Each element has a single canonical wrapper, so this is an identity check.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+}
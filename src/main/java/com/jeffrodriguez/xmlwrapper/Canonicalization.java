@@ -0,0 +1,144 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import org.w3c.dom.Node;
+
+/**
+ * Canonical XML algorithms, for signing and comparing documents byte for byte.
+ *
+ * Output is always UTF-8, without an XML declaration or DOCTYPE, with empty
+ * elements written as start and end tags, attributes sorted, and CDATA
+ * sections replaced by escaped text.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public enum Canonicalization {
+
+    /**
+     * Canonical XML 1.0, without comments.
+     *
+     * Canonicalizing an element renders every namespace and <code>xml:*</code>
+     * attribute it inherits from its ancestors.
+     */
+    INCLUSIVE("http://www.w3.org/TR/2001/REC-xml-c14n-20010315", false, false),
+
+    /**
+     * Canonical XML 1.0, with comments.
+     */
+    INCLUSIVE_WITH_COMMENTS("http://www.w3.org/TR/2001/REC-xml-c14n-20010315#WithComments", false, true),
+
+    /**
+     * Exclusive Canonical XML 1.0, without comments.
+     *
+     * Namespaces are only rendered on the elements whose name or attributes
+     * use them, so a subtree canonicalizes the same wherever it's embedded.
+     */
+    EXCLUSIVE("http://www.w3.org/2001/10/xml-exc-c14n#", true, false),
+
+    /**
+     * Exclusive Canonical XML 1.0, with comments.
+     */
+    EXCLUSIVE_WITH_COMMENTS("http://www.w3.org/2001/10/xml-exc-c14n#WithComments", true, true);
+
+    /**
+     * The algorithm URI.
+     */
+    private final String algorithm;
+
+    /**
+     * True for exclusive canonicalization.
+     */
+    private final boolean exclusive;
+
+    /**
+     * True if comments are kept.
+     */
+    private final boolean comments;
+
+    /**
+     * Creates a new {@link Canonicalization}.
+     * @param algorithm the algorithm URI.
+     * @param exclusive true for exclusive canonicalization.
+     * @param comments true if comments are kept.
+     */
+    private Canonicalization(String algorithm, boolean exclusive, boolean comments) {
+        this.algorithm = algorithm;
+        this.exclusive = exclusive;
+        this.comments = comments;
+    }
+
+    /**
+     * @return the algorithm URI, as used in XML signatures.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Writes a document or element in canonical form.
+     *
+     * The output is streamed through a small buffer, which is flushed before returning.
+     * @param node the document or element.
+     * @param out the stream to write to. It isn't closed.
+     * @throws IOException If the stream can't be written.
+     * @throws IllegalArgumentException if the node is neither a document nor an element.
+     */
+    public void write(Node node, OutputStream out) throws IOException {
+        Canonicalizer canonicalizer = new Canonicalizer(exclusive, comments, out);
+
+        Instrumentation instrumentation = XML.getInstrumentation();
+        if (instrumentation == Instrumentation.NONE) {
+            canonicalizer.write(node);
+        } else {
+            long start = System.nanoTime();
+            canonicalizer.write(node);
+            instrumentation.serialized(System.nanoTime() - start, canonicalizer.getByteCount());
+        }
+    }
+
+    /**
+     * Computes the digest of a document or element in canonical form, without
+     * building the canonical form in memory.
+     * @param node the document or element.
+     * @param digest the digest to update. It's reset when the digest is complete.
+     * @return the digest.
+     * @throws IllegalArgumentException if the node is neither a document nor an element.
+     */
+    public byte[] digest(Node node, MessageDigest digest) {
+        try {
+            write(node, new DigestSink(digest));
+        } catch (IOException e) {
+
+            // Digests don't do I/O
+            throw new IllegalStateException(e);
+        }
+        return digest.digest();
+    }
+
+}
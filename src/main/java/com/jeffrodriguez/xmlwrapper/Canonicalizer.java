@@ -0,0 +1,594 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.xml.XMLConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writes a DOM node in canonical form, encoded as UTF-8.
+ *
+ * Characters are encoded into an internal buffer that is written out as it
+ * fills, so nothing proportional to the document is ever held in memory.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class Canonicalizer {
+
+    /**
+     * The size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The prefix used as key for the default namespace.
+     */
+    private static final String DEFAULT_PREFIX = "";
+
+    /**
+     * Orders attributes by namespace URI, then local name.
+     */
+    private static final Comparator<Attr> ATTRIBUTE_ORDER = new Comparator<Attr>() {
+        @Override
+        public int compare(Attr a, Attr b) {
+            int result = namespaceURI(a).compareTo(namespaceURI(b));
+            if (result != 0) {
+                return result;
+            }
+            return SimplePath.localName(a).compareTo(SimplePath.localName(b));
+        }
+    };
+
+    /**
+     * True for exclusive canonicalization.
+     */
+    private final boolean exclusive;
+
+    /**
+     * True if comments are kept.
+     */
+    private final boolean comments;
+
+    /**
+     * The stream written to.
+     */
+    private final OutputStream out;
+
+    /**
+     * The output buffer.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int count;
+
+    /**
+     * The number of bytes written out of the buffer.
+     */
+    private long written;
+
+    /**
+     * Creates a new {@link Canonicalizer}.
+     * @param exclusive true for exclusive canonicalization.
+     * @param comments true to keep comments.
+     * @param out the stream to write to.
+     */
+    Canonicalizer(boolean exclusive, boolean comments, OutputStream out) {
+        this.exclusive = exclusive;
+        this.comments = comments;
+        this.out = out;
+    }
+
+    /**
+     * Writes a document or element, and flushes the output buffer.
+     * @param node the document or element.
+     * @throws IOException If the stream can't be written.
+     * @throws IllegalArgumentException if the node is neither a document nor an element.
+     */
+    void write(Node node) throws IOException {
+        switch (node.getNodeType()) {
+            case Node.DOCUMENT_NODE:
+                document(node);
+                break;
+            case Node.ELEMENT_NODE:
+                apex((Element) node);
+                break;
+            default:
+                throw new IllegalArgumentException("Only documents and elements can be canonicalized.");
+        }
+
+        flush();
+    }
+
+    /**
+     * Writes a document, with line breaks around the nodes outside the document element.
+     * @param document the document.
+     * @throws IOException If the stream can't be written.
+     */
+    private void document(Node document) throws IOException {
+        boolean afterRoot = false;
+
+        for (Node child = document.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    element((Element) child, new HashMap<String, String>(), new HashMap<String, String>());
+                    afterRoot = true;
+                    break;
+                case Node.COMMENT_NODE:
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    if (child.getNodeType() == Node.COMMENT_NODE && !comments) {
+                        break;
+                    }
+                    if (afterRoot) {
+                        write("\n");
+                    }
+                    node(child);
+                    if (!afterRoot) {
+                        write("\n");
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writes an element that isn't the document element, as the apex of a subtree.
+     *
+     * The namespaces declared by its ancestors are in scope. For inclusive
+     * canonicalization, they're rendered on the apex along with its inherited
+     * <code>xml:*</code> attributes.
+     * @param apex the element.
+     * @throws IOException If the stream can't be written.
+     */
+    private void apex(Element apex) throws IOException {
+        Map<String, String> scope = new HashMap<String, String>();
+        List<Attr> inherited = new ArrayList<Attr>();
+
+        // Walk the ancestors from the nearest, letting nearer declarations win
+        for (Node node = apex.getParentNode(); node instanceof Element; node = node.getParentNode()) {
+            NamedNodeMap attributes = node.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attribute = (Attr) attributes.item(i);
+                String name = attribute.getNodeName();
+                if (ContentHash.isNamespaceDeclaration(name)) {
+                    String prefix = declaredPrefix(name);
+                    if (!scope.containsKey(prefix)) {
+                        scope.put(prefix, attribute.getValue());
+                    }
+                } else if (!exclusive && name.startsWith(XMLConstants.XML_NS_PREFIX + ":")
+                        && !apex.hasAttribute(name) && !contains(inherited, name)) {
+                    inherited.add(attribute);
+                }
+            }
+        }
+
+        element(apex, scope, new HashMap<String, String>(), inherited);
+    }
+
+    /**
+     * Writes an element and its subtree.
+     * @param element the element.
+     * @param inScope the namespaces declared above the element, by prefix.
+     * @param rendered the namespaces rendered on the output ancestors, by prefix.
+     * @throws IOException If the stream can't be written.
+     */
+    private void element(Element element, Map<String, String> inScope, Map<String, String> rendered)
+            throws IOException {
+        element(element, inScope, rendered, null);
+    }
+
+    /**
+     * Writes an element and its subtree.
+     * @param element the element.
+     * @param inScope the namespaces declared above the element, by prefix.
+     * @param rendered the namespaces rendered on the output ancestors, by prefix.
+     * @param inherited extra attributes to render, possibly null.
+     * @throws IOException If the stream can't be written.
+     */
+    private void element(Element element, Map<String, String> inScope, Map<String, String> rendered,
+            List<Attr> inherited) throws IOException {
+
+        // Split the namespace declarations from the attributes
+        Map<String, String> scope = inScope;
+        List<Attr> attributes = new ArrayList<Attr>();
+        NamedNodeMap map = element.getAttributes();
+        for (int i = 0; i < map.getLength(); i++) {
+            Attr attribute = (Attr) map.item(i);
+            if (ContentHash.isNamespaceDeclaration(attribute.getNodeName())) {
+                scope = declare(scope, inScope, declaredPrefix(attribute.getNodeName()), attribute.getValue());
+            } else {
+                attributes.add(attribute);
+            }
+        }
+
+        if (inherited != null) {
+            attributes.addAll(inherited);
+        }
+
+        // Declare the namespaces used but not declared, e.g. on elements created without xmlns attributes
+        String elementPrefix = prefix(element);
+        if (element.getNamespaceURI() != null && !element.getNamespaceURI().equals(scope.get(elementPrefix))) {
+            scope = declare(scope, inScope, elementPrefix, element.getNamespaceURI());
+        }
+        for (Attr attribute : attributes) {
+            String prefix = attribute.getPrefix();
+            if (prefix != null && !XMLConstants.XML_NS_PREFIX.equals(prefix)
+                    && !attribute.getNamespaceURI().equals(scope.get(prefix))) {
+                scope = declare(scope, inScope, prefix, attribute.getNamespaceURI());
+            }
+        }
+
+        // Choose the namespace declarations to render, ordered by prefix with the default first
+        Map<String, String> declarations = new TreeMap<String, String>();
+        if (exclusive) {
+            render(declarations, elementPrefix, scope, rendered);
+            for (Attr attribute : attributes) {
+                String prefix = attribute.getPrefix();
+                if (prefix != null && !XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+                    render(declarations, prefix, scope, rendered);
+                }
+            }
+        } else {
+            for (String prefix : scope.keySet()) {
+                render(declarations, prefix, scope, rendered);
+            }
+        }
+
+        Map<String, String> renderedBelow = rendered;
+        if (!declarations.isEmpty()) {
+            renderedBelow = new HashMap<String, String>(rendered);
+            renderedBelow.putAll(declarations);
+        }
+
+        // Write the start tag
+        write("<");
+        write(element.getNodeName());
+        for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+            if (declaration.getKey().length() == 0) {
+                write(" xmlns=\"");
+            } else {
+                write(" xmlns:");
+                write(declaration.getKey());
+                write("=\"");
+            }
+            escape(declaration.getValue(), true);
+            write("\"");
+        }
+
+        Collections.sort(attributes, ATTRIBUTE_ORDER);
+        for (Attr attribute : attributes) {
+            write(" ");
+            write(attribute.getNodeName());
+            write("=\"");
+            escape(attribute.getValue(), true);
+            write("\"");
+        }
+        write(">");
+
+        // Write the content and end tag
+        children(element, scope, renderedBelow);
+        write("</");
+        write(element.getNodeName());
+        write(">");
+    }
+
+    /**
+     * Writes the children of an element or entity reference.
+     * @param parent the parent node.
+     * @param scope the namespaces in scope, by prefix.
+     * @param rendered the namespaces rendered on the output ancestors, by prefix.
+     * @throws IOException If the stream can't be written.
+     */
+    private void children(Node parent, Map<String, String> scope, Map<String, String> rendered) throws IOException {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    element((Element) child, scope, rendered);
+                    break;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    escape(child.getNodeValue(), false);
+                    break;
+                case Node.ENTITY_REFERENCE_NODE:
+                    children(child, scope, rendered);
+                    break;
+                case Node.COMMENT_NODE:
+                    if (comments) {
+                        node(child);
+                    }
+                    break;
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    node(child);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writes a comment or processing instruction.
+     * @param node the node.
+     * @throws IOException If the stream can't be written.
+     */
+    private void node(Node node) throws IOException {
+        if (node.getNodeType() == Node.COMMENT_NODE) {
+            write("<!--");
+            write(node.getNodeValue());
+            write("-->");
+        } else {
+            write("<?");
+            write(node.getNodeName());
+            String data = node.getNodeValue();
+            if (data != null && data.length() > 0) {
+                write(" ");
+                write(data);
+            }
+            write("?>");
+        }
+    }
+
+    /**
+     * Adds a namespace declaration to render, unless an output ancestor already rendered it.
+     *
+     * An empty default namespace is only rendered to undo a non-empty one.
+     * @param declarations the declarations to render.
+     * @param prefix the prefix.
+     * @param scope the namespaces in scope.
+     * @param rendered the namespaces rendered on the output ancestors.
+     */
+    private static void render(Map<String, String> declarations, String prefix, Map<String, String> scope,
+            Map<String, String> rendered) {
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return;
+        }
+
+        String namespaceURI = scope.get(prefix);
+        if (namespaceURI == null) {
+            namespaceURI = "";
+        }
+
+        String previous = rendered.get(prefix);
+        if (namespaceURI.length() == 0) {
+            if (previous != null && previous.length() > 0) {
+                declarations.put(prefix, namespaceURI);
+            }
+        } else if (!namespaceURI.equals(previous)) {
+            declarations.put(prefix, namespaceURI);
+        }
+    }
+
+    /**
+     * Adds a namespace to a scope, copying the scope if it's still the parent's.
+     * @param scope the current scope.
+     * @param parentScope the parent's scope, which must not be modified.
+     * @param prefix the prefix.
+     * @param namespaceURI the namespace URI.
+     * @return the scope with the namespace.
+     */
+    private static Map<String, String> declare(Map<String, String> scope, Map<String, String> parentScope,
+            String prefix, String namespaceURI) {
+        Map<String, String> result = scope;
+        if (result == parentScope) {
+            result = new HashMap<String, String>(parentScope);
+        }
+        result.put(prefix, namespaceURI);
+        return result;
+    }
+
+    /**
+     * Gets the prefix declared by a namespace declaration.
+     * @param name the name of the declaration attribute.
+     * @return the prefix, or the empty string for the default namespace.
+     */
+    private static String declaredPrefix(String name) {
+        if (name.length() == XMLConstants.XMLNS_ATTRIBUTE.length()) {
+            return DEFAULT_PREFIX;
+        }
+        return name.substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1);
+    }
+
+    /**
+     * Gets the prefix of an element.
+     * @param element the element.
+     * @return the prefix, or the empty string if it has none.
+     */
+    private static String prefix(Element element) {
+        String prefix = element.getPrefix();
+        if (prefix == null) {
+            return DEFAULT_PREFIX;
+        }
+        return prefix;
+    }
+
+    /**
+     * Gets the namespace URI of a node.
+     * @param node the node.
+     * @return the namespace URI, or the empty string if it has none.
+     */
+    private static String namespaceURI(Node node) {
+        String namespaceURI = node.getNamespaceURI();
+        if (namespaceURI == null) {
+            return "";
+        }
+        return namespaceURI;
+    }
+
+    /**
+     * Returns true if a list contains an attribute with a name.
+     * @param attributes the attributes.
+     * @param name the qualified name.
+     * @return true if an attribute has the name.
+     */
+    private static boolean contains(List<Attr> attributes, String name) {
+        for (Attr attribute : attributes) {
+            if (attribute.getNodeName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes text or an attribute value, escaped as canonical XML requires.
+     * @param value the text.
+     * @param attribute true for an attribute value.
+     * @throws IOException If the stream can't be written.
+     */
+    private void escape(String value, boolean attribute) throws IOException {
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            String replacement = null;
+            switch (value.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    if (!attribute) {
+                        replacement = "&gt;";
+                    }
+                    break;
+                case '"':
+                    if (attribute) {
+                        replacement = "&quot;";
+                    }
+                    break;
+                case '\t':
+                    if (attribute) {
+                        replacement = "&#x9;";
+                    }
+                    break;
+                case '\n':
+                    if (attribute) {
+                        replacement = "&#xA;";
+                    }
+                    break;
+                case '\r':
+                    replacement = "&#xD;";
+                    break;
+                default:
+                    break;
+            }
+
+            if (replacement != null) {
+                write(value, start, i);
+                write(replacement);
+                start = i + 1;
+            }
+        }
+        write(value, start, value.length());
+    }
+
+    /**
+     * Writes a string.
+     * @param value the string.
+     * @throws IOException If the stream can't be written.
+     */
+    private void write(String value) throws IOException {
+        write(value, 0, value.length());
+    }
+
+    /**
+     * Writes part of a string, encoded as UTF-8.
+     * @param value the string.
+     * @param start the index of the first character.
+     * @param end the index after the last character.
+     * @throws IOException If the stream can't be written.
+     */
+    private void write(String value, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            if (count > BUFFER_SIZE - 4) {
+                flushBuffer();
+            }
+
+            int c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < end
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint((char) c, value.charAt(++i));
+                buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Writes out the buffer.
+     * @throws IOException If the stream can't be written.
+     */
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            written += count;
+            count = 0;
+        }
+    }
+
+    /**
+     * @return the number of bytes written so far.
+     */
+    long getByteCount() {
+        return written + count;
+    }
+
+    /**
+     * Writes out the buffer and flushes the stream.
+     * @throws IOException If the stream can't be written.
+     */
+    private void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+}
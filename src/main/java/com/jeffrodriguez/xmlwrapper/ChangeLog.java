@@ -0,0 +1,160 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.transform.TransformerException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The {@link Edit}s made to a document through the wrapper, in order.
+ *
+ * A log is attached to its document as user data, so every wrapper of the
+ * document's elements records into it. Documents without a log pay a single
+ * lookup per mutation.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class ChangeLog {
+
+    /**
+     * The user data key of the log.
+     */
+    private static final String KEY = ChangeLog.class.getName();
+
+    /**
+     * The edits recorded so far.
+     */
+    private final List<Edit> edits = new ArrayList<Edit>();
+
+    /**
+     * Creates a new, empty {@link ChangeLog}.
+     */
+    private ChangeLog() {
+    }
+
+    /**
+     * Starts recording the changes to a document, discarding any previous log.
+     * @param document the document.
+     */
+    static void start(Document document) {
+        document.setUserData(KEY, new ChangeLog(), null);
+    }
+
+    /**
+     * Stops recording the changes to a document.
+     * @param document the document.
+     * @return the log, or null if the changes weren't being recorded.
+     */
+    static ChangeLog stop(Document document) {
+        return (ChangeLog) document.setUserData(KEY, null, null);
+    }
+
+    /**
+     * Gets the log of a node's document.
+     * @param node the node.
+     * @return the log, or null if the changes aren't being recorded.
+     */
+    static ChangeLog get(Node node) {
+        Document document = node.getOwnerDocument();
+        if (document == null) {
+            document = (Document) node;
+        }
+        return (ChangeLog) document.getUserData(KEY);
+    }
+
+    /**
+     * Records an edit.
+     * @param edit the edit.
+     */
+    void record(Edit edit) {
+        edits.add(edit);
+    }
+
+    /**
+     * Records the insertion of an element, which must already be in place.
+     * @param child the inserted element.
+     */
+    void recordInsert(Element child) {
+        Element parent = (Element) child.getParentNode();
+        int position = 0;
+        for (Node node = child.getPreviousSibling(); node != null; node = node.getPreviousSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                position++;
+            }
+        }
+        record(Edit.insertElement(path(parent), position, markup(child)));
+    }
+
+    /**
+     * @return a copy of the edits recorded so far.
+     */
+    List<Edit> getEdits() {
+        return new ArrayList<Edit>(edits);
+    }
+
+    /**
+     * Builds the path of an element, as used by {@link Edit}.
+     * @param element the element, which must be part of its document's tree.
+     * @return the path.
+     */
+    static String path(Element element) {
+        StringBuilder path = new StringBuilder();
+        Node node = element;
+
+        while (node != null && node.getNodeType() == Node.ELEMENT_NODE) {
+            String name = node.getNodeName();
+            int index = 1;
+            for (Node sibling = node.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+                if (sibling.getNodeType() == Node.ELEMENT_NODE && name.equals(sibling.getNodeName())) {
+                    index++;
+                }
+            }
+
+            path.insert(0, "/" + name + "[" + index + "]");
+            node = node.getParentNode();
+        }
+
+        return path.toString();
+    }
+
+    /**
+     * Serializes an element for an {@link Edit}.
+     * @param element the element.
+     * @return the element, as XML.
+     * @throws IllegalStateException if the element can't be serialized.
+     */
+    static String markup(Element element) {
+        try {
+            return XML.toString(element);
+        } catch (TransformerException e) {
+            throw new IllegalStateException("Failed to record the element: " + element.getNodeName(), e);
+        }
+    }
+
+}
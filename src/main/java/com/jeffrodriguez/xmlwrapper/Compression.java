@@ -0,0 +1,183 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stream compression formats, for use with
+ * {@link XML#parse(InputStream, ParserProfile, Compression)} and
+ * {@link XML#write(OutputStream, boolean, Compression)}.
+ *
+ * Data is compressed and decompressed as it streams through, without an
+ * intermediate copy of the document.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public enum Compression {
+
+    /**
+     * Uncompressed.
+     */
+    NONE {
+        @Override
+        InputStream decompress(InputStream in, int bufferSize) {
+            return new Unclosed(in);
+        }
+
+        @Override
+        OutputStream compress(OutputStream out, int bufferSize) {
+            return new UnclosedOutput(out);
+        }
+    },
+
+    /**
+     * The gzip format (RFC 1952), as written by <code>gzip</code>.
+     *
+     * Concatenated members are read as one stream.
+     */
+    GZIP {
+        @Override
+        InputStream decompress(InputStream in, int bufferSize) throws IOException {
+            return new GZIPInputStream(new Unclosed(in), bufferSize);
+        }
+
+        @Override
+        OutputStream compress(OutputStream out, int bufferSize) throws IOException {
+            return new GZIPOutputStream(new UnclosedOutput(out), bufferSize);
+        }
+    },
+
+    /**
+     * The zlib format (RFC 1950), the DEFLATE stream of HTTP's
+     * <code>deflate</code> content encoding.
+     */
+    DEFLATE {
+        @Override
+        InputStream decompress(InputStream in, int bufferSize) {
+            return new InflaterInputStream(new Unclosed(in), new Inflater(), bufferSize) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            };
+        }
+
+        @Override
+        OutputStream compress(OutputStream out, int bufferSize) {
+            return new DeflaterOutputStream(new UnclosedOutput(out), new Deflater(), bufferSize) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    def.end();
+                }
+            };
+        }
+    };
+
+    /**
+     * The default buffer size, in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Opens a decompressing stream.
+     *
+     * Closing the returned stream releases the decompressor, but leaves the
+     * underlying stream open.
+     * @param in the compressed stream.
+     * @param bufferSize the size of the buffer of compressed bytes.
+     * @return the decompressed stream.
+     * @throws IOException if the stream's header can't be read.
+     */
+    abstract InputStream decompress(InputStream in, int bufferSize) throws IOException;
+
+    /**
+     * Opens a compressing stream.
+     *
+     * Closing the returned stream writes the end of the compressed data and
+     * flushes it, but leaves the underlying stream open.
+     * @param out the stream to write compressed bytes to.
+     * @param bufferSize the size of the buffer of compressed bytes.
+     * @return the stream to write uncompressed bytes to.
+     * @throws IOException if the stream's header can't be written.
+     */
+    abstract OutputStream compress(OutputStream out, int bufferSize) throws IOException;
+
+    /**
+     * An {@link InputStream} whose {@link #close()} leaves the underlying stream open.
+     */
+    private static final class Unclosed extends FilterInputStream {
+
+        /**
+         * Creates a new {@link Unclosed}.
+         * @param in the stream to read from.
+         */
+        Unclosed(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // The caller owns the stream
+        }
+    }
+
+    /**
+     * An {@link OutputStream} whose {@link #close()} only flushes the underlying stream.
+     */
+    private static final class UnclosedOutput extends FilterOutputStream {
+
+        /**
+         * Creates a new {@link UnclosedOutput}.
+         * @param out the stream to write to.
+         */
+        UnclosedOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Computes 64-bit hashes of element subtrees.
+ *
+ * The hash covers element and attribute names (by namespace and local name),
+ * attribute values, and each element's child elements and runs of text in
+ * order, with leading and trailing whitespace trimmed from each run. It doesn't
+ * depend on attribute order, namespace prefixes or declarations, comments,
+ * processing instructions, or the split of text between text and CDATA nodes.
+ *
+ * Nothing is kept on the document, so modifications are always picked up.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class ContentHash {
+
+    /**
+     * The FNV-1a offset basis.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /**
+     * The FNV-1a prime.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Distinguishes the hashes of text from those of child elements.
+     */
+    private static final long TEXT = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Not instantiable.
+     */
+    private ContentHash() {
+    }
+
+    /**
+     * Hashes an element's subtree.
+     * @param element the element.
+     * @param hashes if not null, receives the hash of every element in the subtree.
+     * @return the hash.
+     */
+    static long hash(Element element, NodeHashes hashes) {
+        long hash = mix(FNV_OFFSET ^ hash(element.getNamespaceURI()));
+        hash = mix(hash ^ hash(SimplePath.localName(element)));
+
+        // Combine the attributes in an order-insensitive way
+        long attributes = 0;
+        NamedNodeMap map = element.getAttributes();
+        for (int i = 0; i < map.getLength(); i++) {
+            Node attribute = map.item(i);
+            if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+                    && !isNamespaceDeclaration(attribute.getNodeName())) {
+                long attributeHash = mix(FNV_OFFSET ^ hash(attribute.getNamespaceURI()));
+                attributeHash = mix(attributeHash ^ hash(SimplePath.localName(attribute)));
+                attributeHash = mix(attributeHash ^ hash(attribute.getNodeValue()));
+                attributes += attributeHash;
+            }
+        }
+        hash = mix(hash ^ attributes);
+
+        // Combine the child elements and the runs of text between them, in order
+        StringBuilder text = null;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    hash = mixText(hash, text);
+                    hash = mix(hash ^ hash((Element) child, hashes));
+                    break;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    if (text == null) {
+                        text = new StringBuilder();
+                    }
+                    text.append(child.getNodeValue());
+                    break;
+                default:
+                    break;
+            }
+        }
+        hash = mixText(hash, text);
+
+        if (hashes != null) {
+            hashes.put(element, hash);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Combines a run of text into a hash, and empties it.
+     * @param hash the hash so far.
+     * @param text the run of text, possibly null.
+     * @return the new hash. Whitespace-only text counts as no text.
+     */
+    private static long mixText(long hash, StringBuilder text) {
+        if (text == null) {
+            return hash;
+        }
+
+        String trimmed = text.toString().trim();
+        text.setLength(0);
+        if (trimmed.length() == 0) {
+            return hash;
+        }
+        return mix(hash ^ TEXT ^ hash(trimmed));
+    }
+
+    /**
+     * Compares two elements' subtrees as the hash sees them.
+     * @param a an element.
+     * @param b another element.
+     * @return true if the subtrees are equal, ignoring what the hash ignores.
+     */
+    static boolean equal(Element a, Element b) {
+        if (a == b) {
+            return true;
+        }
+
+        if (!equal(a.getNamespaceURI(), b.getNamespaceURI())
+                || !SimplePath.localName(a).equals(SimplePath.localName(b))
+                || !attributes(a).equals(attributes(b))) {
+            return false;
+        }
+
+        // Compare the runs of text between the child elements
+        List<String> runsA = runs(a);
+        List<String> runsB = runs(b);
+        if (runsA.size() != runsB.size()) {
+            return false;
+        }
+        for (int i = 0; i < runsA.size(); i++) {
+            if (!runsA.get(i).trim().equals(runsB.get(i).trim())) {
+                return false;
+            }
+        }
+
+        // Compare the child elements in order
+        Node childA = nextElement(a.getFirstChild());
+        Node childB = nextElement(b.getFirstChild());
+        while (childA != null && childB != null) {
+            if (!equal((Element) childA, (Element) childB)) {
+                return false;
+            }
+            childA = nextElement(childA.getNextSibling());
+            childB = nextElement(childB.getNextSibling());
+        }
+
+        return childA == null && childB == null;
+    }
+
+    /**
+     * Collects the attributes of an element as the hash sees them.
+     * @param element the element.
+     * @return the attribute values, by namespace URI and local name.
+     */
+    private static Map<String, String> attributes(Element element) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        NamedNodeMap map = element.getAttributes();
+        for (int i = 0; i < map.getLength(); i++) {
+            Node attribute = map.item(i);
+            if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+                    && !isNamespaceDeclaration(attribute.getNodeName())) {
+                attributes.put("{" + attribute.getNamespaceURI() + "}" + SimplePath.localName(attribute),
+                        attribute.getNodeValue());
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Finds the first element at or after a node, among its siblings.
+     * @param node the node to start from, possibly null.
+     * @return the first element, or null if there is none.
+     */
+    private static Node nextElement(Node node) {
+        while (node != null && node.getNodeType() != Node.ELEMENT_NODE) {
+            node = node.getNextSibling();
+        }
+        return node;
+    }
+
+    /**
+     * Compares two possibly null strings.
+     * @param a a string.
+     * @param b another string.
+     * @return true if both are null or equal.
+     */
+    private static boolean equal(String a, String b) {
+        if (a == null) {
+            return b == null;
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Gets an element's text content as the hash sees it.
+     * @param element the element.
+     * @return the text of its text and CDATA children, trimmed.
+     */
+    static String text(Element element) {
+        StringBuilder text = new StringBuilder();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                text.append(child.getNodeValue());
+            }
+        }
+        return text.toString().trim();
+    }
+
+    /**
+     * Gets the runs of text around an element's child elements.
+     * @param element the element.
+     * @return the text of the text and CDATA children before each child
+     * element, and after the last one, untrimmed.
+     */
+    static List<String> runs(Element element) {
+        List<String> runs = new ArrayList<String>();
+        StringBuilder run = new StringBuilder();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                runs.add(run.toString());
+                run.setLength(0);
+            } else if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                run.append(child.getNodeValue());
+            }
+        }
+        runs.add(run.toString());
+        return runs;
+    }
+
+    /**
+     * Returns true if an attribute name is a namespace declaration.
+     * @param name the qualified attribute name.
+     * @return true for <code>xmlns</code> and <code>xmlns:*</code>.
+     */
+    static boolean isNamespaceDeclaration(String name) {
+        return name.equals(XMLConstants.XMLNS_ATTRIBUTE) || name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":");
+    }
+
+    /**
+     * Hashes a string with 64-bit FNV-1a.
+     * @param value the string, possibly null.
+     * @return the hash.
+     */
+    private static long hash(String value) {
+        if (value == null) {
+            return 0;
+        }
+
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Scrambles the bits of a hash, using the SplitMix64 finalizer.
+     * @param value the value to scramble.
+     * @return the scrambled value.
+     */
+    private static long mix(long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,285 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+/**
+ * A single change to an XML document.
+ *
+ * Elements are addressed by paths of the form <code>/foo[1]/bar[2]</code>,
+ * where each index counts the preceding siblings with the same name, from 1.
+ * A list of edits is applied in order, and each path is relative to the
+ * document as left by the edits before it.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class Edit {
+
+    /**
+     * The kinds of edits.
+     */
+    public enum Type {
+
+        /**
+         * Inserts an element, given as markup, into the element at the path.
+         */
+        INSERT_ELEMENT,
+
+        /**
+         * Removes the element at the path.
+         */
+        REMOVE_ELEMENT,
+
+        /**
+         * Replaces the element at the path with an element given as markup.
+         */
+        REPLACE_ELEMENT,
+
+        /**
+         * Sets an attribute of the element at the path.
+         */
+        SET_ATTRIBUTE,
+
+        /**
+         * Removes an attribute of the element at the path.
+         */
+        REMOVE_ATTRIBUTE,
+
+        /**
+         * Sets the text content of the element at the path or, with a position,
+         * its text right before the child element at the position.
+         */
+        SET_TEXT
+    }
+
+    /**
+     * The kind of edit.
+     */
+    private final Type type;
+
+    /**
+     * The path of the element edited.
+     */
+    private final String path;
+
+    /**
+     * The position of an inserted element among its element siblings, or of
+     * the child element the text is set before.
+     */
+    private final int position;
+
+    /**
+     * The name of the attribute edited.
+     */
+    private final String name;
+
+    /**
+     * The new value: the markup, attribute value or text.
+     */
+    private final String value;
+
+    /**
+     * Creates a new {@link Edit}.
+     * @param type the kind of edit.
+     * @param path the path of the element edited.
+     * @param position the position of an inserted element or of the text, or -1.
+     * @param name the name of the attribute edited, or null.
+     * @param value the new value, or null.
+     */
+    private Edit(Type type, String path, int position, String name, String value) {
+        this.type = type;
+        this.path = path;
+        this.position = position;
+        this.name = name;
+        this.value = value;
+    }
+
+    /**
+     * Creates an edit inserting an element.
+     * @param parentPath the path of the parent element.
+     * @param position the position of the new element among the parent's child elements, from 0.
+     * @param markup the new element, as XML.
+     * @return a new {@link Edit}.
+     */
+    public static Edit insertElement(String parentPath, int position, String markup) {
+        return new Edit(Type.INSERT_ELEMENT, parentPath, position, null, markup);
+    }
+
+    /**
+     * Creates an edit removing an element.
+     * @param path the path of the element.
+     * @return a new {@link Edit}.
+     */
+    public static Edit removeElement(String path) {
+        return new Edit(Type.REMOVE_ELEMENT, path, -1, null, null);
+    }
+
+    /**
+     * Creates an edit replacing an element.
+     * @param path the path of the element.
+     * @param markup the new element, as XML.
+     * @return a new {@link Edit}.
+     */
+    public static Edit replaceElement(String path, String markup) {
+        return new Edit(Type.REPLACE_ELEMENT, path, -1, null, markup);
+    }
+
+    /**
+     * Creates an edit setting an attribute.
+     * @param path the path of the element.
+     * @param name the name of the attribute.
+     * @param value the value of the attribute.
+     * @return a new {@link Edit}.
+     */
+    public static Edit setAttribute(String path, String name, String value) {
+        return new Edit(Type.SET_ATTRIBUTE, path, -1, name, value);
+    }
+
+    /**
+     * Creates an edit removing an attribute.
+     * @param path the path of the element.
+     * @param name the name of the attribute.
+     * @return a new {@link Edit}.
+     */
+    public static Edit removeAttribute(String path, String name) {
+        return new Edit(Type.REMOVE_ATTRIBUTE, path, -1, name, null);
+    }
+
+    /**
+     * Creates an edit setting the text content of an element.
+     * @param path the path of the element.
+     * @param text the new text content.
+     * @return a new {@link Edit}.
+     */
+    public static Edit setText(String path, String text) {
+        return new Edit(Type.SET_TEXT, path, -1, null, text);
+    }
+
+    /**
+     * Creates an edit setting the text between two child elements of an
+     * element, leaving the rest of its text as it is.
+     * @param path the path of the element.
+     * @param position the position, among the element's child elements, of
+     * the one the text comes before, from 0. The number of child elements
+     * sets the text after the last one.
+     * @param text the new text.
+     * @return a new {@link Edit}.
+     */
+    public static Edit setText(String path, int position, String text) {
+        return new Edit(Type.SET_TEXT, path, position, null, text);
+    }
+
+    /**
+     * @return the kind of edit.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the path of the element edited, or of the parent of an inserted element.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the position of an inserted element among its parent's child
+     * elements, the position of the child element text is set before, or -1.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the name of the attribute edited, or null.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the new markup, attribute value or text, or null for removals.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 3;
+        hash = 41 * hash + type.hashCode();
+        hash = 41 * hash + path.hashCode();
+        hash = 41 * hash + position;
+        hash = 41 * hash + (name != null ? name.hashCode() : 0);
+        hash = 41 * hash + (value != null ? value.hashCode() : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final Edit other = (Edit) obj;
+        return type == other.type
+            && path.equals(other.path)
+            && position == other.position
+            && equal(name, other.name)
+            && equal(value, other.value);
+    }
+
+    /**
+     * Compares two possibly null strings.
+     * @param a a string.
+     * @param b another string.
+     * @return true if both are null or equal.
+     */
+    private static boolean equal(String a, String b) {
+        if (a == null) {
+            return b == null;
+        }
+        return a.equals(b);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(type).append(' ').append(path);
+        if (position >= 0) {
+            builder.append(" at ").append(position);
+        }
+        if (name != null) {
+            builder.append(" @").append(name);
+        }
+        if (value != null) {
+            builder.append(" = ").append(value);
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,141 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A read-only {@link List} of elements, over a snapshot of the nodes taken
+ * when the list was created.
+ *
+ * Elements are wrapped as they're read, so the list costs one array of nodes.
+ * It's {@link RandomAccess}, so on Java 9 and later its streams are sized and
+ * split by index, and can be processed in parallel without copying.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class ElementList extends AbstractList<XMLElement> implements RandomAccess {
+
+    /**
+     * The snapshot of the elements.
+     */
+    private final Element[] elements;
+
+    /**
+     * The element whose {@link XMLElement#wrap(Element)} wraps the others.
+     */
+    private final XMLElement wrapper;
+
+    /**
+     * The number of nodes examined to take the snapshot.
+     */
+    private final int visited;
+
+    /**
+     * Creates a new {@link ElementList}.
+     * @param elements the snapshot of the elements.
+     * @param wrapper an element of the same kind as the ones to create.
+     * @param visited the number of nodes examined to take the snapshot.
+     */
+    private ElementList(Element[] elements, XMLElement wrapper, int visited) {
+        this.elements = elements;
+        this.wrapper = wrapper;
+        this.visited = visited;
+    }
+
+    /**
+     * Takes a snapshot of the children of an element.
+     * @param parent the parent element.
+     * @param name the tag name of the children, or <code>*</code> for all of them.
+     * @return the children, in document order.
+     */
+    static ElementList children(XMLElement parent, String name) {
+        boolean any = "*".equals(name);
+
+        // Count the matching children first, to size the array exactly
+        int count = 0;
+        int visited = 0;
+        Node first = parent.getElement().getFirstChild();
+        for (Node node = first; node != null; node = node.getNextSibling()) {
+            visited++;
+            if (node.getNodeType() == Node.ELEMENT_NODE && (any || name.equals(node.getNodeName()))) {
+                count++;
+            }
+        }
+
+        Element[] elements = new Element[count];
+        int i = 0;
+        for (Node node = first; i < count; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && (any || name.equals(node.getNodeName()))) {
+                elements[i++] = (Element) node;
+            }
+        }
+
+        return new ElementList(elements, parent, visited);
+    }
+
+    /**
+     * Takes a snapshot of a node list.
+     * @param nodes the node list.
+     * @param wrapper an element of the same kind as the ones to create.
+     * @return the elements, in the order of the node list.
+     * @throws IllegalArgumentException if the list holds a node that isn't an element.
+     */
+    static ElementList of(NodeList nodes, XMLElement wrapper) {
+        Element[] elements = new Element[nodes.getLength()];
+        for (int i = 0; i < elements.length; i++) {
+            Node node = nodes.item(i);
+            if (!(node instanceof Element)) {
+                throw new IllegalArgumentException("Not an element: " + node.getNodeName());
+            }
+            elements[i] = (Element) node;
+        }
+
+        return new ElementList(elements, wrapper, elements.length);
+    }
+
+    /**
+     * @return the number of nodes examined to take the snapshot.
+     */
+    int getVisited() {
+        return visited;
+    }
+
+    @Override
+    public XMLElement get(int index) {
+        return wrapper.wrap(elements[index]);
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+}
@@ -0,0 +1,154 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A read-only {@link XMLElement} of a document frozen by {@link XML#freeze()}.
+ *
+ * Navigation follows sibling pointers only, and content hashes come from the
+ * frozen document, so reading never writes to the DOM. Methods that would
+ * modify the element throw {@link UnsupportedOperationException}.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class FrozenElement extends XMLElement {
+
+    /**
+     * The frozen document.
+     */
+    private final FrozenXML document;
+
+    /**
+     * Creates a new {@link FrozenElement}.
+     * @param element the element to wrap, from the frozen document.
+     * @param document the frozen document.
+     */
+    FrozenElement(Element element, FrozenXML document) {
+        super(element);
+        this.document = document;
+    }
+
+    @Override
+    XMLElement wrap(Element other) {
+        return new FrozenElement(other, document);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The descendants are collected up front, rather than through a live node list.
+     */
+    @Override
+    public Iterable<XMLElement> getChildren(String name) {
+        List<XMLElement> children = new ArrayList<XMLElement>();
+        Element root = getElement();
+        boolean any = "*".equals(name);
+
+        // Walk the descendants in document order
+        Node node = root.getFirstChild();
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && (any || name.equals(node.getNodeName()))) {
+                children.add(new FrozenElement((Element) node, document));
+            }
+
+            Node next = node.getFirstChild();
+            while (next == null && node != root) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+
+        return Collections.unmodifiableList(children);
+    }
+
+    @Override
+    public long contentHash() {
+        return document.contentHash(getElement());
+    }
+
+    @Override
+    public XMLElement addChild(String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public XMLElement append(XMLElement child) {
+        throw readOnly();
+    }
+
+    @Override
+    public XMLElement append(XMLElement child, boolean adopt) {
+        throw readOnly();
+    }
+
+    @Override
+    public XMLElement setChildValue(String name, String value) {
+        throw readOnly();
+    }
+
+    @Override
+    public XMLElement setChildValues(Map<String, String> values) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<XMLElement> addChildren(String... names) {
+        throw readOnly();
+    }
+
+    @Override
+    public XMLElement setAttribute(String name, String value) {
+        throw readOnly();
+    }
+
+    @Override
+    public XMLElement setAttributes(Map<String, String> attributes) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setValue(String value) {
+        throw readOnly();
+    }
+
+    /**
+     * Builds the exception thrown by modifications.
+     * @return the exception.
+     */
+    static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Frozen documents are read-only.");
+    }
+
+}
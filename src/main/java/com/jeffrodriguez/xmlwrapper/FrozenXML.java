@@ -0,0 +1,174 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/**
+ * A read-only {@link XML} snapshot, made by {@link XML#freeze()}.
+ *
+ * Xerces mutates its nodes on some reads: deferred nodes are expanded,
+ * attribute maps and attribute values are created on first access, and node
+ * lists are cached. The snapshot is expanded completely when it's made, and
+ * its elements are only navigated in ways that don't touch those caches,
+ * so any number of threads can read it at once. Content hashes are computed
+ * for the whole document on first use, and kept.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class FrozenXML extends XML {
+
+    /**
+     * The content hash of every element, or null until first needed.
+     */
+    private volatile NodeHashes hashes;
+
+    /**
+     * Creates a new {@link FrozenXML}.
+     * @param document the document, expanded by {@link XML#expand(Node)}.
+     */
+    private FrozenXML(Document document) {
+        super(document);
+    }
+
+    /**
+     * Freezes a document in place.
+     * @param document the document, which must not be used or modified in any other way afterwards.
+     * @return the frozen document.
+     */
+    static FrozenXML of(Document document) {
+        XML.expand(document);
+        return new FrozenXML(document);
+    }
+
+    /**
+     * Gets the content hash of an element, hashing the whole document on first use.
+     * @param element an element of this document.
+     * @return the hash.
+     */
+    long contentHash(Element element) {
+        NodeHashes table = hashes;
+        if (table == null) {
+
+            // Threads racing here each fill a table of their own, and all are equal
+            table = new NodeHashes();
+            ContentHash.hash(getDocument().getDocumentElement(), table);
+            hashes = table;
+        }
+        return table.get(element);
+    }
+
+    /**
+     * @return this document, which is already frozen.
+     */
+    @Override
+    public XML freeze() {
+        return this;
+    }
+
+    @Override
+    XMLElement wrap(Element element) {
+        return new FrozenElement(element, this);
+    }
+
+    @Override
+    public Iterable<XMLElement> xpathElements(String expression) throws XPathExpressionException {
+        return readOnly(super.xpathElements(expression));
+    }
+
+    @Override
+    public Iterable<XMLElement> xpathElements(String expression, boolean lazy) throws XPathExpressionException {
+        if (lazy) {
+            SimplePath path = SimplePath.parse(expression);
+            if (path != null) {
+                return new PathIterator(getDocument(), path, getRoot()).toIterable();
+            }
+        }
+
+        return xpathElements(expression);
+    }
+
+    @Override
+    public XMLElement merge(XML other, boolean adopt) {
+        throw FrozenElement.readOnly();
+    }
+
+    @Override
+    public void apply(List<Edit> edits) throws SAXException {
+        throw FrozenElement.readOnly();
+    }
+
+    @Override
+    public void startChangeLog() {
+        throw FrozenElement.readOnly();
+    }
+
+    @Override
+    public List<Edit> getChangeLog() {
+        return new ArrayList<Edit>();
+    }
+
+    @Override
+    public List<Edit> stopChangeLog() {
+        return new ArrayList<Edit>();
+    }
+
+    /**
+     * Makes an {@link Iterable} of elements of this document read-only.
+     * @param elements the elements, already {@link FrozenElement}s.
+     * @return an {@link Iterable} whose iterators don't support removal.
+     */
+    private static Iterable<XMLElement> readOnly(final Iterable<XMLElement> elements) {
+        return new Iterable<XMLElement>() {
+            @Override
+            public Iterator<XMLElement> iterator() {
+                final Iterator<XMLElement> iterator = elements.iterator();
+                return new Iterator<XMLElement>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public XMLElement next() {
+                        return iterator.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw FrozenElement.readOnly();
+                    }
+                };
+            }
+        };
+    }
+
+}
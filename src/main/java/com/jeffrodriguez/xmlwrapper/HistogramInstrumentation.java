@@ -0,0 +1,246 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An {@link Instrumentation} that records every event in {@link Histogram}s, for local use.
+ *
+ * XPath timings are kept per expression, so this is best suited to
+ * applications using a bounded set of expressions.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class HistogramInstrumentation extends Instrumentation {
+
+    /**
+     * True if parsed documents have their nodes counted.
+     */
+    private final boolean countingNodes;
+
+    /**
+     * Parse times, in nanoseconds.
+     */
+    private final Histogram parseTimes = new Histogram();
+
+    /**
+     * Parse input lengths.
+     */
+    private final Histogram parseLengths = new Histogram();
+
+    /**
+     * Parsed node counts.
+     */
+    private final Histogram nodeCounts = new Histogram();
+
+    /**
+     * Serialization times, in nanoseconds.
+     */
+    private final Histogram serializeTimes = new Histogram();
+
+    /**
+     * Serialization output lengths.
+     */
+    private final Histogram serializeLengths = new Histogram();
+
+    /**
+     * Child lookup times, in nanoseconds.
+     */
+    private final Histogram navigateTimes = new Histogram();
+
+    /**
+     * Nodes visited per child lookup.
+     */
+    private final Histogram navigateNodes = new Histogram();
+
+    /**
+     * XPath compilation times, in nanoseconds, by expression.
+     */
+    private final ConcurrentMap<String, Histogram> compileTimes = new ConcurrentHashMap<String, Histogram>();
+
+    /**
+     * XPath evaluation times, in nanoseconds, by expression.
+     */
+    private final ConcurrentMap<String, Histogram> evaluateTimes = new ConcurrentHashMap<String, Histogram>();
+
+    /**
+     * Creates a new {@link HistogramInstrumentation} that doesn't count nodes.
+     */
+    public HistogramInstrumentation() {
+        this(false);
+    }
+
+    /**
+     * Creates a new {@link HistogramInstrumentation}.
+     * @param countingNodes true to count the nodes of parsed documents.
+     */
+    public HistogramInstrumentation(boolean countingNodes) {
+        this.countingNodes = countingNodes;
+    }
+
+    @Override
+    public boolean isCountingNodes() {
+        return countingNodes;
+    }
+
+    @Override
+    public void parsed(long nanos, long inputLength, long nodeCount) {
+        parseTimes.record(nanos);
+        parseLengths.record(inputLength);
+        if (nodeCount >= 0) {
+            nodeCounts.record(nodeCount);
+        }
+    }
+
+    @Override
+    public void serialized(long nanos, long outputLength) {
+        serializeTimes.record(nanos);
+        serializeLengths.record(outputLength);
+    }
+
+    @Override
+    public void compiled(String expression, long nanos) {
+        histogram(compileTimes, expression).record(nanos);
+    }
+
+    @Override
+    public void evaluated(String expression, long nanos) {
+        histogram(evaluateTimes, expression).record(nanos);
+    }
+
+    @Override
+    public void navigated(long nanos, long nodesVisited) {
+        navigateTimes.record(nanos);
+        navigateNodes.record(nodesVisited);
+    }
+
+    /**
+     * Gets the histogram of an expression, creating it if needed.
+     * @param histograms the histograms, by expression.
+     * @param expression the expression.
+     * @return the histogram.
+     */
+    private static Histogram histogram(ConcurrentMap<String, Histogram> histograms, String expression) {
+        Histogram histogram = histograms.get(expression);
+        if (histogram == null) {
+            histogram = new Histogram();
+            Histogram existing = histograms.putIfAbsent(expression, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return parse times, in nanoseconds.
+     */
+    public Histogram getParseTimes() {
+        return parseTimes;
+    }
+
+    /**
+     * @return parse input lengths.
+     */
+    public Histogram getParseLengths() {
+        return parseLengths;
+    }
+
+    /**
+     * @return parsed node counts, if counting nodes.
+     */
+    public Histogram getNodeCounts() {
+        return nodeCounts;
+    }
+
+    /**
+     * @return serialization times, in nanoseconds.
+     */
+    public Histogram getSerializeTimes() {
+        return serializeTimes;
+    }
+
+    /**
+     * @return serialization output lengths.
+     */
+    public Histogram getSerializeLengths() {
+        return serializeLengths;
+    }
+
+    /**
+     * @return child lookup times, in nanoseconds.
+     */
+    public Histogram getNavigateTimes() {
+        return navigateTimes;
+    }
+
+    /**
+     * @return child nodes visited per lookup.
+     */
+    public Histogram getNavigateNodes() {
+        return navigateNodes;
+    }
+
+    /**
+     * @return XPath compilation times, in nanoseconds, by expression.
+     */
+    public Map<String, Histogram> getCompileTimes() {
+        return Collections.unmodifiableMap(compileTimes);
+    }
+
+    /**
+     * @return XPath evaluation times, in nanoseconds, by expression.
+     */
+    public Map<String, Histogram> getEvaluateTimes() {
+        return Collections.unmodifiableMap(evaluateTimes);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("parse ns: ").append(parseTimes).append('\n');
+        builder.append("parse length: ").append(parseLengths).append('\n');
+        if (countingNodes) {
+            builder.append("parse nodes: ").append(nodeCounts).append('\n');
+        }
+        builder.append("serialize ns: ").append(serializeTimes).append('\n');
+        builder.append("serialize length: ").append(serializeLengths).append('\n');
+        builder.append("navigate ns: ").append(navigateTimes).append('\n');
+        builder.append("navigate nodes: ").append(navigateNodes).append('\n');
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(compileTimes).entrySet()) {
+            builder.append("compile ns ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(evaluateTimes).entrySet()) {
+            builder.append("evaluate ns ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+}
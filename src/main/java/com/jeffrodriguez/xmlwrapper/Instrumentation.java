@@ -0,0 +1,106 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+/**
+ * Receives timings and sizes from the library, for metrics or tracing.
+ *
+ * Every method does nothing by default, so implementations only override the
+ * events they need. Install one with {@link XML#setInstrumentation(Instrumentation)}.
+ * While {@link #NONE} is installed, no clocks are read and no nodes are
+ * counted, and the empty calls are inlined away by the JIT.
+ *
+ * Implementations are called from every thread using the library, and must be thread safe.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ * @see HistogramInstrumentation
+ */
+public abstract class Instrumentation {
+
+    /**
+     * The default instrumentation, which ignores every event.
+     */
+    public static final Instrumentation NONE = new Instrumentation() {
+    };
+
+    /**
+     * Creates a new {@link Instrumentation}.
+     */
+    protected Instrumentation() {
+    }
+
+    /**
+     * Returns true if parsed documents should have their nodes counted.
+     *
+     * Counting walks the whole document after parsing, so it's off by default.
+     * @return true to receive node counts in {@link #parsed(long, long, long)}.
+     */
+    public boolean isCountingNodes() {
+        return false;
+    }
+
+    /**
+     * Called after a document is parsed.
+     * @param nanos the time taken, in nanoseconds.
+     * @param inputLength the length of the input, in characters for strings and bytes for streams.
+     * @param nodeCount the number of nodes in the document, or -1 if not counted.
+     */
+    public void parsed(long nanos, long inputLength, long nodeCount) {
+    }
+
+    /**
+     * Called after a document is serialized.
+     * @param nanos the time taken, in nanoseconds.
+     * @param outputLength the length of the output, in characters for strings and bytes for streams.
+     */
+    public void serialized(long nanos, long outputLength) {
+    }
+
+    /**
+     * Called after an XPath expression is compiled. Compilations are reused,
+     * so an expression is only compiled again for concurrent evaluations.
+     * @param expression the expression.
+     * @param nanos the time taken, in nanoseconds.
+     */
+    public void compiled(String expression, long nanos) {
+    }
+
+    /**
+     * Called after an XPath expression is evaluated, not counting its compilation.
+     * @param expression the expression.
+     * @param nanos the time taken, in nanoseconds.
+     */
+    public void evaluated(String expression, long nanos) {
+    }
+
+    /**
+     * Called after a child element lookup, such as {@link XMLElement#getChild(String)}.
+     * @param nanos the time taken, in nanoseconds.
+     * @param nodesVisited the number of child nodes examined.
+     */
+    public void navigated(long nanos, long nodesVisited) {
+    }
+
+}
@@ -0,0 +1,125 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * How XML maps to JSON, for {@link JSONConverter}.
+ *
+ * An element becomes a member named after it. Its value is its text if it
+ * only has text, and otherwise an object holding its attributes, its child
+ * elements and its text. Attributes are named with a prefix, <code>@</code>
+ * by default, and text with a key, <code>#text</code> by default. Repeated
+ * child elements, and those declared as arrays, become arrays. All values are
+ * strings, and empty elements map to the empty string.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class JSONConvention {
+
+    /**
+     * The default attribute prefix.
+     */
+    public static final String DEFAULT_ATTRIBUTE_PREFIX = "@";
+
+    /**
+     * The default text key.
+     */
+    public static final String DEFAULT_TEXT_KEY = "#text";
+
+    /**
+     * The prefix of attribute names.
+     */
+    private final String attributePrefix;
+
+    /**
+     * The key of text in objects.
+     */
+    private final String textKey;
+
+    /**
+     * The names of the elements that are always arrays.
+     */
+    private final Set<String> arrayNames;
+
+    /**
+     * Creates the default convention, without declared arrays.
+     */
+    public JSONConvention() {
+        this(DEFAULT_ATTRIBUTE_PREFIX, DEFAULT_TEXT_KEY);
+    }
+
+    /**
+     * Creates a convention.
+     * @param attributePrefix the prefix of attribute names. It must not be empty.
+     * @param textKey the key of text in objects.
+     * @param arrayNames the names of the elements that are always arrays, even when
+     *        they occur once. Streaming conversions require every repeated element to be declared,
+     *        and its occurrences to be adjacent.
+     */
+    public JSONConvention(String attributePrefix, String textKey, String... arrayNames) {
+        if (attributePrefix.length() == 0) {
+            throw new IllegalArgumentException("The attribute prefix must not be empty.");
+        }
+
+        this.attributePrefix = attributePrefix;
+        this.textKey = textKey;
+        this.arrayNames = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(arrayNames)));
+    }
+
+    /**
+     * @return the prefix of attribute names.
+     */
+    public String getAttributePrefix() {
+        return attributePrefix;
+    }
+
+    /**
+     * @return the key of text in objects.
+     */
+    public String getTextKey() {
+        return textKey;
+    }
+
+    /**
+     * @return the names of the elements that are always arrays.
+     */
+    public Set<String> getArrayNames() {
+        return arrayNames;
+    }
+
+    /**
+     * @param name an element name.
+     * @return true if elements with the name are always arrays.
+     */
+    public boolean isArray(String name) {
+        return arrayNames.contains(name);
+    }
+
+}
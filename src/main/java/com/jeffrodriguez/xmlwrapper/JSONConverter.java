@@ -0,0 +1,354 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Converts between XML and JSON, following a {@link JSONConvention}.
+ *
+ * JSON is written straight to a {@link Writer} and read straight from a
+ * {@link Reader}, without an intermediate object tree. XML can be read from a
+ * parsed document, or streamed from bytes without building one.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class JSONConverter {
+
+    /**
+     * The mapping convention.
+     */
+    private final JSONConvention convention;
+
+    /**
+     * Creates a converter using the default convention.
+     */
+    public JSONConverter() {
+        this(new JSONConvention());
+    }
+
+    /**
+     * Creates a converter.
+     * @param convention the mapping convention.
+     */
+    public JSONConverter(JSONConvention convention) {
+        this.convention = convention;
+    }
+
+    /**
+     * @return the mapping convention.
+     */
+    public JSONConvention getConvention() {
+        return convention;
+    }
+
+    /**
+     * Writes a document as JSON, as an object with a single member named after the root element.
+     * @param xml the document.
+     * @param out the writer. It isn't flushed or closed.
+     * @throws IOException If the writer fails.
+     */
+    public void write(XML xml, Writer out) throws IOException {
+        write(xml.getDocument().getDocumentElement(), out);
+    }
+
+    /**
+     * Writes an element as JSON, as an object with a single member named after the element.
+     * @param element the element.
+     * @param out the writer. It isn't flushed or closed.
+     * @throws IOException If the writer fails.
+     */
+    public void write(XMLElement element, Writer out) throws IOException {
+        write(element.getElement(), out);
+    }
+
+    /**
+     * Streams XML input to JSON, without building a document.
+     *
+     * Since members are written as soon as they're read, repeated elements
+     * must be declared as arrays by the convention, and the elements of an
+     * array must be adjacent. Other siblings between them can only be
+     * converted from a document.
+     * @param in the XML input. It isn't closed.
+     * @param out the writer. It isn't flushed or closed.
+     * @throws XMLStreamException If the input can't be parsed, or repeats an element not declared as an array,
+     *         or not adjacent to its siblings of the same name.
+     * @throws IOException If the writer fails.
+     */
+    public void write(InputStream in, Writer out) throws XMLStreamException, IOException {
+        XMLStreamReader reader = StreamingXPath.INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            new JSONStreamWriter(convention, reader, out).write();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads JSON into a new document.
+     *
+     * The JSON must be an object with a single member, which becomes the root
+     * element. Numbers and booleans become text, and null becomes an empty element.
+     * @param in the JSON input. It isn't closed.
+     * @return the document.
+     * @throws IOException If the input can't be read, or isn't JSON the convention can map.
+     */
+    public XML read(Reader in) throws IOException {
+        JSONReader reader = new JSONReader(in);
+        Document document = XML.newDocument();
+
+        reader.expect('{');
+        String name = reader.readString();
+        reader.expect(':');
+        if (reader.peek() == '[') {
+            throw reader.error("The root element can't be an array");
+        }
+        value(reader, document, document, name);
+        reader.expect('}');
+        reader.expectEnd();
+
+        return new XML(document);
+    }
+
+    /**
+     * Reads a member's value, as one element or an array of elements.
+     * @param reader the JSON input.
+     * @param document the document being built.
+     * @param parent the parent of the new elements.
+     * @param name the member name.
+     * @throws IOException If the input can't be read or mapped.
+     */
+    private void value(JSONReader reader, Document document, Node parent, String name) throws IOException {
+        if (reader.peek() != '[') {
+            element(reader, document, parent, name);
+            return;
+        }
+
+        reader.expect('[');
+        if (reader.peek() == ']') {
+            reader.expect(']');
+            return;
+        }
+
+        do {
+            if (reader.peek() == '[') {
+                throw reader.error("Nested arrays can't be mapped to elements");
+            }
+            element(reader, document, parent, name);
+        } while (reader.next(']'));
+    }
+
+    /**
+     * Reads a value into a new element.
+     * @param reader the JSON input.
+     * @param document the document being built.
+     * @param parent the parent of the new element.
+     * @param name the name of the element.
+     * @throws IOException If the input can't be read or mapped.
+     */
+    private void element(JSONReader reader, Document document, Node parent, String name) throws IOException {
+        Element element;
+        try {
+            element = document.createElement(name);
+        } catch (DOMException e) {
+            throw reader.error("Key \"" + name + "\" isn't a valid element name");
+        }
+        parent.appendChild(element);
+
+        if (reader.peek() != '{') {
+            text(element, reader.readScalar());
+            return;
+        }
+
+        reader.expect('{');
+        if (reader.peek() == '}') {
+            reader.expect('}');
+            return;
+        }
+
+        String prefix = convention.getAttributePrefix();
+        do {
+            String key = reader.readString();
+            reader.expect(':');
+
+            if (key.startsWith(prefix) && key.length() > prefix.length()) {
+                String value = reader.readScalar();
+                if (value != null) {
+                    try {
+                        element.setAttribute(key.substring(prefix.length()), value);
+                    } catch (DOMException e) {
+                        throw reader.error("Key \"" + key + "\" isn't a valid attribute name");
+                    }
+                }
+            } else if (key.equals(convention.getTextKey())) {
+                text(element, reader.readScalar());
+            } else {
+                value(reader, document, element, key);
+            }
+        } while (reader.next('}'));
+    }
+
+    /**
+     * Appends text to an element.
+     * @param element the element.
+     * @param text the text, possibly null or empty.
+     */
+    private static void text(Element element, String text) {
+        if (text != null && text.length() > 0) {
+            element.appendChild(element.getOwnerDocument().createTextNode(text));
+        }
+    }
+
+    /**
+     * Writes an element as an object with a single member.
+     * @param element the element.
+     * @param out the writer.
+     * @throws IOException If the writer fails.
+     */
+    private void write(Element element, Writer out) throws IOException {
+        out.write('{');
+        JSONStreamWriter.string(element.getNodeName(), out);
+        out.write(':');
+        value(element, out);
+        out.write('}');
+    }
+
+    /**
+     * Writes the value of an element.
+     * @param element the element.
+     * @param out the writer.
+     * @throws IOException If the writer fails.
+     */
+    private void value(Element element, Writer out) throws IOException {
+        NamedNodeMap attributes = element.getAttributes();
+
+        // Collect the text and group the children by name, in one pass
+        StringBuilder text = new StringBuilder();
+        Map<String, List<Element>> children = null;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    if (children == null) {
+                        children = new LinkedHashMap<String, List<Element>>();
+                    }
+                    List<Element> group = children.get(child.getNodeName());
+                    if (group == null) {
+                        group = new ArrayList<Element>(1);
+                        children.put(child.getNodeName(), group);
+                    }
+                    group.add((Element) child);
+                    break;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    text.append(child.getNodeValue());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // Text only
+        if (attributes.getLength() == 0 && children == null) {
+            JSONStreamWriter.string(text.toString(), out);
+            return;
+        }
+
+        out.write('{');
+        boolean first = true;
+
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            first = separate(first, out);
+            JSONStreamWriter.string(convention.getAttributePrefix() + attribute.getNodeName(), out);
+            out.write(':');
+            JSONStreamWriter.string(attribute.getNodeValue(), out);
+        }
+
+        // Text among children is trimmed, and other text kept as is, like text only
+        String content = text.toString();
+        if (children != null) {
+            content = content.trim();
+        }
+        if (content.length() > 0) {
+            first = separate(first, out);
+            JSONStreamWriter.string(convention.getTextKey(), out);
+            out.write(':');
+            JSONStreamWriter.string(content, out);
+        }
+
+        if (children != null) {
+            for (Map.Entry<String, List<Element>> group : children.entrySet()) {
+                first = separate(first, out);
+                JSONStreamWriter.string(group.getKey(), out);
+                out.write(':');
+
+                List<Element> elements = group.getValue();
+                if (elements.size() == 1 && !convention.isArray(group.getKey())) {
+                    value(elements.get(0), out);
+                } else {
+                    out.write('[');
+                    for (int i = 0; i < elements.size(); i++) {
+                        if (i > 0) {
+                            out.write(',');
+                        }
+                        value(elements.get(i), out);
+                    }
+                    out.write(']');
+                }
+            }
+        }
+
+        out.write('}');
+    }
+
+    /**
+     * Writes a comma before every member but the first.
+     * @param first true for the first member.
+     * @param out the writer.
+     * @return false, the value of <code>first</code> for the next member.
+     * @throws IOException If the writer fails.
+     */
+    private static boolean separate(boolean first, Writer out) throws IOException {
+        if (!first) {
+            out.write(',');
+        }
+        return false;
+    }
+
+}
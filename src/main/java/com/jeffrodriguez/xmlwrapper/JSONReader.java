@@ -0,0 +1,347 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads JSON tokens from a {@link Reader}, one character at a time.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class JSONReader {
+
+    /**
+     * The size of the input buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The JSON input.
+     */
+    private final Reader in;
+
+    /**
+     * The input buffer.
+     */
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    /**
+     * The position in the buffer.
+     */
+    private int position;
+
+    /**
+     * The number of characters in the buffer, or -1 at the end of the input.
+     */
+    private int limit;
+
+    /**
+     * The offset of the buffer in the input, for error messages.
+     */
+    private long offset;
+
+    /**
+     * Creates a new {@link JSONReader}.
+     * @param in the JSON input.
+     */
+    JSONReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it.
+     * @return the next character, or -1 at the end of the input.
+     * @throws IOException If the input can't be read.
+     */
+    int peek() throws IOException {
+        while (true) {
+            int c = peekChar();
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Consumes an expected character, after whitespace.
+     * @param expected the character.
+     * @throws IOException If the input can't be read, or has another character.
+     */
+    void expect(char expected) throws IOException {
+        if (peek() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        position++;
+    }
+
+    /**
+     * Consumes the separator after a value in an object or array.
+     * @param end the character closing the object or array.
+     * @return true if a comma was consumed, false if the end was.
+     * @throws IOException If the input can't be read, or has neither.
+     */
+    boolean next(char end) throws IOException {
+        int c = peek();
+        if (c == ',') {
+            position++;
+            return true;
+        }
+        if (c == end) {
+            position++;
+            return false;
+        }
+        throw error("Expected ',' or '" + end + "'");
+    }
+
+    /**
+     * Checks that nothing but whitespace remains.
+     * @throws IOException If the input can't be read, or has more content.
+     */
+    void expectEnd() throws IOException {
+        if (peek() != -1) {
+            throw error("Expected the end of the input");
+        }
+    }
+
+    /**
+     * Reads a string.
+     * @return the string.
+     * @throws IOException If the input can't be read, or isn't a string.
+     */
+    String readString() throws IOException {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+
+        while (true) {
+
+            // Copy plain runs in bulk
+            int start = position;
+            while (position < limit && buffer[position] != '"' && buffer[position] != '\\') {
+                if (buffer[position] < ' ') {
+                    throw error("Unescaped control character in string");
+                }
+                position++;
+            }
+            value.append(buffer, start, position - start);
+
+            int c = peekChar();
+            if (c == -1) {
+                throw error("Unterminated string");
+            }
+            if (c == '"') {
+                position++;
+                return value.toString();
+            }
+            if (c == '\\') {
+                position++;
+                value.append(readEscape());
+            }
+        }
+    }
+
+    /**
+     * Reads the character after a backslash.
+     * @return the escaped character.
+     * @throws IOException If the input can't be read, or the escape is invalid.
+     */
+    private char readEscape() throws IOException {
+        int c = readChar();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(readChar(), 16);
+                    if (digit < 0) {
+                        throw error("Invalid unicode escape");
+                    }
+                    code = code * 16 + digit;
+                }
+                return (char) code;
+            default:
+                throw error("Invalid escape");
+        }
+    }
+
+    /**
+     * Reads a string, number, boolean or null.
+     * @return the value as text, or null for null.
+     * @throws IOException If the input can't be read, or isn't a scalar.
+     */
+    String readScalar() throws IOException {
+        int c = peek();
+        if (c == '"') {
+            return readString();
+        }
+
+        StringBuilder literal = new StringBuilder();
+        while (true) {
+            c = peekChar();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                break;
+            }
+            literal.append((char) c);
+            position++;
+        }
+
+        String value = literal.toString();
+        if (value.equals("null")) {
+            return null;
+        }
+        if (value.equals("true") || value.equals("false") || isNumber(value)) {
+            return value;
+        }
+        throw error("Expected a value");
+    }
+
+    /**
+     * Returns true if a literal is a JSON number.
+     * @param value the literal.
+     * @return true if it's a number.
+     */
+    private static boolean isNumber(String value) {
+        int i = 0;
+        int length = value.length();
+
+        if (i < length && value.charAt(i) == '-') {
+            i++;
+        }
+
+        // Integer part, without leading zeros
+        int digits = i;
+        if (i < length && value.charAt(i) == '0') {
+            i++;
+        } else {
+            while (i < length && isDigit(value.charAt(i))) {
+                i++;
+            }
+        }
+        if (i == digits) {
+            return false;
+        }
+
+        // Fraction
+        if (i < length && value.charAt(i) == '.') {
+            digits = ++i;
+            while (i < length && isDigit(value.charAt(i))) {
+                i++;
+            }
+            if (i == digits) {
+                return false;
+            }
+        }
+
+        // Exponent
+        if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (value.charAt(i) == '+' || value.charAt(i) == '-')) {
+                i++;
+            }
+            digits = i;
+            while (i < length && isDigit(value.charAt(i))) {
+                i++;
+            }
+            if (i == digits) {
+                return false;
+            }
+        }
+
+        return i == length;
+    }
+
+    /**
+     * Returns true if a character is an ASCII digit, the only digits JSON allows.
+     * @param c the character.
+     * @return true if it's one of '0' to '9'.
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Builds an exception for malformed input.
+     * @param message what was wrong.
+     * @return the exception, with the offset of the error.
+     */
+    IOException error(String message) {
+        return new IOException(message + " at offset " + (offset + position) + ".");
+    }
+
+    /**
+     * Returns the next character without consuming it.
+     * @return the next character, or -1 at the end of the input.
+     * @throws IOException If the input can't be read.
+     */
+    private int peekChar() throws IOException {
+        if (limit < 0) {
+            return -1;
+        }
+
+        if (position == limit) {
+            offset += limit;
+            position = 0;
+            do {
+                limit = in.read(buffer);
+            } while (limit == 0);
+
+            if (limit < 0) {
+                return -1;
+            }
+        }
+
+        return buffer[position];
+    }
+
+    /**
+     * Consumes the next character.
+     * @return the character.
+     * @throws IOException If the input can't be read, or has ended.
+     */
+    private int readChar() throws IOException {
+        int c = peekChar();
+        if (c == -1) {
+            throw error("Unexpected end of input");
+        }
+        position++;
+        return c;
+    }
+
+}
@@ -0,0 +1,378 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Converts a stream of XML events to JSON, as they're read.
+ *
+ * An element's value is decided when its first child starts or when it ends,
+ * whichever comes first, so only the text of the open elements is held in
+ * memory.
+ *
+ * Arrays are written as their elements are read, so the elements of an array
+ * must be adjacent: another sibling between two of them can't be streamed.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class JSONStreamWriter {
+
+    /**
+     * U+2028, escaped so that the output is also valid JavaScript.
+     */
+    private static final char LINE_SEPARATOR = 0x2028;
+
+    /**
+     * U+2029, escaped so that the output is also valid JavaScript.
+     */
+    private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+    /**
+     * The mapping convention.
+     */
+    private final JSONConvention convention;
+
+    /**
+     * The XML input.
+     */
+    private final XMLStreamReader reader;
+
+    /**
+     * The JSON output.
+     */
+    private final Writer out;
+
+    /**
+     * The depth of the current element, 1 for the root.
+     */
+    private int depth;
+
+    /**
+     * True if the object of each open element has been started.
+     */
+    private boolean[] open = new boolean[16];
+
+    /**
+     * True if the object of each open element has members.
+     */
+    private boolean[] members = new boolean[16];
+
+    /**
+     * The name of the array each open element is writing, or null.
+     */
+    private String[] arrays = new String[16];
+
+    /**
+     * The names of the children seen by each open element, allocated on demand.
+     */
+    private Set<?>[] seen = new Set<?>[16];
+
+    /**
+     * The text of each open element.
+     */
+    private StringBuilder[] texts = new StringBuilder[16];
+
+    /**
+     * Creates a new {@link JSONStreamWriter}.
+     * @param convention the mapping convention.
+     * @param reader the XML input.
+     * @param out the JSON output.
+     */
+    JSONStreamWriter(JSONConvention convention, XMLStreamReader reader, Writer out) {
+        this.convention = convention;
+        this.reader = reader;
+        this.out = out;
+    }
+
+    /**
+     * Converts the whole input.
+     * @throws XMLStreamException If the input can't be parsed, or repeats an element not declared as an
+     *         array, or not adjacent to its siblings of the same name.
+     * @throws IOException If the writer fails.
+     */
+    void write() throws XMLStreamException, IOException {
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (depth > 0) {
+                        texts[depth].append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Handles the start of an element.
+     * @throws XMLStreamException If the element is repeated without being declared as an array, or not adjacent
+     *         to its siblings of the same name.
+     * @throws IOException If the writer fails.
+     */
+    @SuppressWarnings("unchecked")
+    private void startElement() throws XMLStreamException, IOException {
+        String name = qualifiedName(reader.getPrefix(), reader.getLocalName());
+
+        if (depth == 0) {
+            out.write('{');
+            string(name, out);
+            out.write(':');
+        } else {
+
+            // The parent has children, so its value is an object
+            startObject();
+
+            if (name.equals(arrays[depth])) {
+                out.write(',');
+            } else {
+                if (arrays[depth] != null) {
+                    out.write(']');
+                    arrays[depth] = null;
+                }
+
+                Set<String> names = (Set<String>) seen[depth];
+                if (names == null) {
+                    names = new HashSet<String>();
+                    seen[depth] = names;
+                }
+                if (!names.add(name)) {
+                    if (convention.isArray(name)) {
+                        throw new XMLStreamException("Repeated element " + name
+                                + " must not be interleaved with other elements to be streamed.",
+                                reader.getLocation());
+                    }
+                    throw new XMLStreamException("Repeated element " + name
+                            + " must be declared as an array to be streamed.", reader.getLocation());
+                }
+
+                member(name);
+                if (convention.isArray(name)) {
+                    out.write('[');
+                    arrays[depth] = name;
+                }
+            }
+        }
+
+        push();
+
+        // Write the namespace declarations and attributes
+        String prefix = convention.getAttributePrefix();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            startObject();
+            member(prefix + qualifiedName("xmlns", reader.getNamespacePrefix(i)));
+            string(reader.getNamespaceURI(i), out);
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            startObject();
+            member(prefix + qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)));
+            string(reader.getAttributeValue(i), out);
+        }
+    }
+
+    /**
+     * Handles the end of an element.
+     * @throws IOException If the writer fails.
+     */
+    private void endElement() throws IOException {
+        String text = texts[depth].toString();
+
+        if (open[depth]) {
+            if (arrays[depth] != null) {
+                out.write(']');
+            }
+
+            // Text among children is trimmed, and other text kept as is, like text only
+            if (seen[depth] != null && !seen[depth].isEmpty()) {
+                text = text.trim();
+            }
+            if (text.length() > 0) {
+                member(convention.getTextKey());
+                string(text, out);
+            }
+
+            out.write('}');
+        } else {
+            string(text, out);
+        }
+
+        depth--;
+        if (depth == 0) {
+            out.write('}');
+        }
+    }
+
+    /**
+     * Enters a new element, growing the stacks as needed.
+     */
+    private void push() {
+        depth++;
+
+        if (depth == open.length) {
+            int length = depth * 2;
+            open = copyOf(open, length);
+            members = copyOf(members, length);
+
+            String[] newArrays = new String[length];
+            System.arraycopy(arrays, 0, newArrays, 0, depth);
+            arrays = newArrays;
+
+            Set<?>[] newSeen = new Set<?>[length];
+            System.arraycopy(seen, 0, newSeen, 0, depth);
+            seen = newSeen;
+
+            StringBuilder[] newTexts = new StringBuilder[length];
+            System.arraycopy(texts, 0, newTexts, 0, depth);
+            texts = newTexts;
+        }
+
+        open[depth] = false;
+        members[depth] = false;
+        arrays[depth] = null;
+        if (seen[depth] != null) {
+            seen[depth].clear();
+        }
+        if (texts[depth] == null) {
+            texts[depth] = new StringBuilder();
+        } else {
+            texts[depth].setLength(0);
+        }
+    }
+
+    /**
+     * Starts the object of the current element, if not already started.
+     * @throws IOException If the writer fails.
+     */
+    private void startObject() throws IOException {
+        if (!open[depth]) {
+            out.write('{');
+            open[depth] = true;
+        }
+    }
+
+    /**
+     * Writes the name of a member of the current element's object.
+     * @param name the name.
+     * @throws IOException If the writer fails.
+     */
+    private void member(String name) throws IOException {
+        if (members[depth]) {
+            out.write(',');
+        }
+        members[depth] = true;
+        string(name, out);
+        out.write(':');
+    }
+
+    /**
+     * Copies a boolean array into a longer one.
+     * @param array the array.
+     * @param length the new length.
+     * @return the new array.
+     */
+    private static boolean[] copyOf(boolean[] array, int length) {
+        boolean[] copy = new boolean[length];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    /**
+     * Builds a qualified name.
+     * @param prefix the prefix, possibly null or empty.
+     * @param localName the local name, possibly null or empty.
+     * @return the qualified name.
+     */
+    private static String qualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) {
+            return localName;
+        }
+        if (localName == null || localName.length() == 0) {
+            return prefix;
+        }
+        return prefix + ":" + localName;
+    }
+
+    /**
+     * Writes a JSON string.
+     * @param value the string.
+     * @param out the writer.
+     * @throws IOException If the writer fails.
+     */
+    static void string(String value, Writer out) throws IOException {
+        out.write('"');
+
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\' && c != LINE_SEPARATOR && c != PARAGRAPH_SEPARATOR) {
+                continue;
+            }
+
+            out.write(value, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    String hex = Integer.toHexString(c);
+                    out.write("\\u0000", 0, 6 - hex.length());
+                    out.write(hex);
+                    break;
+            }
+        }
+
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+
+}
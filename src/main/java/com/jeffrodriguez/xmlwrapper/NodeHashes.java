@@ -0,0 +1,156 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import org.w3c.dom.Node;
+
+/**
+ * The content hashes of a set of elements, by node identity.
+ *
+ * An open addressing table over a node array and a parallel array of
+ * {@code long}s, so the hashes aren't boxed and there is no entry object per
+ * node. Not thread-safe while being filled.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class NodeHashes {
+
+    /**
+     * The initial number of slots.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The estimated heap cost of an array, excluding its elements, in bytes.
+     */
+    private static final int ARRAY_SIZE = 16;
+
+    /**
+     * The estimated heap cost of a reference, in bytes.
+     */
+    private static final int REFERENCE_SIZE = 8;
+
+    /**
+     * The nodes, by slot.
+     */
+    private Node[] nodes = new Node[INITIAL_CAPACITY];
+
+    /**
+     * The hashes, by slot.
+     */
+    private long[] hashes = new long[INITIAL_CAPACITY];
+
+    /**
+     * The number of nodes.
+     */
+    private int size;
+
+    /**
+     * Records the hash of a node.
+     * @param node the node.
+     * @param hash its hash.
+     */
+    void put(Node node, long hash) {
+        if (2 * (size + 1) > nodes.length) {
+            grow();
+        }
+
+        int slot = slot(nodes, node);
+        if (nodes[slot] == null) {
+            nodes[slot] = node;
+            size++;
+        }
+        hashes[slot] = hash;
+    }
+
+    /**
+     * Gets the hash of a node.
+     * @param node the node.
+     * @return its hash.
+     * @throws IllegalArgumentException If the node has no hash.
+     */
+    long get(Node node) {
+        int slot = slot(nodes, node);
+        if (nodes[slot] == null) {
+            throw new IllegalArgumentException("No hash for " + node.getNodeName() + ".");
+        }
+        return hashes[slot];
+    }
+
+    /**
+     * @return the number of nodes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Estimates the heap size of a table holding a number of nodes.
+     * @param count the number of nodes.
+     * @return the estimated size, in bytes.
+     */
+    static long estimateSize(int count) {
+        long capacity = INITIAL_CAPACITY;
+        while (2 * count > capacity) {
+            capacity *= 2;
+        }
+        return 2 * ARRAY_SIZE + capacity * (REFERENCE_SIZE + 8);
+    }
+
+    /**
+     * Doubles the number of slots.
+     */
+    private void grow() {
+        Node[] oldNodes = nodes;
+        long[] oldHashes = hashes;
+        nodes = new Node[2 * oldNodes.length];
+        hashes = new long[nodes.length];
+
+        for (int i = 0; i < oldNodes.length; i++) {
+            if (oldNodes[i] != null) {
+                int slot = slot(nodes, oldNodes[i]);
+                nodes[slot] = oldNodes[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    /**
+     * Finds the slot of a node, or the empty slot where it belongs.
+     * @param nodes the nodes, by slot. The length is a power of two, and at least one slot is empty.
+     * @param node the node.
+     * @return the slot.
+     */
+    private static int slot(Node[] nodes, Node node) {
+        int mask = nodes.length - 1;
+        int hash = System.identityHashCode(node);
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (nodes[slot] != null && nodes[slot] != node) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+}
@@ -26,6 +26,7 @@
 package com.jeffrodriguez.xmlwrapper;
 
 import java.util.Iterator;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
@@ -80,6 +81,14 @@ public class NodeListIterator<T extends Node> implements Iterator<T> {
         // Get the node
         Node node = nodes.item(position);
 
+        // Record the removal of elements
+        if (node.getNodeType() == Node.ELEMENT_NODE) {
+            ChangeLog log = ChangeLog.get(node);
+            if (log != null) {
+                log.record(Edit.removeElement(ChangeLog.path((Element) node)));
+            }
+        }
+
         // Use the parent node to remove the child
         node.getParentNode().removeChild(node);
 
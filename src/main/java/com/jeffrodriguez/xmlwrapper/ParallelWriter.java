@@ -0,0 +1,403 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.xml.transform.TransformerException;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * Serializes a document on several threads.
+ *
+ * The children of the document element are cut into groups of similar size.
+ * Each group is copied under a shallow copy of the document element, into a
+ * document of its own, and serialized there with the same transformers as
+ * {@link XML#toString(boolean)}. The part of each output between the root
+ * tags is then written in order. Each copy has the same namespace
+ * declarations in scope and the same nesting depth as the original, so the
+ * result matches a sequential serialization, indentation included.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class ParallelWriter {
+
+    /**
+     * The minimum number of nodes in a group.
+     */
+    static final long DEFAULT_GROUP_NODES = 16 * 1024;
+
+    /**
+     * The number of groups per available processor.
+     */
+    private static final int GROUPS_PER_PROCESSOR = 4;
+
+    /**
+     * Not instantiable.
+     */
+    private ParallelWriter() {
+    }
+
+    /**
+     * Serializes a document in groups.
+     *
+     * Nothing is written for documents that can't be serialized in groups:
+     * documents with a DOCTYPE or with nodes outside the document element,
+     * documents with too few nodes, and, when indenting, documents whose
+     * element holds text of its own, even whitespace, which changes the
+     * indentation around it.
+     * @param document the document, which no other thread may be using.
+     * @param writer the writer to serialize to.
+     * @param pretty true if the document should be indented.
+     * @param executor the executor to serialize the groups on.
+     * @param groupNodes the minimum number of nodes in a group.
+     * @return the number of characters written, or -1 if the document wasn't written.
+     * @throws TransformerException If an unrecoverable error occurs during the course of the transformation.
+     * @throws IOException if the writer fails, or the calling thread is interrupted.
+     */
+    static long write(Document document, Writer writer, boolean pretty, ExecutorService executor, long groupNodes)
+            throws TransformerException, IOException {
+        Element root = document.getDocumentElement();
+        if (root == null || root.getPreviousSibling() != null || root.getNextSibling() != null) {
+            return -1;
+        }
+
+        List<List<Node>> groups = group(root, pretty, groupNodes);
+        if (groups == null || groups.size() < 2) {
+            return -1;
+        }
+
+        List<Future<String>> outputs = new ArrayList<Future<String>>(groups.size());
+        try {
+            for (List<Node> group : groups) {
+                outputs.add(executor.submit(new Group(document, group, pretty)));
+            }
+
+            // Write the outputs in order, from the end of the root start tag to the root end tag
+            long length = 0;
+            for (int i = 0; i < outputs.size(); i++) {
+                String output = get(outputs.get(i));
+                List<Node> group = groups.get(i);
+
+                int start = 0;
+                if (i > 0) {
+                    start = endOfStartTag(output);
+                }
+
+                int end = output.length();
+                if (i < outputs.size() - 1) {
+                    end = output.lastIndexOf("</");
+
+                    // Drop the indentation of the root end tag
+                    if (!isText(group.get(group.size() - 1))) {
+                        while (Character.isWhitespace(output.charAt(end - 1))) {
+                            end--;
+                        }
+                    }
+                }
+
+                writer.write(output, start, end - start);
+                length += end - start;
+            }
+
+            return length;
+        } finally {
+            for (Future<String> output : outputs) {
+                output.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Expands the children of an element, and cuts them into groups.
+     *
+     * Every group holds a node other than text, so its output isn't empty.
+     * When indenting, the element must not hold any text.
+     * @param root the document element.
+     * @param pretty true if the document will be indented.
+     * @param groupNodes the minimum number of nodes in a group.
+     * @return the groups, or null if the element's children can't be grouped.
+     */
+    private static List<List<Node>> group(Element root, boolean pretty, long groupNodes) {
+        NamedNodeMap attributes = root.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            attributes.item(i).getFirstChild();
+        }
+
+        // Weigh the children
+        List<Node> children = new ArrayList<Node>();
+        List<Long> weights = new ArrayList<Long>();
+        long total = 0;
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (pretty && isText(child)) {
+                return null;
+            }
+
+            long weight = XML.expand(child);
+            children.add(child);
+            weights.add(weight);
+            total += weight;
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        long target = Math.max(groupNodes, total / (GROUPS_PER_PROCESSOR * processors));
+
+        List<List<Node>> groups = new ArrayList<List<Node>>();
+        List<Node> group = new ArrayList<Node>();
+        long weight = 0;
+        boolean complete = false;
+        for (int i = 0; i < children.size(); i++) {
+            Node child = children.get(i);
+
+            // Start a new group once this one is heavy enough
+            if (weight >= target && complete) {
+                groups.add(group);
+                group = new ArrayList<Node>();
+                weight = 0;
+                complete = false;
+            }
+
+            group.add(child);
+            weight += weights.get(i);
+            complete |= !isText(child);
+        }
+
+        if (complete || groups.isEmpty()) {
+            groups.add(group);
+        } else {
+            groups.get(groups.size() - 1).addAll(group);
+        }
+
+        return groups;
+    }
+
+    /**
+     * Serializes a group of children in a copy of their document.
+     */
+    private static final class Group implements Callable<String> {
+
+        /**
+         * The document.
+         */
+        private final Document document;
+
+        /**
+         * The children of the document element to serialize.
+         */
+        private final List<Node> children;
+
+        /**
+         * True if the document should be indented.
+         */
+        private final boolean pretty;
+
+        /**
+         * Creates a new {@link Group}.
+         * @param document the document.
+         * @param children the children of the document element to serialize.
+         * @param pretty true if the document should be indented.
+         */
+        Group(Document document, List<Node> children, boolean pretty) {
+            this.document = document;
+            this.children = children;
+            this.pretty = pretty;
+        }
+
+        /**
+         * Copies the group and serializes the copy.
+         * @return the serialized copy, XML declaration and root tags included.
+         * @throws TransformerException If an unrecoverable error occurs during the course of the transformation.
+         */
+        @Override
+        public String call() throws TransformerException {
+            Document copy = XML.newDocument();
+            copy.setXmlStandalone(document.getXmlStandalone());
+            copy.setXmlVersion(document.getXmlVersion());
+
+            Node root = copyNode(copy, document.getDocumentElement());
+            copy.appendChild(root);
+            for (Node child : children) {
+                root.appendChild(copy(copy, child));
+            }
+
+            StringWriter writer = new StringWriter();
+            XML.write(copy, writer, pretty);
+            return writer.toString();
+        }
+    }
+
+    /**
+     * Copies a node and its subtree into another document.
+     *
+     * Unlike {@link Document#importNode(Node, boolean)}, the original is only
+     * read, and its document isn't involved, so groups can be copied at once.
+     * @param target the document to copy to.
+     * @param source the node to copy.
+     * @return the copy.
+     */
+    private static Node copy(Document target, Node source) {
+        Node copy = copyNode(target, source);
+
+        // Walk the subtree, keeping the copy of the current node's parent
+        Node parent = copy;
+        Node node = source.getFirstChild();
+        while (node != null) {
+            Node child = copyNode(target, node);
+            parent.appendChild(child);
+
+            if (node.getFirstChild() != null) {
+                parent = child;
+                node = node.getFirstChild();
+                continue;
+            }
+
+            while (node != source && node.getNextSibling() == null) {
+                node = node.getParentNode();
+                parent = parent.getParentNode();
+            }
+
+            if (node == source) {
+                node = null;
+            } else {
+                node = node.getNextSibling();
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Copies a node, without its children, into another document.
+     * @param target the document to copy to.
+     * @param source the node to copy.
+     * @return the copy.
+     */
+    private static Node copyNode(Document target, Node source) {
+        switch (source.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                Element element;
+                if (source.getLocalName() == null) {
+                    element = target.createElement(source.getNodeName());
+                } else {
+                    element = target.createElementNS(source.getNamespaceURI(), source.getNodeName());
+                }
+
+                NamedNodeMap attributes = source.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Attr attribute = (Attr) attributes.item(i);
+                    if (attribute.getLocalName() == null) {
+                        element.setAttribute(attribute.getName(), attribute.getValue());
+                    } else {
+                        element.setAttributeNS(attribute.getNamespaceURI(), attribute.getName(), attribute.getValue());
+                    }
+                }
+                return element;
+            case Node.TEXT_NODE:
+                return target.createTextNode(source.getNodeValue());
+            case Node.CDATA_SECTION_NODE:
+                return target.createCDATASection(source.getNodeValue());
+            case Node.COMMENT_NODE:
+                return target.createComment(source.getNodeValue());
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                ProcessingInstruction instruction = (ProcessingInstruction) source;
+                return target.createProcessingInstruction(instruction.getTarget(), instruction.getData());
+            default:
+                return target.createEntityReference(source.getNodeName());
+        }
+    }
+
+    /**
+     * Finds the end of the document element's start tag in a serialized document.
+     * @param output the serialized document, which has nothing before the element but the XML declaration.
+     * @return the position after the start tag.
+     */
+    private static int endOfStartTag(String output) {
+        int position = output.indexOf('<', output.indexOf("?>") + 2);
+
+        // Attribute values are quoted, and a quote never appears inside its own kind
+        char quote = 0;
+        for (position++; position < output.length(); position++) {
+            char c = output.charAt(position);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                break;
+            }
+        }
+
+        return position + 1;
+    }
+
+    /**
+     * Returns true if a node is a text or CDATA node.
+     * @param node the node.
+     * @return true for character data other than comments.
+     */
+    private static boolean isText(Node node) {
+        return node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE;
+    }
+
+    /**
+     * Waits for the output of a group.
+     * @param output the output.
+     * @return the serialized group.
+     * @throws TransformerException if the group can't be serialized.
+     * @throws IOException if the wait is interrupted.
+     */
+    private static String get(Future<String> output) throws TransformerException, IOException {
+        try {
+            return output.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while serializing.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TransformerException) {
+                throw (TransformerException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new TransformerException(e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,545 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Parses large documents on several threads.
+ *
+ * The input is scanned once for the boundaries between the children of the
+ * root element, and cut into chunks of roughly the chunk size, always right
+ * after the end of a child element. Each chunk is
+ * parsed on its own, wrapped in a copy of the root start tag so namespace
+ * declarations still apply, and the children of the chunks are then moved
+ * under the root of the first one, in order.
+ *
+ * The scan understands comments, CDATA sections, processing instructions and
+ * quoted attribute values, so markup inside them never splits a chunk.
+ * Documents it can't split safely are parsed sequentially with
+ * {@link XML#parse(InputStream, ParserProfile)}: small documents, documents
+ * with a DOCTYPE, encodings other than UTF-8, US-ASCII or ISO-8859-1, and
+ * anything under {@link ParserProfile#VALIDATING}. If a chunk fails to parse,
+ * the whole document is parsed again sequentially, so errors are reported as
+ * they would be without chunks.
+ *
+ * Instances are thread safe. Each chunk is reported to the
+ * {@link Instrumentation} as a parse of its own.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public final class ParallelXMLParser {
+
+    /**
+     * The default chunk size, in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The UTF-8 byte order mark.
+     */
+    private static final byte[] BYTE_ORDER_MARK = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf};
+
+    /**
+     * The start of the XML declaration.
+     */
+    private static final byte[] DECLARATION_START = {'<', '?', 'x', 'm', 'l'};
+
+    /**
+     * The start of a comment.
+     */
+    private static final byte[] COMMENT_START = {'<', '!', '-', '-'};
+
+    /**
+     * The end of a comment.
+     */
+    private static final byte[] COMMENT_END = {'-', '-', '>'};
+
+    /**
+     * The start of a CDATA section.
+     */
+    private static final byte[] CDATA_START = {'<', '!', '[', 'C', 'D', 'A', 'T', 'A', '['};
+
+    /**
+     * The end of a CDATA section.
+     */
+    private static final byte[] CDATA_END = {']', ']', '>'};
+
+    /**
+     * The end of a processing instruction.
+     */
+    private static final byte[] PI_END = {'?', '>'};
+
+    /**
+     * The parser configuration.
+     */
+    private final ParserProfile profile;
+
+    /**
+     * The executor the chunks are parsed on.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The target chunk size, in bytes.
+     */
+    private final int chunkSize;
+
+    /**
+     * Creates a new {@link ParallelXMLParser} with the default chunk size.
+     * @param profile the parser configuration.
+     * @param executor the executor to parse chunks on, such as a <code>ForkJoinPool</code>.
+     */
+    public ParallelXMLParser(ParserProfile profile, ExecutorService executor) {
+        this(profile, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new {@link ParallelXMLParser}.
+     * @param profile the parser configuration.
+     * @param executor the executor to parse chunks on, such as a <code>ForkJoinPool</code>.
+     * @param chunkSize the target chunk size, in bytes.
+     */
+    public ParallelXMLParser(ParserProfile profile, ExecutorService executor, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+        }
+
+        this.profile = profile;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Reads and parses a stream.
+     * @param input the XML stream to parse, which is read to the end but isn't closed.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing, or the document is rejected by the profile.
+     * @throws IOException if an IO error occurs.
+     */
+    public XML parse(InputStream input) throws SAXException, IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+
+        return parse(bytes.toByteArray());
+    }
+
+    /**
+     * Parses an encoded document.
+     * @param input the bytes of the document.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing, or the document is rejected by the profile.
+     * @throws IOException if an IO error occurs.
+     */
+    public XML parse(byte[] input) throws SAXException, IOException {
+        Layout layout = null;
+        if (profile != ParserProfile.VALIDATING && input.length >= 2L * chunkSize) {
+            layout = Layout.scan(input, chunkSize);
+        }
+
+        if (layout == null || layout.boundaries.size() < 2) {
+            return XML.parse(new ByteArrayInputStream(input), profile);
+        }
+
+        try {
+            return parse(input, layout);
+        } catch (SAXException e) {
+
+            // Report the error as a sequential parse would, or recover from a bad split
+            return XML.parse(new ByteArrayInputStream(input), profile);
+        }
+    }
+
+    /**
+     * Parses the chunks of a document and joins them.
+     * @param input the bytes of the document.
+     * @param layout the positions of the root element and of the chunks.
+     * @return the joined document.
+     * @throws SAXException if a chunk can't be parsed.
+     * @throws IOException if the parse is interrupted.
+     */
+    private XML parse(byte[] input, Layout layout) throws SAXException, IOException {
+        List<Integer> boundaries = layout.boundaries;
+
+        // The prolog and root start tag, and the root end tag, around every chunk but the first
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        head.write(input, 0, layout.prologEnd);
+        head.write(input, layout.rootStart, layout.contentStart - layout.rootStart);
+        byte[] start = head.toByteArray();
+
+        ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        tail.write('<');
+        tail.write('/');
+        tail.write(input, layout.rootStart + 1, layout.nameEnd - layout.rootStart - 1);
+        tail.write('>');
+        byte[] end = tail.toByteArray();
+
+        // Parse every chunk but the first in the background
+        List<Future<Element>> chunks = new ArrayList<Future<Element>>(boundaries.size() - 1);
+        try {
+            for (int i = 1; i < boundaries.size(); i++) {
+                int from = boundaries.get(i);
+                int to = i + 1 < boundaries.size() ? boundaries.get(i + 1) : layout.rootEnd;
+                chunks.add(executor.submit(new Chunk(new SequenceInputStream(
+                        new SequenceInputStream(new ByteArrayInputStream(start),
+                                new ByteArrayInputStream(input, from, to - from)),
+                        new ByteArrayInputStream(end)))));
+            }
+
+            // The first chunk keeps the prolog and everything after the root
+            XML xml = XML.parse(new SequenceInputStream(
+                    new ByteArrayInputStream(input, 0, boundaries.get(1)),
+                    new ByteArrayInputStream(input, layout.rootEnd, input.length - layout.rootEnd)), profile);
+
+            // Move the children of every other chunk under the root, in order
+            Document document = xml.getDocument();
+            Element root = document.getDocumentElement();
+            for (Future<Element> chunk : chunks) {
+                Element chunkRoot = get(chunk);
+                for (Node child = chunkRoot.getFirstChild(); child != null; child = chunkRoot.getFirstChild()) {
+                    Node adopted = document.adoptNode(child);
+
+                    // Adoption isn't supported between every DOM implementation
+                    if (adopted == null) {
+                        adopted = document.importNode(child, true);
+                        chunkRoot.removeChild(child);
+                    }
+
+                    root.appendChild(adopted);
+                }
+            }
+
+            return xml;
+        } finally {
+            for (Future<Element> chunk : chunks) {
+                chunk.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Waits for a chunk.
+     * @param chunk the chunk.
+     * @return the root element of the chunk.
+     * @throws SAXException if the chunk can't be parsed.
+     * @throws IOException if the wait is interrupted.
+     */
+    private static Element get(Future<Element> chunk) throws SAXException, IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SAXException) {
+                throw (SAXException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Parses one chunk in the background.
+     */
+    private final class Chunk implements Callable<Element> {
+
+        /**
+         * The chunk, wrapped in the prolog and root tags.
+         */
+        private final InputStream input;
+
+        /**
+         * Creates a new {@link Chunk}.
+         * @param input the chunk, wrapped in the prolog and root tags.
+         */
+        Chunk(InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * Parses the chunk and expands every node, so joining it only moves nodes.
+         * @return the root element of the chunk.
+         * @throws Exception if the chunk can't be parsed.
+         */
+        @Override
+        public Element call() throws Exception {
+            Element root = XML.parse(input, profile).getDocument().getDocumentElement();
+            XML.expand(root);
+            return root;
+        }
+    }
+
+    /**
+     * The positions of the root element and of the chunk boundaries in a document.
+     */
+    private static final class Layout {
+
+        /**
+         * The end of the byte order mark and XML declaration.
+         */
+        private int prologEnd;
+
+        /**
+         * The start of the root start tag.
+         */
+        private int rootStart;
+
+        /**
+         * The end of the root element's name.
+         */
+        private int nameEnd;
+
+        /**
+         * The end of the root start tag.
+         */
+        private int contentStart;
+
+        /**
+         * The start of the root end tag.
+         */
+        private int rootEnd;
+
+        /**
+         * The start of each chunk, the first being {@link #contentStart}.
+         */
+        private final List<Integer> boundaries = new ArrayList<Integer>();
+
+        /**
+         * Scans a document for chunk boundaries.
+         * @param input the bytes of the document.
+         * @param chunkSize the target chunk size.
+         * @return the layout, or null if the document can't be split safely.
+         */
+        static Layout scan(byte[] input, int chunkSize) {
+            Layout layout = new Layout();
+            int position = 0;
+
+            // Only encodings where markup is plain ASCII can be split as bytes
+            if (AsyncXMLParser.startsWith(input, 0, BYTE_ORDER_MARK)) {
+                position = BYTE_ORDER_MARK.length;
+            } else if (input.length == 0 || input[0] != '<') {
+                return null;
+            }
+
+            if (AsyncXMLParser.startsWith(input, position, DECLARATION_START)) {
+                int close = indexOf(input, position, PI_END);
+                if (close < 0) {
+                    return null;
+                }
+
+                String declaration = new String(input, position, close - position, Charset.forName("US-ASCII"));
+                if (!AsyncXMLParser.isDeclaration(declaration)) {
+                    return null;
+                }
+
+                String encoding = AsyncXMLParser.pseudoAttribute(declaration, "encoding");
+                if (!"1.0".equals(AsyncXMLParser.pseudoAttribute(declaration, "version"))
+                        || (encoding != null && AsyncXMLParser.supportedCharset(encoding) == null)) {
+                    return null;
+                }
+
+                position = close + PI_END.length;
+            }
+            layout.prologEnd = position;
+
+            // Skip comments and processing instructions up to the root element
+            while (true) {
+                while (position < input.length && isWhitespace(input[position])) {
+                    position++;
+                }
+
+                if (AsyncXMLParser.startsWith(input, position, COMMENT_START)) {
+                    position = skip(input, position, COMMENT_END);
+                } else if (position + 1 < input.length && input[position] == '<' && input[position + 1] == '?') {
+                    position = skip(input, position, PI_END);
+                } else if (position + 1 < input.length && input[position] == '<' && input[position + 1] != '!') {
+                    break;
+                } else {
+
+                    // A DOCTYPE, or something for the parser to report
+                    return null;
+                }
+
+                if (position < 0) {
+                    return null;
+                }
+            }
+
+            // Read the root start tag
+            layout.rootStart = position;
+            layout.nameEnd = position + 1;
+            while (layout.nameEnd < input.length && !isWhitespace(input[layout.nameEnd])
+                    && input[layout.nameEnd] != '>' && input[layout.nameEnd] != '/') {
+                layout.nameEnd++;
+            }
+
+            position = endOfTag(input, position);
+            if (position < 0 || input[position - 2] == '/') {
+                return null;
+            }
+            layout.contentStart = position;
+            layout.boundaries.add(position);
+
+            // Find the ends of the root's children, cutting a chunk once it's large enough. Cuts
+            // are only made right after an element, since text on both sides of a comment,
+            // CDATA section or PI may be merged into a single node by the parser.
+            int depth = 0;
+            int chunkStart = position;
+            while (true) {
+                while (position < input.length && input[position] != '<') {
+                    position++;
+                }
+                if (position + 1 >= input.length) {
+                    return null;
+                }
+
+                boolean elementEnd = false;
+                if (AsyncXMLParser.startsWith(input, position, COMMENT_START)) {
+                    position = skip(input, position, COMMENT_END);
+                } else if (AsyncXMLParser.startsWith(input, position, CDATA_START)) {
+                    position = skip(input, position, CDATA_END);
+                } else if (input[position + 1] == '?') {
+                    position = skip(input, position, PI_END);
+                } else if (input[position + 1] == '!') {
+                    return null;
+                } else if (input[position + 1] == '/') {
+                    if (depth == 0) {
+                        layout.rootEnd = position;
+                        return layout;
+                    }
+                    depth--;
+                    position = endOfTag(input, position);
+                    elementEnd = true;
+                } else {
+                    position = endOfTag(input, position);
+                    if (position > 0 && input[position - 2] != '/') {
+                        depth++;
+                    } else {
+                        elementEnd = true;
+                    }
+                }
+
+                if (position < 0) {
+                    return null;
+                }
+
+                if (elementEnd && depth == 0 && position - chunkStart >= chunkSize) {
+                    layout.boundaries.add(position);
+                    chunkStart = position;
+                }
+            }
+        }
+
+        /**
+         * Finds the end of a tag, skipping quoted attribute values.
+         * @param input the bytes of the document.
+         * @param position the start of the tag.
+         * @return the position after the closing <code>&gt;</code>, or -1 if the tag isn't closed.
+         */
+        private static int endOfTag(byte[] input, int position) {
+            byte quote = 0;
+            for (int i = position + 1; i < input.length; i++) {
+                byte b = input[i];
+                if (quote != 0) {
+                    if (b == quote) {
+                        quote = 0;
+                    }
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '>') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Skips past a terminator.
+         * @param input the bytes of the document.
+         * @param position the position to search from.
+         * @param terminator the terminator.
+         * @return the position after the terminator, or -1 if it's missing.
+         */
+        private static int skip(byte[] input, int position, byte[] terminator) {
+            int index = indexOf(input, position, terminator);
+            if (index < 0) {
+                return -1;
+            }
+            return index + terminator.length;
+        }
+
+        /**
+         * Finds a sequence of bytes.
+         * @param input the bytes to search.
+         * @param position the position to search from.
+         * @param bytes the bytes to find.
+         * @return the position of the bytes, or -1 if they're missing.
+         */
+        private static int indexOf(byte[] input, int position, byte[] bytes) {
+            for (int i = position; i <= input.length - bytes.length; i++) {
+                if (input[i] == bytes[0] && AsyncXMLParser.startsWith(input, i, bytes)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns true if a byte is XML whitespace.
+         * @param b the byte.
+         * @return true for spaces, tabs, carriage returns and line feeds.
+         */
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+        }
+    }
+
+}
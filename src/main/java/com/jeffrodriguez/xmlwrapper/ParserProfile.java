@@ -0,0 +1,239 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.StringReader;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.validation.Schema;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+/**
+ * Named {@link DocumentBuilder} configurations, for use with {@link XML#parse(String, ParserProfile)}.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public enum ParserProfile {
+
+    /**
+     * Namespace aware, with the JDK defaults for everything else.
+     *
+     * This is the profile used by {@link XML#parse(String)}. DTDs and external
+     * entities are loaded, so it should only be used on trusted input.
+     */
+    DEFAULT {
+        @Override
+        void configure(DocumentBuilderFactory dbf) {
+            // Nothing beyond namespace awareness
+        }
+    },
+
+    /**
+     * Rejects documents with a DOCTYPE, and never loads DTDs or external entities.
+     *
+     * Safe for untrusted input, and never blocks on the network.
+     */
+    FAST_UNTRUSTED {
+        @Override
+        void configure(DocumentBuilderFactory dbf) throws ParserConfigurationException {
+            secure(dbf);
+            setFeature(dbf, DISALLOW_DOCTYPE, true);
+        }
+    },
+
+    /**
+     * Validates documents against their DTD, failing on the first error.
+     *
+     * The DTD is loaded, from a file or a jar, but external entities are not,
+     * and entity expansion is limited.
+     */
+    VALIDATING {
+        @Override
+        void configure(DocumentBuilderFactory dbf) throws ParserConfigurationException {
+            dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+
+            // Secure processing forbids loading any external DTD: allow local ones
+            try {
+                dbf.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, EXTERNAL_DTD_PROTOCOLS);
+            } catch (IllegalArgumentException e) {
+                // Before JAXP 1.5, nothing restricts them
+            }
+
+            setFeature(dbf, EXTERNAL_GENERAL_ENTITIES, false);
+            setFeature(dbf, EXTERNAL_PARAMETER_ENTITIES, false);
+            dbf.setXIncludeAware(false);
+            dbf.setValidating(true);
+        }
+    },
+
+    /**
+     * Like {@link #FAST_UNTRUSTED}, but produces a smaller DOM.
+     *
+     * CDATA sections are merged into the surrounding text, comments are
+     * dropped, and so are whitespace-only text nodes, such as the indentation
+     * of pretty-printed documents. Whitespace between inline elements of mixed
+     * content is dropped as well, so this profile is meant for data documents.
+     */
+    COALESCING {
+        @Override
+        void configure(DocumentBuilderFactory dbf) throws ParserConfigurationException {
+            secure(dbf);
+            setFeature(dbf, DISALLOW_DOCTYPE, true);
+            setFeature(dbf, DEFER_NODE_EXPANSION, false);
+            dbf.setCoalescing(true);
+            dbf.setIgnoringComments(true);
+            dbf.setIgnoringElementContentWhitespace(true);
+        }
+
+        @Override
+        boolean isStrippingWhitespace() {
+            return true;
+        }
+    };
+
+    /**
+     * The protocols {@link #VALIDATING} loads external DTDs from.
+     */
+    private static final String EXTERNAL_DTD_PROTOCOLS = "file,jar";
+
+    /**
+     * Rejects any DOCTYPE declaration.
+     */
+    private static final String DISALLOW_DOCTYPE = "http://apache.org/xml/features/disallow-doctype-decl";
+
+    /**
+     * Loads the external DTD.
+     */
+    private static final String LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+
+    /**
+     * Builds DOM nodes lazily, as they're first accessed.
+     */
+    private static final String DEFER_NODE_EXPANSION = "http://apache.org/xml/features/dom/defer-node-expansion";
+
+    /**
+     * Includes external general entities.
+     */
+    private static final String EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
+
+    /**
+     * Includes external parameter entities.
+     */
+    private static final String EXTERNAL_PARAMETER_ENTITIES = "http://xml.org/sax/features/external-parameter-entities";
+
+    /**
+     * Resolves every external entity to nothing.
+     */
+    private static final EntityResolver NO_ENTITIES = new EntityResolver() {
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) {
+            return new InputSource(new StringReader(""));
+        }
+    };
+
+    /**
+     * Applies the profile to a factory.
+     * @param dbf the factory to configure.
+     * @throws ParserConfigurationException if a required feature isn't supported.
+     */
+    abstract void configure(DocumentBuilderFactory dbf) throws ParserConfigurationException;
+
+    /**
+     * Returns true if whitespace-only text nodes should be removed from parsed documents.
+     * @return true if whitespace-only text is stripped.
+     */
+    boolean isStrippingWhitespace() {
+        return false;
+    }
+
+    /**
+     * Creates a new {@link DocumentBuilder} for this profile.
+     * @return a new {@link DocumentBuilder}.
+     * @throws ParserConfigurationException if the profile isn't supported by the JAXP implementation.
+     */
+    DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        return newDocumentBuilder(null);
+    }
+
+    /**
+     * Creates a new {@link DocumentBuilder} for this profile, validating against a schema.
+     * @param schema the schema to validate against, or null.
+     * @return a new {@link DocumentBuilder}.
+     * @throws ParserConfigurationException if the profile isn't supported by the JAXP implementation.
+     */
+    DocumentBuilder newDocumentBuilder(Schema schema) throws ParserConfigurationException {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        configure(dbf);
+        dbf.setSchema(schema);
+
+        DocumentBuilder builder = dbf.newDocumentBuilder();
+
+        // Report errors by throwing, rather than printing them
+        if (this != DEFAULT || schema != null) {
+            builder.setErrorHandler(new StrictErrorHandler());
+        }
+
+        // Never fetch anything, even if a feature above wasn't supported
+        if (this == FAST_UNTRUSTED || this == COALESCING) {
+            builder.setEntityResolver(NO_ENTITIES);
+        }
+
+        return builder;
+    }
+
+    /**
+     * Disables everything that could fetch external resources or expand entities without limit.
+     * @param dbf the factory to configure.
+     * @throws ParserConfigurationException if secure processing isn't supported.
+     */
+    private static void secure(DocumentBuilderFactory dbf) throws ParserConfigurationException {
+        dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        setFeature(dbf, EXTERNAL_GENERAL_ENTITIES, false);
+        setFeature(dbf, EXTERNAL_PARAMETER_ENTITIES, false);
+        setFeature(dbf, LOAD_EXTERNAL_DTD, false);
+        dbf.setXIncludeAware(false);
+    }
+
+    /**
+     * Sets an optional parser feature.
+     * @param dbf the factory to configure.
+     * @param feature the feature name.
+     * @param value the feature value.
+     * @return false if the parser doesn't support the feature.
+     */
+    private static boolean setFeature(DocumentBuilderFactory dbf, String feature, boolean value) {
+        try {
+            dbf.setFeature(feature, value);
+            return true;
+        } catch (ParserConfigurationException e) {
+            return false;
+        }
+    }
+
+}
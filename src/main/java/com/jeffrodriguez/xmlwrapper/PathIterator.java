@@ -0,0 +1,189 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * An {@link Iterator} that lazily walks a DOM tree in document order, returning
+ * the elements matched by a {@link SimplePath}.
+ *
+ * Subtrees that can no longer match are skipped, and nothing is evaluated
+ * beyond the last element returned.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class PathIterator implements Iterator<XMLElement> {
+
+    /**
+     * The node the walk starts from.
+     */
+    private final Node root;
+
+    /**
+     * The matcher tracking the current position.
+     */
+    private final PathMatcher matcher;
+
+    /**
+     * The element whose {@link XMLElement#wrap(Element)} wraps the matches.
+     */
+    private final XMLElement wrapper;
+
+    /**
+     * The element the walk is positioned on, or null before the walk starts.
+     */
+    private Node current;
+
+    /**
+     * The next matching element, if already found.
+     */
+    private Element next;
+
+    /**
+     * True once the walk is complete.
+     */
+    private boolean done;
+
+    /**
+     * Creates a new {@link PathIterator}.
+     * @param root the node to walk, typically the document.
+     * @param path the path to match.
+     * @param wrapper an element of the same kind as the ones to return.
+     */
+    PathIterator(Node root, SimplePath path, XMLElement wrapper) {
+        this.root = root;
+        this.matcher = new PathMatcher(path);
+        this.wrapper = wrapper;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            next = findNext();
+            done = next == null;
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public XMLElement next() {
+        return wrapper.wrap(nextElement());
+    }
+
+    /**
+     * Returns the next matching element without wrapping it.
+     * @return the next matching element.
+     */
+    Element nextElement() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Element element = next;
+        next = null;
+        return element;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Lazy XPath results are read-only.");
+    }
+
+    /**
+     * Advances the walk to the next matching element.
+     * @return the next matching element, or null at the end of the walk.
+     */
+    private Element findNext() {
+        while (true) {
+            Node candidate;
+
+            if (current == null) {
+
+                // Start the walk
+                candidate = firstElement(root.getFirstChild());
+            } else {
+
+                // Descend if anything can still match below the current element
+                candidate = null;
+                if (matcher.isActive()) {
+                    candidate = firstElement(current.getFirstChild());
+                }
+
+                // Otherwise move to the next sibling, climbing as needed
+                while (candidate == null) {
+                    matcher.pop();
+                    candidate = firstElement(current.getNextSibling());
+
+                    if (candidate == null) {
+                        current = current.getParentNode();
+                        if (current == root) {
+                            return null;
+                        }
+                    }
+                }
+            }
+
+            if (candidate == null) {
+                return null;
+            }
+
+            current = candidate;
+            if (matcher.push(candidate.getNamespaceURI(), SimplePath.localName(candidate))) {
+                return (Element) candidate;
+            }
+        }
+    }
+
+    /**
+     * Finds the first element at or after a node, among its siblings.
+     * @param node the node to start from, possibly null.
+     * @return the first element, or null if there is none.
+     */
+    private static Node firstElement(Node node) {
+        while (node != null && node.getNodeType() != Node.ELEMENT_NODE) {
+            node = node.getNextSibling();
+        }
+
+        return node;
+    }
+
+    /**
+     * @return an {@link Iterable} for this iterator.
+     */
+    public Iterable<XMLElement> toIterable() {
+        return new Iterable<XMLElement>() {
+            @Override
+            public Iterator<XMLElement> iterator() {
+                return PathIterator.this;
+            }
+        };
+    }
+
+}
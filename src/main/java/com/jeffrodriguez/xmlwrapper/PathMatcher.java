@@ -0,0 +1,246 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+/**
+ * Matches a set of {@link SimplePath}s against a stream of element start and end events.
+ *
+ * Every path is compiled into a chain of states, and the matcher keeps the set
+ * of live states for each open element. Pushing an element costs time
+ * proportional to the live states only, so any number of paths is evaluated
+ * in one forward pass.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class PathMatcher {
+
+    /**
+     * The paths being matched.
+     */
+    private final SimplePath[] paths;
+
+    /**
+     * The path of each state.
+     */
+    private final int[] statePath;
+
+    /**
+     * The step of each state.
+     */
+    private final int[] stateStep;
+
+    /**
+     * The initial states, one per path.
+     */
+    private final int[] initial;
+
+    /**
+     * The generation in which a state was last added to a frame, used to avoid duplicates.
+     */
+    private final int[] stateMark;
+
+    /**
+     * The generation in which a path last matched, used to avoid duplicates.
+     */
+    private final int[] pathMark;
+
+    /**
+     * The live states of each open element.
+     */
+    private int[][] frames = new int[16][];
+
+    /**
+     * The number of live states in each frame.
+     */
+    private int[] frameSizes = new int[16];
+
+    /**
+     * The index of the current frame.
+     */
+    private int depth;
+
+    /**
+     * The current generation.
+     */
+    private int generation;
+
+    /**
+     * The paths matched by the last push.
+     */
+    private final int[] matches;
+
+    /**
+     * The number of paths matched by the last push.
+     */
+    private int matchCount;
+
+    /**
+     * Creates a new {@link PathMatcher}.
+     * @param paths the paths to match.
+     */
+    PathMatcher(SimplePath... paths) {
+        this.paths = paths;
+
+        // Number the states
+        int states = 0;
+        for (SimplePath path : paths) {
+            states += path.length();
+        }
+
+        statePath = new int[states];
+        stateStep = new int[states];
+        initial = new int[paths.length];
+
+        int state = 0;
+        for (int p = 0; p < paths.length; p++) {
+            initial[p] = state;
+            for (int step = 0; step < paths[p].length(); step++) {
+                statePath[state] = p;
+                stateStep[state] = step;
+                state++;
+            }
+        }
+
+        stateMark = new int[states];
+        pathMark = new int[paths.length];
+        matches = new int[paths.length];
+
+        reset();
+    }
+
+    /**
+     * Resets the matcher to the document node.
+     */
+    void reset() {
+        depth = 0;
+        frames[0] = initial.clone();
+        frameSizes[0] = initial.length;
+        matchCount = 0;
+    }
+
+    /**
+     * Enters an element.
+     * @param namespaceURI the element's namespace URI, possibly null.
+     * @param localName the element's local name.
+     * @return true if at least one path matches the element.
+     */
+    boolean push(String namespaceURI, String localName) {
+        int[] parent = frames[depth];
+        int parentSize = frameSizes[depth];
+
+        // Grow the stack
+        depth++;
+        if (depth == frames.length) {
+            int[][] newFrames = new int[depth * 2][];
+            System.arraycopy(frames, 0, newFrames, 0, depth);
+            frames = newFrames;
+
+            int[] newSizes = new int[depth * 2];
+            System.arraycopy(frameSizes, 0, newSizes, 0, depth);
+            frameSizes = newSizes;
+        }
+
+        int[] frame = frames[depth];
+        if (frame == null || frame.length < stateMark.length) {
+            frame = new int[stateMark.length];
+            frames[depth] = frame;
+        }
+
+        generation++;
+        int size = 0;
+        matchCount = 0;
+
+        for (int i = 0; i < parentSize; i++) {
+            int state = parent[i];
+            SimplePath path = paths[statePath[state]];
+            int step = stateStep[state];
+
+            // A descendant step may still match further down
+            if (path.isDescendant(step) && stateMark[state] != generation) {
+                stateMark[state] = generation;
+                frame[size++] = state;
+            }
+
+            if (path.matches(step, namespaceURI, localName)) {
+                if (step == path.length() - 1) {
+
+                    // The whole path matched
+                    int p = statePath[state];
+                    if (pathMark[p] != generation) {
+                        pathMark[p] = generation;
+                        matches[matchCount++] = p;
+                    }
+                } else if (stateMark[state + 1] != generation) {
+
+                    // Move on to the next step
+                    stateMark[state + 1] = generation;
+                    frame[size++] = state + 1;
+                }
+            }
+        }
+
+        frameSizes[depth] = size;
+        return matchCount > 0;
+    }
+
+    /**
+     * Leaves the current element.
+     */
+    void pop() {
+        depth--;
+        matchCount = 0;
+    }
+
+    /**
+     * Returns true if any path can still match a descendant of the current element.
+     * @return true if the current element's subtree is worth visiting.
+     */
+    boolean isActive() {
+        return frameSizes[depth] > 0;
+    }
+
+    /**
+     * @return the depth of the current element, zero for the document node.
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of paths matched by the last push.
+     */
+    int getMatchCount() {
+        return matchCount;
+    }
+
+    /**
+     * @param i the match index, less than {@link #getMatchCount()}.
+     * @return the index of a path matched by the last push.
+     */
+    int getMatch(int i) {
+        return matches[i];
+    }
+
+}
@@ -0,0 +1,110 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free pool of idle objects that aren't thread-safe, such as parsers and transformers.
+ *
+ * Objects are taken with {@link #poll()}, created by the caller when the pool
+ * is empty, and given back with {@link #offer(Object)}. Nothing is tied to a
+ * thread, so the pool holds at most one object per concurrent user, however
+ * many threads there are, and waiting is never needed.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ * @param <T> the type of pooled objects.
+ */
+final class Pool<T> {
+
+    /**
+     * The default maximum number of idle objects.
+     */
+    static final int DEFAULT_MAX_IDLE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * The idle objects.
+     */
+    private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+
+    /**
+     * The number of idle objects, since counting the queue isn't constant time.
+     */
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * The maximum number of idle objects kept.
+     */
+    private final int maxIdle;
+
+    /**
+     * Creates a new {@link Pool}, keeping at most {@link #DEFAULT_MAX_IDLE} idle objects.
+     */
+    Pool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * Creates a new {@link Pool}.
+     * @param maxIdle the maximum number of idle objects kept, beyond which given back objects are dropped.
+     */
+    Pool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Takes an idle object.
+     * @return the object, or null if there is none.
+     */
+    T poll() {
+        T object = idle.poll();
+        if (object != null) {
+            idleCount.decrementAndGet();
+        }
+        return object;
+    }
+
+    /**
+     * Gives back an object, which is dropped if the pool is full.
+     * @param object the object, which the caller must no longer use.
+     */
+    void offer(T object) {
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(object);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of idle objects.
+     */
+    int getIdleCount() {
+        return idleCount.get();
+    }
+
+}
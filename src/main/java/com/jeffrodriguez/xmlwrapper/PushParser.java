@@ -0,0 +1,858 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.XMLConstants;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Builds a document from characters pushed in any number of pieces.
+ *
+ * Each call consumes every complete token and keeps the rest for the next
+ * one, so the document grows as input arrives and no thread ever waits for
+ * it. Document type declarations aren't supported: {@link #process()}
+ * reports them, so that the caller can fall back to a full parser.
+ *
+ * Line ends are normalized and characters checked as they're appended, and
+ * names are checked by the DOM implementation, so that documents come out as
+ * they would from the JAXP parser, and the same input is rejected. The one
+ * exception is names starting with a colon, which the JAXP parser accepts
+ * although they aren't namespace well-formed.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class PushParser {
+
+    /**
+     * The longest markup opening that needs to be seen whole to be classified.
+     */
+    private static final String CDATA_START = "<![CDATA[";
+
+    /**
+     * The start of a comment.
+     */
+    private static final String COMMENT_START = "<!--";
+
+    /**
+     * The start of a document type declaration.
+     */
+    private static final String DOCTYPE_START = "<!DOCTYPE";
+
+    /**
+     * The document being built.
+     */
+    private final Document document;
+
+    /**
+     * True to drop comments and whitespace-only text, and merge CDATA into text.
+     */
+    private final boolean coalescing;
+
+    /**
+     * The characters received but not consumed yet.
+     */
+    private final StringBuilder input = new StringBuilder();
+
+    /**
+     * The position of the next token in the input.
+     */
+    private int position;
+
+    /**
+     * The position up to which the input was searched for the end of the next token.
+     */
+    private int scanned;
+
+    /**
+     * The node new nodes are appended to.
+     */
+    private Node current;
+
+    /**
+     * True once the document element has started.
+     */
+    private boolean rootStarted;
+
+    /**
+     * The total number of characters consumed, for error messages.
+     */
+    private long consumed;
+
+    /**
+     * True if the last character appended was a carriage return.
+     */
+    private boolean afterCarriageReturn;
+
+    /**
+     * True if the last character appended was a high surrogate.
+     */
+    private boolean afterHighSurrogate;
+
+    /**
+     * Creates a new {@link PushParser}.
+     * @param document the empty document to build.
+     * @param coalescing true to drop comments and whitespace-only text, and merge CDATA into text.
+     */
+    PushParser(Document document, boolean coalescing) {
+        this.document = document;
+        this.coalescing = coalescing;
+        this.current = document;
+    }
+
+    /**
+     * @return the document being built.
+     */
+    Document getDocument() {
+        return document;
+    }
+
+    /**
+     * @return true once the document element has started.
+     */
+    boolean isRootStarted() {
+        return rootStarted;
+    }
+
+    /**
+     * Adds characters to the input, normalizing line ends to <code>\n</code>.
+     * @param chars the characters.
+     * @throws SAXException If a character isn't allowed in XML.
+     */
+    void append(CharSequence chars) throws SAXException {
+        input.ensureCapacity(input.length() + chars.length());
+
+        // Copy runs of plain characters at once
+        int run = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (!afterHighSurrogate && ((c >= ' ' && c < Character.MIN_SURROGATE) || c == '\t'
+                    || (c == '\n' && !afterCarriageReturn))) {
+                afterCarriageReturn = false;
+                continue;
+            }
+            input.append(chars, run, i);
+            run = i + 1;
+
+            // Surrogates must come in pairs, and the characters they make are all allowed
+            if (afterHighSurrogate != Character.isLowSurrogate(c)) {
+                throw error("Invalid surrogate pair in the input");
+            }
+            afterHighSurrogate = Character.isHighSurrogate(c);
+
+            if (c == '\r') {
+                input.append('\n');
+                afterCarriageReturn = true;
+            } else if (c == '\n' && afterCarriageReturn) {
+                afterCarriageReturn = false;
+            } else if (afterHighSurrogate || Character.isLowSurrogate(c) || isChar(c)) {
+                input.append(c);
+                afterCarriageReturn = false;
+            } else {
+                throw error("An invalid XML character (Unicode: 0x" + Integer.toHexString(c)
+                        + ") was found in the input");
+            }
+        }
+        input.append(chars, run, chars.length());
+    }
+
+    /**
+     * Consumes every complete token of the input.
+     * @return true if a document type declaration was found, and nothing was consumed from it.
+     * @throws SAXException If the input isn't well-formed.
+     */
+    boolean process() throws SAXException {
+        try {
+            return process(false);
+        } finally {
+            compact();
+        }
+    }
+
+    /**
+     * Consumes the rest of the input, which must complete the document.
+     * @throws SAXException If the input isn't a complete, well-formed document.
+     */
+    void finish() throws SAXException {
+        if (afterHighSurrogate) {
+            throw error("Invalid surrogate pair in the input");
+        }
+        if (process(true)) {
+            throw error("Unexpected document type declaration");
+        }
+        if (!rootStarted) {
+            throw error("Premature end of file: no document element");
+        }
+        if (current != document) {
+            throw error("Premature end of file: element " + current.getNodeName() + " isn't closed");
+        }
+    }
+
+    /**
+     * Consumes complete tokens.
+     * @param end true if no more input will come.
+     * @return true if a document type declaration was found.
+     * @throws SAXException If the input isn't well-formed.
+     */
+    private boolean process(boolean end) throws SAXException {
+        while (position < input.length()) {
+            if (input.charAt(position) != '<') {
+                int next = input.indexOf("<", Math.max(position, scanned));
+                if (next < 0) {
+                    if (!end) {
+                        scanned = input.length();
+                        return false;
+                    }
+                    next = input.length();
+                }
+                text(position, next);
+                advance(next);
+                continue;
+            }
+
+            // Markup: wait until it can be classified
+            int available = input.length() - position;
+            if (available < CDATA_START.length() && !end
+                    && (couldStart(CDATA_START) || couldStart(COMMENT_START) || couldStart(DOCTYPE_START))) {
+                return false;
+            }
+
+            int close;
+            if (startsWith(COMMENT_START)) {
+                close = find("-->", position + COMMENT_START.length(), end);
+                if (close < 0) {
+                    return false;
+                }
+                comment(input.substring(position + COMMENT_START.length(), close));
+                advance(close + 3);
+            } else if (startsWith(CDATA_START)) {
+                close = find("]]>", position + CDATA_START.length(), end);
+                if (close < 0) {
+                    return false;
+                }
+                cdata(input.substring(position + CDATA_START.length(), close));
+                advance(close + 3);
+            } else if (startsWith(DOCTYPE_START)) {
+                if (rootStarted) {
+                    throw error("Document type declarations must come before the document element");
+                }
+                return true;
+            } else if (startsWith("<?")) {
+                close = find("?>", position + 2, end);
+                if (close < 0) {
+                    return false;
+                }
+                processingInstruction(input.substring(position + 2, close));
+                advance(close + 2);
+            } else if (startsWith("</")) {
+                close = find(">", position + 2, end);
+                if (close < 0) {
+                    return false;
+                }
+                endTag(trimEnd(input.substring(position + 2, close)));
+                advance(close + 1);
+            } else if (startsWith("<!")) {
+                throw error("Unsupported markup declaration");
+            } else {
+                close = findTagEnd(end);
+                if (close < 0) {
+                    return false;
+                }
+                startTag(close);
+                advance(close + 1);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if the input at the current position starts with a string.
+     * @param prefix the string.
+     * @return true if it matches.
+     */
+    private boolean startsWith(String prefix) {
+        if (input.length() - position < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (input.charAt(position + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the rest of the input is a proper prefix of a string.
+     * @param markup the string.
+     * @return true if more input could complete it.
+     */
+    private boolean couldStart(String markup) {
+        int available = input.length() - position;
+        if (available >= markup.length()) {
+            return false;
+        }
+        for (int i = 0; i < available; i++) {
+            if (input.charAt(position + i) != markup.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the end of the current token, resuming where the last search stopped.
+     * @param terminator the string ending the token.
+     * @param from the first position the terminator can start at.
+     * @param end true if no more input will come.
+     * @return the position of the terminator, or -1 if it hasn't arrived yet.
+     * @throws SAXException If the input ended without the terminator.
+     */
+    private int find(String terminator, int from, boolean end) throws SAXException {
+        int start = Math.max(from, scanned - terminator.length() + 1);
+        int found = input.indexOf(terminator, start);
+        if (found < 0) {
+            if (end) {
+                throw error("Premature end of file: expected " + terminator);
+            }
+            scanned = input.length();
+        }
+        return found;
+    }
+
+    /**
+     * Finds the end of a start tag, skipping quoted attribute values.
+     * @param end true if no more input will come.
+     * @return the position of the closing <code>&gt;</code>, or -1 if it hasn't arrived yet.
+     * @throws SAXException If the input ended without it.
+     */
+    private int findTagEnd(boolean end) throws SAXException {
+        char quote = 0;
+        for (int i = position + 1; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+
+        if (end) {
+            throw error("Premature end of file: unclosed start tag");
+        }
+        return -1;
+    }
+
+    /**
+     * Moves past a token.
+     * @param next the position after the token.
+     */
+    private void advance(int next) {
+        consumed += next - position;
+        position = next;
+        scanned = next;
+    }
+
+    /**
+     * Drops the consumed input.
+     */
+    private void compact() {
+        if (position > 0) {
+            input.delete(0, position);
+            scanned -= position;
+            position = 0;
+        }
+    }
+
+    /**
+     * Handles text.
+     * @param start the start of the text.
+     * @param end the end of the text.
+     * @throws SAXException If the text isn't allowed there, or has bad references.
+     */
+    private void text(int start, int end) throws SAXException {
+        if (current == document) {
+            for (int i = start; i < end; i++) {
+                if (!isWhitespace(input.charAt(i))) {
+                    throw error("Content is not allowed outside the document element");
+                }
+            }
+            return;
+        }
+
+        appendText(decode(start, end, false));
+    }
+
+    /**
+     * Handles a CDATA section.
+     * @param text the content of the section.
+     * @throws SAXException If the section is outside the document element.
+     */
+    private void cdata(String text) throws SAXException {
+        if (current == document) {
+            throw error("CDATA sections are not allowed outside the document element");
+        }
+
+        if (coalescing) {
+            appendText(text);
+        } else {
+            current.appendChild(document.createCDATASection(text));
+        }
+    }
+
+    /**
+     * Appends text to the current element, merging it with a preceding text node.
+     *
+     * When coalescing, whitespace-only text is kept until the next sibling or
+     * the end of the element, since text after an ignored comment or a CDATA
+     * section may still be merged into it.
+     * @param text the text.
+     */
+    private void appendText(String text) {
+        Node last = current.getLastChild();
+        if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+            last.setNodeValue(last.getNodeValue() + text);
+        } else {
+            current.appendChild(document.createTextNode(text));
+        }
+    }
+
+    /**
+     * Handles a comment.
+     * @param text the content of the comment.
+     * @throws SAXException If the comment contains <code>--</code>.
+     */
+    private void comment(String text) throws SAXException {
+        if (text.contains("--") || text.endsWith("-")) {
+            throw error("The string \"--\" is not permitted within comments");
+        }
+
+        if (!coalescing) {
+            current.appendChild(document.createComment(text));
+        }
+    }
+
+    /**
+     * Handles a processing instruction.
+     * @param content the target and data.
+     * @throws SAXException If the target is missing or reserved.
+     */
+    private void processingInstruction(String content) throws SAXException {
+        int space = 0;
+        while (space < content.length() && !isWhitespace(content.charAt(space))) {
+            space++;
+        }
+
+        String target = content.substring(0, space);
+        if (target.length() == 0) {
+            throw error("Invalid processing instruction target: " + target);
+        }
+        if (target.equalsIgnoreCase("xml")) {
+            throw error("The XML declaration must come first");
+        }
+
+        int data = space;
+        while (data < content.length() && isWhitespace(content.charAt(data))) {
+            data++;
+        }
+
+        dropWhitespace();
+        try {
+            current.appendChild(document.createProcessingInstruction(target, content.substring(data)));
+        } catch (DOMException e) {
+            throw error("Invalid processing instruction target: " + target);
+        }
+    }
+
+    /**
+     * Removes the current node's last child if it's whitespace-only text, when coalescing.
+     */
+    private void dropWhitespace() {
+        if (coalescing) {
+            Node last = current.getLastChild();
+            if (last != null && last.getNodeType() == Node.TEXT_NODE && XML.isWhitespace(last.getNodeValue())) {
+                current.removeChild(last);
+            }
+        }
+    }
+
+    /**
+     * Handles a start tag, or an empty element tag.
+     * @param close the position of the closing <code>&gt;</code>.
+     * @throws SAXException If the tag isn't well-formed.
+     */
+    private void startTag(int close) throws SAXException {
+        if (current == document && rootStarted) {
+            throw error("Only one document element is allowed");
+        }
+
+        boolean empty = input.charAt(close - 1) == '/';
+        int limit = close;
+        if (empty) {
+            limit--;
+        }
+
+        // Read the name
+        int i = position + 1;
+        int nameEnd = i;
+        while (nameEnd < limit && !isWhitespace(input.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        String name = input.substring(i, nameEnd);
+
+        // Read the attributes
+        List<String> names = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        i = nameEnd;
+        while (true) {
+            int start = i;
+            while (i < limit && isWhitespace(input.charAt(i))) {
+                i++;
+            }
+            if (i == limit) {
+                break;
+            }
+            if (i == start) {
+                throw error("Attributes must be separated by whitespace in element " + name);
+            }
+
+            int equals = input.indexOf("=", i);
+            if (equals < 0 || equals >= limit) {
+                throw error("Attribute without a value in element " + name);
+            }
+            String attribute = input.substring(i, equals).trim();
+            if (names.contains(attribute)) {
+                throw error("Attribute " + attribute + " is repeated in element " + name);
+            }
+
+            i = equals + 1;
+            while (i < limit && isWhitespace(input.charAt(i))) {
+                i++;
+            }
+            if (i == limit || (input.charAt(i) != '"' && input.charAt(i) != '\'')) {
+                throw error("Attribute values must be quoted in element " + name);
+            }
+            int valueEnd = input.indexOf(String.valueOf(input.charAt(i)), i + 1);
+            if (valueEnd < 0 || valueEnd >= limit) {
+                throw error("Unterminated attribute value in element " + name);
+            }
+
+            names.add(attribute);
+            values.add(decode(i + 1, valueEnd, true));
+            i = valueEnd + 1;
+        }
+
+        // Resolve the namespaces, letting the element's own declarations win
+        for (int a = 0; a < names.size(); a++) {
+            checkDeclaration(names.get(a), values.get(a));
+        }
+        if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix(name))) {
+            throw error("Element " + name + " must not have the prefix xmlns");
+        }
+
+        Element element;
+        String attribute = name;
+        try {
+            element = document.createElementNS(resolve(prefix(name), names, values, true), name);
+            for (int a = 0; a < names.size(); a++) {
+                attribute = names.get(a);
+                String namespaceURI;
+                if (attribute.equals(XMLConstants.XMLNS_ATTRIBUTE) || attribute.startsWith("xmlns:")) {
+                    namespaceURI = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+                } else if (prefix(attribute) == null) {
+                    namespaceURI = null;
+                } else {
+                    namespaceURI = resolve(prefix(attribute), names, values, false);
+                }
+
+                String localName = attribute.substring(attribute.indexOf(':') + 1);
+                if (element.hasAttributeNS(namespaceURI, localName)) {
+                    throw error("Attribute " + attribute + " is repeated in element " + name);
+                }
+                element.setAttributeNS(namespaceURI, attribute, values.get(a));
+            }
+        } catch (DOMException e) {
+            throw error("Invalid name: " + attribute);
+        }
+
+        dropWhitespace();
+        current.appendChild(element);
+        rootStarted = true;
+        if (!empty) {
+            current = element;
+        }
+    }
+
+    /**
+     * Checks that a namespace declaration doesn't bind a reserved prefix or namespace.
+     * @param attribute the attribute name.
+     * @param value the attribute value.
+     * @throws SAXException If it's a declaration that isn't allowed.
+     */
+    private void checkDeclaration(String attribute, String value) throws SAXException {
+        String prefix;
+        if (attribute.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+            prefix = null;
+        } else if (attribute.startsWith("xmlns:")) {
+            prefix = attribute.substring(6);
+        } else {
+            return;
+        }
+
+        if (prefix != null && value.length() == 0) {
+            throw error("The prefix \"" + prefix + "\" cannot be bound to an empty namespace");
+        }
+        if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix) || value.equals(XMLConstants.XMLNS_ATTRIBUTE_NS_URI)) {
+            throw error("The xmlns prefix and namespace must not be declared");
+        }
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix) != value.equals(XMLConstants.XML_NS_URI)) {
+            throw error("The xml prefix must only be bound to, and by, its own namespace");
+        }
+    }
+
+    /**
+     * Resolves a prefix against an element's declarations, then its ancestors'.
+     * @param prefix the prefix, or null for the default namespace.
+     * @param names the names of the element's attributes.
+     * @param values the values of the element's attributes.
+     * @param element true if the prefix is an element's, for which the default namespace applies.
+     * @return the namespace URI, or null for no namespace.
+     * @throws SAXException If the prefix isn't bound.
+     */
+    private String resolve(String prefix, List<String> names, List<String> values,
+            boolean element) throws SAXException {
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return XMLConstants.XML_NS_URI;
+        }
+
+        String declaration = XMLConstants.XMLNS_ATTRIBUTE;
+        if (prefix != null) {
+            declaration = declaration + ":" + prefix;
+        }
+
+        String namespaceURI;
+        int index = names.indexOf(declaration);
+        if (index >= 0) {
+            namespaceURI = values.get(index);
+        } else if (current == document) {
+            namespaceURI = null;
+        } else {
+            namespaceURI = current.lookupNamespaceURI(prefix);
+        }
+
+        if (namespaceURI != null && namespaceURI.length() == 0) {
+            namespaceURI = null;
+        }
+
+        if (prefix != null && namespaceURI == null) {
+            throw error("The prefix \"" + prefix + "\" is not bound");
+        }
+        if (!element && prefix == null) {
+            return null;
+        }
+        return namespaceURI;
+    }
+
+    /**
+     * Handles an end tag.
+     * @param name the name in the tag.
+     * @throws SAXException If it doesn't close the current element.
+     */
+    private void endTag(String name) throws SAXException {
+        if (current == document || !current.getNodeName().equals(name)) {
+            throw error("The end tag " + name + " doesn't match an open element");
+        }
+        dropWhitespace();
+        current = current.getParentNode();
+    }
+
+    /**
+     * Decodes text or an attribute value, replacing references.
+     * @param start the start of the text.
+     * @param end the end of the text.
+     * @param attribute true for an attribute value, whose whitespace is normalized.
+     * @return the decoded text.
+     * @throws SAXException If a reference is invalid, an attribute value contains <code>&lt;</code>, or text
+     *         contains <code>]]&gt;</code>.
+     */
+    private String decode(int start, int end, boolean attribute) throws SAXException {
+        StringBuilder text = null;
+        int plain = start;
+
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            String replacement;
+
+            if (c == '&') {
+                int semicolon = input.indexOf(";", i);
+                if (semicolon < 0 || semicolon >= end) {
+                    throw error("Unterminated entity reference");
+                }
+                replacement = reference(input.substring(i + 1, semicolon));
+                if (text == null) {
+                    text = new StringBuilder(end - start);
+                }
+                text.append(input, plain, i).append(replacement);
+                i = semicolon;
+                plain = semicolon + 1;
+            } else if (attribute && (c == '\t' || c == '\n' || c == '\r')) {
+                if (text == null) {
+                    text = new StringBuilder(end - start);
+                }
+                text.append(input, plain, i).append(' ');
+                plain = i + 1;
+            } else if (attribute && c == '<') {
+                throw error("Attribute values must not contain '<'");
+            } else if (!attribute && c == '>' && i - start >= 2
+                    && input.charAt(i - 1) == ']' && input.charAt(i - 2) == ']') {
+                throw error("The character sequence \"]]>\" must not appear in content");
+            }
+        }
+
+        if (text == null) {
+            return input.substring(start, end);
+        }
+        return text.append(input, plain, end).toString();
+    }
+
+    /**
+     * Resolves a character or predefined entity reference.
+     * @param name the text between <code>&amp;</code> and <code>;</code>.
+     * @return the replacement text.
+     * @throws SAXException If the reference is unknown.
+     */
+    private String reference(String name) throws SAXException {
+        if (name.equals("lt")) {
+            return "<";
+        } else if (name.equals("gt")) {
+            return ">";
+        } else if (name.equals("amp")) {
+            return "&";
+        } else if (name.equals("apos")) {
+            return "'";
+        } else if (name.equals("quot")) {
+            return "\"";
+        } else if (name.startsWith("#")) {
+            int radix = 10;
+            int digits = 1;
+            if (name.startsWith("#x")) {
+                radix = 16;
+                digits = 2;
+            }
+
+            // ASCII digits only, stopping once past the last code point
+            int codePoint = -1;
+            if (name.length() > digits) {
+                codePoint = 0;
+                for (int i = digits; i < name.length() && codePoint >= 0; i++) {
+                    char c = name.charAt(i);
+                    int digit = -1;
+                    if (c < 0x80) {
+                        digit = Character.digit(c, radix);
+                    }
+                    if (digit < 0 || codePoint > Character.MAX_CODE_POINT) {
+                        codePoint = -1;
+                    } else {
+                        codePoint = codePoint * radix + digit;
+                    }
+                }
+            }
+
+            if (codePoint < 0 || !isChar(codePoint)) {
+                throw error("Invalid character reference: &" + name + ";");
+            }
+            return new String(Character.toChars(codePoint));
+        }
+
+        throw error("The entity \"" + name + "\" was referenced, but not declared");
+    }
+
+    /**
+     * Gets the prefix of a qualified name.
+     * @param name the name.
+     * @return the prefix, or null if the name has none.
+     */
+    private static String prefix(String name) {
+        int colon = name.indexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        return name.substring(0, colon);
+    }
+
+    /**
+     * Returns true if a code point matches the XML 1.0 <code>Char</code> production.
+     * @param c the code point.
+     * @return true if it's allowed in XML.
+     */
+    private static boolean isChar(int c) {
+        if (c < 0x20) {
+            return c == '\t' || c == '\n' || c == '\r';
+        }
+        return c <= 0xd7ff || (c >= 0xe000 && c <= 0xfffd) || (c >= 0x10000 && c <= 0x10ffff);
+    }
+
+    /**
+     * Removes trailing whitespace.
+     * @param text the text.
+     * @return the text, without trailing whitespace.
+     */
+    private static String trimEnd(String text) {
+        int end = text.length();
+        while (end > 0 && isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    /**
+     * Returns true for XML whitespace.
+     * @param c the character.
+     * @return true for space, tab, carriage return and line feed.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * Builds an exception for malformed input.
+     * @param message what was wrong.
+     * @return the exception, with the character offset of the token.
+     */
+    private SAXException error(String message) {
+        return new SAXException(message + " (at character " + consumed + ").");
+    }
+
+}
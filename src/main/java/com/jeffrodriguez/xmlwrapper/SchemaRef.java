@@ -0,0 +1,272 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+
+/**
+ * A reference to a W3C XML Schema, by location.
+ *
+ * Schemas are compiled once per location and cached for the life of the
+ * class loader, and the parsers and {@link Validator}s using them are pooled,
+ * so references can be created freely and shared between threads. Schema
+ * documents may include and import others from files and jars only.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class SchemaRef {
+
+    /**
+     * Compiled schemas, by location.
+     */
+    private static final ConcurrentMap<String, CompiledSchema> SCHEMAS =
+            new ConcurrentHashMap<String, CompiledSchema>();
+
+    /**
+     * The protocols schema documents may include and import other schema documents from.
+     */
+    private static final String EXTERNAL_SCHEMA_PROTOCOLS = "file,jar";
+
+    /**
+     * The schema's location, as a URI.
+     */
+    private final String location;
+
+    /**
+     * Creates a new {@link SchemaRef}.
+     * @param location the schema's location, as a URI.
+     */
+    public SchemaRef(String location) {
+        this.location = location;
+    }
+
+    /**
+     * Creates a new {@link SchemaRef}.
+     * @param url the schema's location.
+     */
+    public SchemaRef(URL url) {
+        this(url.toExternalForm());
+    }
+
+    /**
+     * Creates a new {@link SchemaRef}.
+     * @param file the schema file.
+     */
+    public SchemaRef(File file) {
+        this(file.toURI().toString());
+    }
+
+    /**
+     * Removes every compiled schema from the cache.
+     */
+    public static void clearCache() {
+        SCHEMAS.clear();
+    }
+
+    /**
+     * @return the schema's location, as a URI.
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Gets the compiled schema, compiling it on first use.
+     * @return the compiled {@link Schema}.
+     * @throws SAXException if the schema cannot be loaded or compiled.
+     */
+    public Schema getSchema() throws SAXException {
+        return compiled().schema;
+    }
+
+    /**
+     * Gets the cached compilation of the schema, compiling it if needed.
+     *
+     * Pooled objects must be given back to the compilation they were borrowed
+     * from, which may no longer be cached by then.
+     * @return the compiled schema.
+     * @throws SAXException if the schema cannot be loaded or compiled.
+     */
+    CompiledSchema compiled() throws SAXException {
+        CompiledSchema compiled = SCHEMAS.get(location);
+
+        if (compiled == null) {
+
+            // SchemaFactory isn't thread-safe, so use a new one
+            SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+
+            // Secure processing forbids every include and import: allow local ones
+            try {
+                factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, EXTERNAL_SCHEMA_PROTOCOLS);
+            } catch (SAXNotRecognizedException e) {
+                // Before JAXP 1.5, nothing restricts them
+            }
+
+            compiled = new CompiledSchema(factory.newSchema(new StreamSource(location)));
+
+            // Keep the first compilation if another thread won the race
+            CompiledSchema existing = SCHEMAS.putIfAbsent(location, compiled);
+            if (existing != null) {
+                compiled = existing;
+            }
+        }
+
+        return compiled;
+    }
+
+    @Override
+    public int hashCode() {
+        return location.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        return location.equals(((SchemaRef) obj).location);
+    }
+
+    @Override
+    public String toString() {
+        return location;
+    }
+
+    /**
+     * A compiled schema, and the pooled objects using it.
+     */
+    static final class CompiledSchema {
+
+        /**
+         * The compiled schema, which is thread-safe.
+         */
+        private final Schema schema;
+
+        /**
+         * Idle validators.
+         */
+        private final Pool<Validator> validators = new Pool<Validator>();
+
+        /**
+         * Idle document builders, by parser profile.
+         */
+        private final ConcurrentMap<ParserProfile, Pool<DocumentBuilder>> builders =
+                new ConcurrentHashMap<ParserProfile, Pool<DocumentBuilder>>();
+
+        /**
+         * Creates a new {@link CompiledSchema}.
+         * @param schema the compiled schema.
+         */
+        CompiledSchema(Schema schema) {
+            this.schema = schema;
+        }
+
+        /**
+         * Takes a {@link Validator} for the schema from the pool.
+         * @return a validator, to be given back with {@link #release(Validator)}.
+         */
+        Validator borrowValidator() {
+            Validator validator = validators.poll();
+            if (validator == null) {
+                validator = schema.newValidator();
+            }
+
+            return validator;
+        }
+
+        /**
+         * Returns a {@link Validator} to the pool.
+         * @param validator the validator.
+         */
+        void release(Validator validator) {
+            validator.reset();
+            validators.offer(validator);
+        }
+
+        /**
+         * Takes a {@link DocumentBuilder} validating against the schema from the pool.
+         * @param profile the parser configuration.
+         * @return a document builder, to be given back with {@link #release(ParserProfile, DocumentBuilder)}.
+         * @throws SAXException if the profile isn't supported by the JAXP implementation.
+         */
+        DocumentBuilder borrowBuilder(ParserProfile profile) throws SAXException {
+            DocumentBuilder builder = builders(profile).poll();
+            if (builder == null) {
+                try {
+                    builder = profile.newDocumentBuilder(schema);
+                } catch (ParserConfigurationException e) {
+                    throw new SAXException(e);
+                }
+            }
+
+            return builder;
+        }
+
+        /**
+         * Returns a {@link DocumentBuilder} to the pool.
+         * @param profile the parser configuration the builder was borrowed for.
+         * @param builder the document builder.
+         */
+        void release(ParserProfile profile, DocumentBuilder builder) {
+            builders(profile).offer(builder);
+        }
+
+        /**
+         * Gets the idle document builders for a profile.
+         * @param profile the parser profile.
+         * @return the pool of builders.
+         */
+        private Pool<DocumentBuilder> builders(ParserProfile profile) {
+            Pool<DocumentBuilder> pool = builders.get(profile);
+
+            if (pool == null) {
+                pool = new Pool<DocumentBuilder>();
+                Pool<DocumentBuilder> existing = builders.putIfAbsent(profile, pool);
+                if (existing != null) {
+                    pool = existing;
+                }
+            }
+
+            return pool;
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.w3c.dom.Node;
+
+/**
+ * A forward-only subset of XPath location paths.
+ *
+ * Supported expressions are made of name tests (or <code>*</code>) joined by
+ * <code>/</code> and <code>//</code>, e.g. <code>/foo/bar</code>, <code>//bar</code>
+ * or <code>foo//*</code>. Predicates, attributes, functions, prefixes and
+ * explicit axes are not supported.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class SimplePath {
+
+    /**
+     * The wildcard name test.
+     */
+    private static final String WILDCARD = "*";
+
+    /**
+     * The name test of each step, or null for a wildcard.
+     */
+    private final String[] names;
+
+    /**
+     * True if the step is reached through the descendant axis, false for the child axis.
+     */
+    private final boolean[] descendant;
+
+    /**
+     * The original expression.
+     */
+    private final String expression;
+
+    /**
+     * Creates a new {@link SimplePath}.
+     * @param expression the original expression.
+     * @param names the name test of each step.
+     * @param descendant the axis of each step.
+     */
+    private SimplePath(String expression, String[] names, boolean[] descendant) {
+        this.expression = expression;
+        this.names = names;
+        this.descendant = descendant;
+    }
+
+    /**
+     * Parses an expression.
+     *
+     * Relative paths are treated as relative to the document node.
+     * @param expression the XPath expression.
+     * @return the parsed path, or null if the expression isn't part of the supported subset.
+     */
+    static SimplePath parse(String expression) {
+        String path = expression.trim();
+
+        // Strip a leading context step
+        if (path.startsWith("./")) {
+            path = path.substring(1);
+        }
+
+        if (path.length() == 0 || path.endsWith("/")) {
+            return null;
+        }
+
+        List<String> names = new ArrayList<String>();
+        List<Boolean> axes = new ArrayList<Boolean>();
+
+        int position = 0;
+        while (position < path.length()) {
+
+            // Read the axis
+            boolean isDescendant = false;
+            if (path.startsWith("//", position)) {
+                isDescendant = true;
+                position += 2;
+            } else if (path.charAt(position) == '/') {
+                position++;
+            } else if (position != 0) {
+                return null;
+            }
+
+            // Read the name test
+            int end = path.indexOf('/', position);
+            if (end < 0) {
+                end = path.length();
+            }
+
+            String name = path.substring(position, end);
+            if (!WILDCARD.equals(name) && !isName(name)) {
+                return null;
+            }
+
+            if (WILDCARD.equals(name)) {
+                names.add(null);
+            } else {
+                names.add(name);
+            }
+            axes.add(isDescendant);
+            position = end;
+        }
+
+        boolean[] descendant = new boolean[axes.size()];
+        for (int i = 0; i < descendant.length; i++) {
+            descendant[i] = axes.get(i);
+        }
+
+        return new SimplePath(expression, names.toArray(new String[names.size()]), descendant);
+    }
+
+    /**
+     * Returns true if a string is an unprefixed XML name.
+     * @param name the string to check.
+     * @return true if the string is an NCName.
+     */
+    private static boolean isName(String name) {
+        if (name.length() == 0) {
+            return false;
+        }
+
+        char first = name.charAt(0);
+        if (!Character.isLetter(first) && first != '_') {
+            return false;
+        }
+
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of steps in the path.
+     */
+    int length() {
+        return names.length;
+    }
+
+    /**
+     * @param step the step index.
+     * @return true if the step uses the descendant axis.
+     */
+    boolean isDescendant(int step) {
+        return descendant[step];
+    }
+
+    /**
+     * Tests a step against an element name.
+     *
+     * Like XPath without a namespace context, a name test only matches elements
+     * in no namespace, while the wildcard matches any element.
+     * @param step the step index.
+     * @param namespaceURI the element's namespace URI, possibly null.
+     * @param localName the element's local name.
+     * @return true if the step's name test matches.
+     */
+    boolean matches(int step, String namespaceURI, String localName) {
+        String name = names[step];
+
+        if (name == null) {
+            return true;
+        }
+
+        return (namespaceURI == null || namespaceURI.length() == 0) && name.equals(localName);
+    }
+
+    /**
+     * Returns the local name of a DOM node, falling back to the node name for
+     * nodes created without namespace support.
+     * @param node the node.
+     * @return the local name.
+     */
+    static String localName(Node node) {
+        String localName = node.getLocalName();
+        if (localName == null) {
+            return node.getNodeName();
+        }
+
+        return localName;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+}
@@ -0,0 +1,344 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Evaluates a forward-only XPath expression directly against an input stream,
+ * without building a DOM.
+ *
+ * Only expressions made of name tests joined by <code>/</code> and
+ * <code>//</code> are supported. Reading stops as soon as the answer is
+ * known, so the stream is left partially consumed, and it is never closed.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class StreamingXPath {
+
+    static {
+        try {
+
+            // Create the input factory
+            XMLInputFactory xif = XMLInputFactory.newInstance();
+            xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+            xif.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            xif.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            INPUT_FACTORY = xif;
+        } catch (Throwable t) {
+            throw new Error("Failed to initialize static variables.", t);
+        }
+    }
+
+    /**
+     * A reusable {@link XMLInputFactory}, instantiated at class load. Also used by {@link JSONConverter}.
+     */
+    static final XMLInputFactory INPUT_FACTORY;
+
+    /**
+     * The compiled path.
+     */
+    private final SimplePath path;
+
+    /**
+     * Compiles a forward-only XPath expression.
+     * @param expression the XPath expression.
+     * @throws XPathExpressionException if the expression isn't a forward-only path.
+     */
+    public StreamingXPath(String expression) throws XPathExpressionException {
+        path = SimplePath.parse(expression);
+
+        if (path == null) {
+            throw new XPathExpressionException("Not a forward-only path: " + expression);
+        }
+    }
+
+    /**
+     * Returns true if the expression selects at least one element.
+     * @param in the XML input.
+     * @return true if an element matched.
+     * @throws XMLStreamException if the input cannot be parsed.
+     */
+    public boolean exists(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            return find(reader, null);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Gets the text content of the first element selected, like {@link XMLElement#getValue()}.
+     * @param in the XML input.
+     * @return the first element's text content, or null if nothing matched.
+     * @throws XMLStreamException if the input cannot be parsed.
+     */
+    public String firstValue(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            if (!find(reader, null)) {
+                return null;
+            }
+
+            // Append the direct text children of the element
+            StringBuilder value = new StringBuilder();
+            int depth = 1;
+            while (depth > 0) {
+                switch (reader.next()) {
+                    case XMLStreamReader.START_ELEMENT:
+                        depth++;
+                        break;
+                    case XMLStreamReader.END_ELEMENT:
+                        depth--;
+                        break;
+                    case XMLStreamReader.CHARACTERS:
+                    case XMLStreamReader.CDATA:
+                    case XMLStreamReader.SPACE:
+                        if (depth == 1) {
+                            value.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            return value.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the subtree of the first element selected into a new document.
+     *
+     * Namespaces declared on the element's ancestors are redeclared on the new
+     * document element.
+     * @param in the XML input.
+     * @return the first element, as the root of a new document, or null if nothing matched.
+     * @throws XMLStreamException if the input cannot be parsed.
+     */
+    public XMLElement firstElement(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            List<String[]> namespaces = new ArrayList<String[]>();
+            if (!find(reader, namespaces)) {
+                return null;
+            }
+
+            Document document = XML.newDocument();
+
+            // Create the root, with every namespace in scope, nearest declarations first
+            Element root = createElement(document, reader);
+            for (int i = namespaces.size() - 1; i >= 0; i--) {
+                String name = xmlnsName(namespaces.get(i)[0]);
+                if (!root.hasAttribute(name)) {
+                    root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, namespaces.get(i)[1]);
+                }
+            }
+            document.appendChild(root);
+
+            // Build the rest of the subtree
+            Node parent = root;
+            while (parent != document) {
+                switch (reader.next()) {
+                    case XMLStreamReader.START_ELEMENT:
+                        Element child = createElement(document, reader);
+                        parent.appendChild(child);
+                        parent = child;
+                        break;
+                    case XMLStreamReader.END_ELEMENT:
+                        parent = parent.getParentNode();
+                        break;
+                    case XMLStreamReader.CHARACTERS:
+                    case XMLStreamReader.SPACE:
+                        parent.appendChild(document.createTextNode(reader.getText()));
+                        break;
+                    case XMLStreamReader.CDATA:
+                        parent.appendChild(document.createCDATASection(reader.getText()));
+                        break;
+                    case XMLStreamReader.COMMENT:
+                        parent.appendChild(document.createComment(reader.getText()));
+                        break;
+                    case XMLStreamReader.PROCESSING_INSTRUCTION:
+                        parent.appendChild(document.createProcessingInstruction(reader.getPITarget(),
+                                                                                reader.getPIData()));
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            return new XMLElement(root);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Advances a reader to the start of the first element selected.
+     * @param reader the reader.
+     * @param namespaces if not null, receives the namespace declarations of the element's ancestors.
+     * @return true if an element matched, false at the end of the document.
+     * @throws XMLStreamException if the input cannot be parsed.
+     */
+    private boolean find(XMLStreamReader reader, List<String[]> namespaces) throws XMLStreamException {
+        PathMatcher matcher = new PathMatcher(path);
+
+        // The number of namespaces declared by each open element
+        List<Integer> declared = new ArrayList<Integer>();
+
+        // The depth inside a subtree that cannot match
+        int skipping = 0;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamReader.START_ELEMENT:
+                    if (skipping > 0) {
+                        skipping++;
+                        break;
+                    }
+
+                    if (matcher.push(reader.getNamespaceURI(), reader.getLocalName())) {
+                        return true;
+                    }
+
+                    if (!matcher.isActive()) {
+                        skipping = 1;
+                    } else if (namespaces != null) {
+
+                        // Remember the element's namespace declarations
+                        int count = reader.getNamespaceCount();
+                        for (int i = 0; i < count; i++) {
+                            namespaces.add(new String[] {reader.getNamespacePrefix(i), reader.getNamespaceURI(i)});
+                        }
+                        declared.add(count);
+                    }
+                    break;
+
+                case XMLStreamReader.END_ELEMENT:
+                    if (skipping > 0) {
+                        skipping--;
+                        if (skipping > 0) {
+                            break;
+                        }
+                    } else if (namespaces != null) {
+
+                        // Forget the element's namespace declarations
+                        int count = declared.remove(declared.size() - 1);
+                        for (int i = 0; i < count; i++) {
+                            namespaces.remove(namespaces.size() - 1);
+                        }
+                    }
+
+                    matcher.pop();
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Creates an element from the reader's current start element event.
+     * @param document the owner document.
+     * @param reader the reader, positioned on a start element.
+     * @return the new element, with its attributes and namespace declarations.
+     */
+    private static Element createElement(Document document, XMLStreamReader reader) {
+        Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                                                   qualifiedName(reader.getPrefix(), reader.getLocalName()));
+
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                                   xmlnsName(reader.getNamespacePrefix(i)),
+                                   reader.getNamespaceURI(i));
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                                   qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                                   reader.getAttributeValue(i));
+        }
+
+        return element;
+    }
+
+    /**
+     * Builds a qualified name.
+     * @param prefix the prefix, possibly null or empty.
+     * @param localName the local name.
+     * @return the qualified name.
+     */
+    private static String qualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) {
+            return localName;
+        }
+
+        return prefix + ":" + localName;
+    }
+
+    /**
+     * Builds the name of a namespace declaration attribute.
+     * @param prefix the declared prefix, null or empty for the default namespace.
+     * @return the attribute name.
+     */
+    private static String xmlnsName(String prefix) {
+        if (prefix == null || prefix.length() == 0) {
+            return XMLConstants.XMLNS_ATTRIBUTE;
+        }
+
+        return XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+    }
+
+    /**
+     * Converts empty strings to null.
+     * @param value the value.
+     * @return the value, or null if it was empty.
+     */
+    private static String emptyToNull(String value) {
+        if (value == null || value.length() == 0) {
+            return null;
+        }
+
+        return value;
+    }
+
+}
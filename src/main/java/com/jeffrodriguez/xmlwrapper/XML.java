@@ -26,22 +26,40 @@
 package com.jeffrodriguez.xmlwrapper;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.validation.Validator;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
+import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -55,53 +73,108 @@ public class XML implements Cloneable {
     static {
         try {
 
-            // Create the document builder
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            dbf.setNamespaceAware(true);
-            DOCUMENT_BUILDER = dbf.newDocumentBuilder();
+            // Create the document builder pools, which also checks that every profile is supported
+            Map<ParserProfile, Pool<DocumentBuilder>> builders =
+                    new EnumMap<ParserProfile, Pool<DocumentBuilder>>(ParserProfile.class);
+            for (ParserProfile profile : ParserProfile.values()) {
+                Pool<DocumentBuilder> pool = new Pool<DocumentBuilder>();
+                pool.offer(profile.newDocumentBuilder());
+                builders.put(profile, pool);
+            }
+            DOCUMENT_BUILDERS = builders;
+            DOM_IMPLEMENTATION = ParserProfile.DEFAULT.newDocumentBuilder().getDOMImplementation();
 
-            // Create the transformers
-            TransformerFactory tf = TransformerFactory.newInstance();
-            TRANSFORMER = tf.newTransformer();
-
-            Transformer tp = tf.newTransformer();
-            tp.setOutputProperty(OutputKeys.INDENT, "yes");
-            TRANSFORMER_PRETTY = tp;
-
-            // Create XPath
-            XPathFactory xpf = XPathFactory.newInstance();
-            XPATH = xpf.newXPath();
+            // Create the factories
+            TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+            XPATH_FACTORY = XPathFactory.newInstance();
         } catch (Throwable t) {
             throw new Error("Failed to initialize static variables.", t);
         }
     }
 
     /**
-     * A reusable {@link DocumentBuilder}, instantiated at class load.
+     * Idle {@link DocumentBuilder}s for each {@link ParserProfile}.
      */
-    private static final DocumentBuilder DOCUMENT_BUILDER;
+    private static final Map<ParserProfile, Pool<DocumentBuilder>> DOCUMENT_BUILDERS;
 
     /**
-     * A reusable {@link Transformer}, instantiated at class load.
-     *
-     * Transforms XML in a pretty (indented) manner.
+     * Creates empty documents. Unlike document builders, it's thread-safe.
+     */
+    private static final DOMImplementation DOM_IMPLEMENTATION;
+
+    /**
+     * Creates transformers, guarded by {@link #FACTORY_LOCK}.
+     */
+    private static final TransformerFactory TRANSFORMER_FACTORY;
+
+    /**
+     * Creates {@link XPath}s, guarded by {@link #FACTORY_LOCK}.
      */
-    private static final Transformer TRANSFORMER_PRETTY;
+    private static final XPathFactory XPATH_FACTORY;
 
     /**
-     * A reusable {@link Transformer}, instantiated at class load.
+     * Guards the factories, which aren't thread-safe. Only held to create pooled objects.
      */
-    private static final Transformer TRANSFORMER;
+    private static final Lock FACTORY_LOCK = new ReentrantLock();
 
     /**
-     * A reusable {@link XPath}, instantiated at class load.
+     * Idle {@link Transformer}s.
      */
-    private static final XPath XPATH;
+    private static final Pool<Transformer> TRANSFORMERS = new Pool<Transformer>();
+
+    /**
+     * Idle {@link Transformer}s that indent their output.
+     */
+    private static final Pool<Transformer> PRETTY_TRANSFORMERS = new Pool<Transformer>();
+
+    /**
+     * Idle {@link Transformer}s for single nodes, without an XML declaration.
+     */
+    private static final Pool<Transformer> FRAGMENT_TRANSFORMERS = new Pool<Transformer>();
+
+    /**
+     * Idle {@link XPath}s.
+     */
+    private static final Pool<XPath> XPATHS = new Pool<XPath>();
+
+    /**
+     * The maximum number of XPath expressions whose compilations are kept for reuse.
+     */
+    private static final int MAX_EXPRESSIONS = 256;
+
+    /**
+     * Idle compilations of XPath expressions by source, least recently used
+     * first, guarded by {@link #EXPRESSIONS_LOCK}.
+     */
+    private static final Map<String, Pool<XPathExpression>> EXPRESSIONS =
+            new LinkedHashMap<String, Pool<XPathExpression>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Pool<XPathExpression>> eldest) {
+                    return size() > MAX_EXPRESSIONS;
+                }
+            };
+
+    /**
+     * Guards {@link #EXPRESSIONS}. Only held to look up a pool, never while compiling.
+     */
+    private static final Lock EXPRESSIONS_LOCK = new ReentrantLock();
+
+    /**
+     * The installed instrumentation.
+     */
+    private static volatile Instrumentation instrumentation = Instrumentation.NONE;
 
     /**
      * The wrapped document.
      */
-    private Document document;
+    private final Document document;
+
+    /**
+     * The canonical wrappers of the document's elements, or null if disabled.
+     */
+    private CanonicalElement.Registry canonicalWrappers;
 
     /**
      * Creates a new Document.
@@ -109,12 +182,20 @@ public class XML implements Cloneable {
      * @return a new {@link XML} instance with a single root element.
      */
     public static XML create(String rootName) {
-        Document document = DOCUMENT_BUILDER.newDocument();
+        Document document = newDocument();
         Element root = document.createElement(rootName);
         document.appendChild(root);
         return new XML(document);
     }
 
+    /**
+     * Creates a new, empty Document.
+     * @return a new {@link Document}.
+     */
+    static Document newDocument() {
+        return DOM_IMPLEMENTATION.createDocument(null, null, null);
+    }
+
     /**
      * Parses an XML string.
      * @param xml the XML string to parse.
@@ -123,7 +204,317 @@ public class XML implements Cloneable {
      * @throws IOException if an IO error occurs.
      */
     public static XML parse(String xml) throws SAXException, IOException {
-        return new XML(DOCUMENT_BUILDER.parse(new InputSource(new StringReader(xml))));
+        return parse(xml, ParserProfile.DEFAULT);
+    }
+
+    /**
+     * Parses an XML string with a specific parser configuration.
+     * @param xml the XML string to parse.
+     * @param profile the parser configuration to use.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing, or the document is rejected by the profile.
+     * @throws IOException if an IO error occurs.
+     */
+    public static XML parse(String xml, ParserProfile profile) throws SAXException, IOException {
+        return parse(new InputSource(new StringReader(xml)), xml.length(), profile);
+    }
+
+    /**
+     * Parses an XML string, validating it against a schema in the same pass.
+     * @param xml the XML string to parse.
+     * @param schema the schema to validate against.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing, or the document is invalid.
+     * @throws IOException if an IO error occurs.
+     */
+    public static XML parse(String xml, SchemaRef schema) throws SAXException, IOException {
+        return parse(xml, ParserProfile.DEFAULT, schema);
+    }
+
+    /**
+     * Parses an XML string with a specific parser configuration, validating it
+     * against a schema in the same pass.
+     * @param xml the XML string to parse.
+     * @param profile the parser configuration to use.
+     * @param schema the schema to validate against.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing, or the document is invalid.
+     * @throws IOException if an IO error occurs.
+     */
+    public static XML parse(String xml, ParserProfile profile, SchemaRef schema) throws SAXException, IOException {
+        SchemaRef.CompiledSchema compiled = schema.compiled();
+        DocumentBuilder builder = compiled.borrowBuilder(profile);
+        try {
+            return parse(new InputSource(new StringReader(xml)), xml.length(), profile, builder);
+        } finally {
+            compiled.release(profile, builder);
+        }
+    }
+
+    /**
+     * Parses an XML stream.
+     * @param input the XML stream to parse, which isn't closed.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing.
+     * @throws IOException if an IO error occurs.
+     */
+    public static XML parse(InputStream input) throws SAXException, IOException {
+        return parse(input, ParserProfile.DEFAULT);
+    }
+
+    /**
+     * Parses an XML stream with a specific parser configuration.
+     *
+     * The encoding is detected from the byte order mark and the XML declaration.
+     * @param input the XML stream to parse, which isn't closed.
+     * @param profile the parser configuration to use.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing, or the document is rejected by the profile.
+     * @throws IOException if an IO error occurs.
+     */
+    public static XML parse(InputStream input, ParserProfile profile) throws SAXException, IOException {
+        InputSource source;
+        if (instrumentation == Instrumentation.NONE) {
+            source = new InputSource(input);
+        } else {
+            source = new InputSource(new CountingInputStream(input));
+        }
+
+        return parse(source, -1, profile);
+    }
+
+    /**
+     * Parses a compressed XML stream, decompressing it on the fly.
+     * @param input the compressed XML stream to parse, which isn't closed.
+     * @param profile the parser configuration to use.
+     * @param compression the compression format.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing, or the document is rejected by the profile.
+     * @throws IOException if an IO error occurs, or the stream isn't in the compression format.
+     */
+    public static XML parse(InputStream input, ParserProfile profile, Compression compression)
+            throws SAXException, IOException {
+        return parse(input, profile, compression, Compression.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Parses a compressed XML stream, decompressing it on the fly.
+     *
+     * The encoding is detected from the byte order mark and the XML declaration
+     * of the decompressed document.
+     * @param input the compressed XML stream to parse, which isn't closed.
+     * @param profile the parser configuration to use.
+     * @param compression the compression format.
+     * @param bufferSize the size of the decompressor's buffer, in bytes.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing, or the document is rejected by the profile.
+     * @throws IOException if an IO error occurs, or the stream isn't in the compression format.
+     */
+    public static XML parse(InputStream input, ParserProfile profile, Compression compression, int bufferSize)
+            throws SAXException, IOException {
+        InputStream decompressed = compression.decompress(input, bufferSize);
+        try {
+            return parse(decompressed, profile);
+        } finally {
+            decompressed.close();
+        }
+    }
+
+    /**
+     * Parses an input source with a pooled document builder.
+     * @param source the XML input.
+     * @param length the length of the input for instrumentation, or -1 to take it from a counted byte stream.
+     * @param profile the parser configuration to use.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing.
+     * @throws IOException if an IO error occurs.
+     */
+    private static XML parse(InputSource source, long length, ParserProfile profile)
+            throws SAXException, IOException {
+        Pool<DocumentBuilder> pool = DOCUMENT_BUILDERS.get(profile);
+        DocumentBuilder builder = pool.poll();
+        if (builder == null) {
+            try {
+                builder = profile.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        try {
+            return parse(source, length, profile, builder);
+        } finally {
+            pool.offer(builder);
+        }
+    }
+
+    /**
+     * Parses an input source.
+     * @param source the XML input.
+     * @param length the length of the input for instrumentation, or -1 to take it from a counted byte stream.
+     * @param profile the parser configuration the builder was created with.
+     * @param builder the document builder.
+     * @return a new {@link XML} instance wrapping the parsed document.
+     * @throws SAXException if an exception occurs during XML parsing.
+     * @throws IOException if an IO error occurs.
+     */
+    private static XML parse(InputSource source, long length, ParserProfile profile, DocumentBuilder builder)
+            throws SAXException, IOException {
+        Instrumentation instruments = instrumentation;
+        long start = 0;
+        if (instruments != Instrumentation.NONE) {
+            start = System.nanoTime();
+        }
+
+        Document document = builder.parse(source);
+
+        if (profile.isStrippingWhitespace()) {
+            stripWhitespace(document);
+        }
+
+        if (instruments != Instrumentation.NONE) {
+            long inputLength = length;
+            if (source.getByteStream() instanceof CountingInputStream) {
+                inputLength = ((CountingInputStream) source.getByteStream()).getCount();
+            }
+            reportParse(instruments, document, System.nanoTime() - start, inputLength);
+        }
+
+        return new XML(document);
+    }
+
+    /**
+     * Reports a parsed document to the instrumentation.
+     * @param instruments the instrumentation.
+     * @param document the parsed document.
+     * @param nanos the time spent parsing.
+     * @param length the length of the input.
+     */
+    static void reportParse(Instrumentation instruments, Document document, long nanos, long length) {
+        long nodes = -1;
+        if (instruments.isCountingNodes()) {
+            nodes = countNodes(document);
+        }
+        instruments.parsed(nanos, length, nodes);
+    }
+
+    /**
+     * Counts the nodes of a tree, attributes included.
+     * @param root the root of the tree.
+     * @return the number of nodes, the root included.
+     */
+    private static long countNodes(Node root) {
+        long count = 0;
+        Node node = root;
+
+        while (node != null) {
+            count++;
+            if (node.getAttributes() != null) {
+                count += node.getAttributes().getLength();
+            }
+
+            // Move to the next node in document order
+            Node next = node.getFirstChild();
+            while (next == null && node != root) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+
+        return count;
+    }
+
+    /**
+     * Expands every lazily built node of a tree, attributes included, so
+     * that reading the tree afterwards never writes to it.
+     * @param root the root of the tree, which no other thread may be using.
+     * @return the number of nodes, attributes and the root included.
+     */
+    static long expand(Node root) {
+        long count = 0;
+        Node node = root;
+
+        while (node != null) {
+            count++;
+            NamedNodeMap attributes = node.getAttributes();
+            if (attributes != null) {
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    attributes.item(i).getFirstChild();
+                }
+                count += attributes.getLength();
+            }
+
+            // Move to the next node in document order
+            Node next = node.getFirstChild();
+            while (next == null && node != root) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+
+        return count;
+    }
+
+    /**
+     * Removes every whitespace-only text node from a tree, in one pass.
+     * @param root the root of the tree.
+     */
+    private static void stripWhitespace(Node root) {
+        Node node = root.getFirstChild();
+
+        while (node != null) {
+
+            // Descend into elements
+            if (node.getNodeType() == Node.ELEMENT_NODE && node.getFirstChild() != null) {
+                node = node.getFirstChild();
+                continue;
+            }
+
+            // Find the next node before removing this one
+            Node next = node;
+            while (next != root && next.getNextSibling() == null) {
+                next = next.getParentNode();
+            }
+            if (next != root) {
+                next = next.getNextSibling();
+            }
+
+            if (node.getNodeType() == Node.TEXT_NODE && isWhitespace(node.getNodeValue())) {
+                node.getParentNode().removeChild(node);
+            }
+
+            if (next == root) {
+                return;
+            }
+            node = next;
+        }
+    }
+
+    /**
+     * Returns true if a string is made only of XML whitespace.
+     * @param text the string to check.
+     * @return true if the string contains only spaces, tabs, carriage returns and line feeds.
+     */
+    static boolean isWhitespace(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            switch (text.charAt(i)) {
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                    break;
+                default:
+                    return false;
+            }
+        }
+
+        return true;
     }
 
     /**
@@ -141,6 +532,22 @@ public class XML implements Cloneable {
         return document;
     }
 
+    /**
+     * Validates the document against a schema.
+     * @param schema the schema to validate against.
+     * @throws SAXException if the document is invalid, or the schema cannot be compiled.
+     * @throws IOException if an IO error occurs.
+     */
+    public void validate(SchemaRef schema) throws SAXException, IOException {
+        SchemaRef.CompiledSchema compiled = schema.compiled();
+        Validator validator = compiled.borrowValidator();
+        try {
+            validator.validate(new DOMSource(document));
+        } finally {
+            compiled.release(validator);
+        }
+    }
+
     /**
      * Evaluates an XPath expression.
      * @param expression the XPath expression.
@@ -150,14 +557,323 @@ public class XML implements Cloneable {
     public Iterable<XMLElement> xpathElements(String expression) throws XPathExpressionException {
 
         // Get a node list from the XPATH expression
-        final NodeList nodes = (NodeList) XML.XPATH
-                                             .compile(expression)
-                                             .evaluate(document, XPathConstants.NODESET);
+        final NodeList nodes = (NodeList) evaluate(expression, document, XPathConstants.NODESET);
 
         // Return the iterable
         NodeListIterator<Element> nodeListIterator = new NodeListIterator(nodes);
 
-        return new XMLElementIterator(nodeListIterator).toIterable();
+        return new XMLElementIterator(nodeListIterator, getRoot()).toIterable();
+    }
+
+    /**
+     * Evaluates an XPath expression into a snapshot of the elements selected.
+     *
+     * The list is read-only and indexed, so its streams can be split for
+     * parallel processing; evaluate it on a {@link #freeze() frozen} document
+     * to read the elements from several threads.
+     * @param expression the XPath expression.
+     * @return the {@link XMLElement}s, in document order.
+     * @throws XPathExpressionException If expression cannot be compiled, or selects a node that isn't an element.
+     */
+    public List<XMLElement> xpathList(String expression) throws XPathExpressionException {
+        NodeList nodes = (NodeList) evaluate(expression, document, XPathConstants.NODESET);
+
+        try {
+            return ElementList.of(nodes, getRoot());
+        } catch (IllegalArgumentException e) {
+            throw new XPathExpressionException("Expression did not select only elements: " + expression);
+        }
+    }
+
+    /**
+     * Evaluates an XPath expression, optionally yielding matches lazily.
+     *
+     * In lazy mode, expressions made only of name tests joined by <code>/</code>
+     * and <code>//</code> (e.g. <code>//item</code> or <code>/feed/entry</code>)
+     * are matched incrementally while walking the document, so breaking out of
+     * the loop early stops the walk. Lazy results are read-only. Other
+     * expressions are evaluated eagerly, as {@link #xpathElements(String)} does.
+     * @param expression the XPath expression.
+     * @param lazy true if matches should be found as the result is iterated.
+     * @return an {@link Iterable} over the {@link XMLElement}s.
+     * @throws XPathExpressionException If expression cannot be compiled.
+     */
+    public Iterable<XMLElement> xpathElements(String expression, boolean lazy) throws XPathExpressionException {
+        if (lazy) {
+            SimplePath path = SimplePath.parse(expression);
+            if (path != null) {
+                return new PathIterator(document, path, getRoot()).toIterable();
+            }
+        }
+
+        return xpathElements(expression);
+    }
+
+    /**
+     * Evaluates an XPath expression, returning only the first element selected.
+     *
+     * The document is walked only as far as the first match for the
+     * expressions supported by {@link #xpathElements(String, boolean)}.
+     * @param expression the XPath expression.
+     * @return the first {@link XMLElement} in document order, or null if nothing matched.
+     * @throws XPathExpressionException If expression cannot be compiled, or selects a node that isn't an element.
+     */
+    public XMLElement xpathFirst(String expression) throws XPathExpressionException {
+
+        // Walk the document until the first match
+        SimplePath path = SimplePath.parse(expression);
+        if (path != null) {
+            PathIterator iterator = new PathIterator(document, path, getRoot());
+            if (iterator.hasNext()) {
+                return iterator.next();
+            }
+            return null;
+        }
+
+        // Let XPath find a single node
+        Node node = (Node) evaluate(expression, document, XPathConstants.NODE);
+
+        if (node == null) {
+            return null;
+        }
+
+        if (!(node instanceof Element)) {
+            throw new XPathExpressionException("Expression did not select an element: " + expression);
+        }
+
+        return wrap((Element) node);
+    }
+
+    /**
+     * Counts the nodes selected by an XPath expression, without wrapping them.
+     * @param expression the XPath expression.
+     * @return the number of nodes selected.
+     * @throws XPathExpressionException If expression cannot be compiled, or doesn't select a node-set.
+     */
+    public int xpathCount(String expression) throws XPathExpressionException {
+
+        // Walk the document, counting matches
+        SimplePath path = SimplePath.parse(expression);
+        if (path != null) {
+            PathIterator iterator = new PathIterator(document, path, getRoot());
+
+            int count = 0;
+            while (iterator.hasNext()) {
+                iterator.nextElement();
+                count++;
+            }
+
+            return count;
+        }
+
+        // Let XPath count the nodes
+        Double count = (Double) evaluate("count(" + expression + ")", document, XPathConstants.NUMBER);
+
+        return count.intValue();
+    }
+
+    /**
+     * Evaluates an XPath expression as a string.
+     * @param expression the XPath expression.
+     * @return the string value of the result.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    public String xpathString(String expression) throws XPathExpressionException {
+        return xpathString(expression, document);
+    }
+
+    /**
+     * Evaluates an XPath expression as a number.
+     * @param expression the XPath expression.
+     * @return the numeric value of the result, NaN if it isn't a number.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    public double xpathNumber(String expression) throws XPathExpressionException {
+        return xpathNumber(expression, document);
+    }
+
+    /**
+     * Evaluates an XPath expression as a boolean.
+     * @param expression the XPath expression.
+     * @return the boolean value of the result.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    public boolean xpathBoolean(String expression) throws XPathExpressionException {
+        return xpathBoolean(expression, document);
+    }
+
+    /**
+     * Evaluates an XPath expression as a long.
+     *
+     * The string value of the result is parsed, so values beyond the precision of
+     * an XPath number are preserved.
+     * @param expression the XPath expression.
+     * @return the result, parsed as a long.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     * @throws NumberFormatException if the result isn't an integer.
+     */
+    public long xpathLong(String expression) throws XPathExpressionException {
+        return xpathLong(expression, document);
+    }
+
+    /**
+     * Evaluates an XPath expression as a string.
+     * @param expression the XPath expression.
+     * @param context the context node.
+     * @return the string value of the result.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    static String xpathString(String expression, Node context) throws XPathExpressionException {
+        return (String) evaluate(expression, context, XPathConstants.STRING);
+    }
+
+    /**
+     * Evaluates an XPath expression as a number.
+     * @param expression the XPath expression.
+     * @param context the context node.
+     * @return the numeric value of the result.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    static double xpathNumber(String expression, Node context) throws XPathExpressionException {
+        return (Double) evaluate(expression, context, XPathConstants.NUMBER);
+    }
+
+    /**
+     * Evaluates an XPath expression as a boolean.
+     * @param expression the XPath expression.
+     * @param context the context node.
+     * @return the boolean value of the result.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    static boolean xpathBoolean(String expression, Node context) throws XPathExpressionException {
+        return (Boolean) evaluate(expression, context, XPathConstants.BOOLEAN);
+    }
+
+    /**
+     * Evaluates an XPath expression as a long.
+     * @param expression the XPath expression.
+     * @param context the context node.
+     * @return the result, parsed as a long.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    static long xpathLong(String expression, Node context) throws XPathExpressionException {
+        return Long.parseLong(xpathString(expression, context).trim());
+    }
+
+    /**
+     * Compiles an XPath expression ahead of its use, keeping the compilation for reuse.
+     * @param expression the XPath expression.
+     * @throws XPathExpressionException If expression cannot be compiled.
+     */
+    static void compile(String expression) throws XPathExpressionException {
+        Pool<XPathExpression> pool = expressionPool(expression);
+        pool.offer(borrowExpression(expression, pool));
+    }
+
+    /**
+     * Gets the idle compilations of an XPath expression.
+     * @param expression the XPath expression.
+     * @return the pool of compilations.
+     */
+    private static Pool<XPathExpression> expressionPool(String expression) {
+        EXPRESSIONS_LOCK.lock();
+        try {
+            Pool<XPathExpression> pool = EXPRESSIONS.get(expression);
+            if (pool == null) {
+                pool = new Pool<XPathExpression>();
+                EXPRESSIONS.put(expression, pool);
+            }
+            return pool;
+        } finally {
+            EXPRESSIONS_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Takes a compilation of an XPath expression from its pool, compiling it if none is idle.
+     *
+     * Compiled expressions aren't thread-safe, so each is used by one caller at a time.
+     * @param expression the XPath expression.
+     * @param pool the idle compilations of the expression.
+     * @return the compiled expression, to be given back to the pool.
+     * @throws XPathExpressionException If expression cannot be compiled.
+     */
+    private static XPathExpression borrowExpression(String expression, Pool<XPathExpression> pool)
+            throws XPathExpressionException {
+        XPathExpression compiled = pool.poll();
+        if (compiled != null) {
+            return compiled;
+        }
+
+        XPath xpath = XPATHS.poll();
+        if (xpath == null) {
+            FACTORY_LOCK.lock();
+            try {
+                xpath = XPATH_FACTORY.newXPath();
+            } finally {
+                FACTORY_LOCK.unlock();
+            }
+        }
+
+        try {
+            Instrumentation instruments = instrumentation;
+            if (instruments == Instrumentation.NONE) {
+                return xpath.compile(expression);
+            }
+
+            long start = System.nanoTime();
+            compiled = xpath.compile(expression);
+            instruments.compiled(expression, System.nanoTime() - start);
+            return compiled;
+        } finally {
+            XPATHS.offer(xpath);
+        }
+    }
+
+    /**
+     * Evaluates an XPath expression.
+     * @param expression the XPath expression.
+     * @param context the context node.
+     * @param returnType the expected result type, one of the {@link XPathConstants}.
+     * @return the result.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    static Object evaluate(String expression, Node context, QName returnType) throws XPathExpressionException {
+        Pool<XPathExpression> pool = expressionPool(expression);
+        XPathExpression compiled = borrowExpression(expression, pool);
+
+        try {
+            Instrumentation instruments = instrumentation;
+            if (instruments == Instrumentation.NONE) {
+                return compiled.evaluate(context, returnType);
+            }
+
+            long start = System.nanoTime();
+            Object result = compiled.evaluate(context, returnType);
+            instruments.evaluated(expression, System.nanoTime() - start);
+            return result;
+        } finally {
+            pool.offer(compiled);
+        }
+    }
+
+    /**
+     * Installs an instrumentation, for all documents.
+     * @param instrumentation the instrumentation, or null for {@link Instrumentation#NONE}.
+     */
+    public static void setInstrumentation(Instrumentation instrumentation) {
+        if (instrumentation == null) {
+            XML.instrumentation = Instrumentation.NONE;
+        } else {
+            XML.instrumentation = instrumentation;
+        }
+    }
+
+    /**
+     * @return the installed instrumentation, {@link Instrumentation#NONE} by default.
+     */
+    public static Instrumentation getInstrumentation() {
+        return instrumentation;
     }
 
     /**
@@ -167,20 +883,378 @@ public class XML implements Cloneable {
      * @throws TransformerException If an unrecoverable error occurs during the course of the transformation.
      */
     public String toString(boolean pretty) throws TransformerException {
+        Instrumentation instruments = instrumentation;
+        long start = 0;
+        if (instruments != Instrumentation.NONE) {
+            start = System.nanoTime();
+        }
+
         StringWriter writer = new StringWriter();
+        write(document, writer, pretty);
+        String result = writer.toString();
+
+        if (instruments != Instrumentation.NONE) {
+            instruments.serialized(System.nanoTime() - start, result.length());
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the XML document to a writer.
+     * @param writer the writer, which isn't flushed or closed.
+     * @param pretty true if the document should be indented.
+     * @throws TransformerException If an unrecoverable error occurs during the course of the transformation.
+     * @throws IOException if the writer fails.
+     */
+    public void write(Writer writer, boolean pretty) throws TransformerException, IOException {
+        Instrumentation instruments = instrumentation;
+        if (instruments == Instrumentation.NONE) {
+            write(document, writer, pretty);
+            return;
+        }
+
+        long start = System.nanoTime();
+        CountingWriter counter = new CountingWriter(writer);
+        write(document, counter, pretty);
+        instruments.serialized(System.nanoTime() - start, counter.getCount());
+    }
+
+    /**
+     * Writes the XML document to a writer, serializing the children of the
+     * document element on several threads.
+     *
+     * The output is the same as {@link #write(Writer, boolean)}'s. Documents
+     * with a DOCTYPE, with comments or processing instructions outside the
+     * document element, or that are too small to be worth splitting, are
+     * written on the calling thread, and so are indented documents whose
+     * element holds text of its own, even whitespace, e.g. from a parsed
+     * indented document. The document must not be modified until
+     * this method returns.
+     * @param writer the writer, which isn't flushed or closed.
+     * @param pretty true if the document should be indented.
+     * @param executor the executor to serialize on, such as a <code>ForkJoinPool</code>.
+     * @throws TransformerException If an unrecoverable error occurs during the course of the transformation.
+     * @throws IOException if the writer fails, or the calling thread is interrupted.
+     */
+    public void write(Writer writer, boolean pretty, ExecutorService executor)
+            throws TransformerException, IOException {
+        Instrumentation instruments = instrumentation;
+        long start = 0;
+        if (instruments != Instrumentation.NONE) {
+            start = System.nanoTime();
+        }
+
+        long length = ParallelWriter.write(document, writer, pretty, executor, ParallelWriter.DEFAULT_GROUP_NODES);
+        if (length < 0) {
+            write(writer, pretty);
+        } else if (instruments != Instrumentation.NONE) {
+            instruments.serialized(System.nanoTime() - start, length);
+        }
+    }
+
+    /**
+     * Writes the XML document to a stream, compressing it on the fly.
+     * @param out the stream, which isn't closed.
+     * @param pretty true if the document should be indented.
+     * @param compression the compression format.
+     * @throws TransformerException If an unrecoverable error occurs during the course of the transformation.
+     * @throws IOException if the stream fails.
+     */
+    public void write(OutputStream out, boolean pretty, Compression compression)
+            throws TransformerException, IOException {
+        write(out, pretty, compression, Compression.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Writes the XML document to a stream, compressing it on the fly.
+     *
+     * The document is encoded as UTF-8, as its declaration says. Compressed
+     * data is complete and flushed when this method returns.
+     * @param out the stream, which isn't closed.
+     * @param pretty true if the document should be indented.
+     * @param compression the compression format.
+     * @param bufferSize the size of the compressor's buffer, in bytes.
+     * @throws TransformerException If an unrecoverable error occurs during the course of the transformation.
+     * @throws IOException if the stream fails.
+     */
+    public void write(OutputStream out, boolean pretty, Compression compression, int bufferSize)
+            throws TransformerException, IOException {
+        Instrumentation instruments = instrumentation;
+        long start = 0;
+        if (instruments != Instrumentation.NONE) {
+            start = System.nanoTime();
+        }
+
+        OutputStream compressed = compression.compress(out, bufferSize);
+        CountingOutputStream counter = null;
+        try {
+            StreamResult result;
+            if (instruments == Instrumentation.NONE) {
+                result = new StreamResult(compressed);
+            } else {
+                counter = new CountingOutputStream(compressed);
+                result = new StreamResult(counter);
+            }
+
+            if (pretty) {
+                transform(document, result, PRETTY_TRANSFORMERS);
+            } else {
+                transform(document, result, TRANSFORMERS);
+            }
+        } finally {
+            compressed.close();
+        }
+
+        if (counter != null) {
+            instruments.serialized(System.nanoTime() - start, counter.getCount());
+        }
+    }
+
+    /**
+     * Serializes a document with a pooled transformer.
+     * @param document the document.
+     * @param writer the writer to serialize to.
+     * @param pretty true if the document should be indented.
+     * @throws TransformerException If an unrecoverable error occurs during the course of the transformation.
+     */
+    static void write(Document document, Writer writer, boolean pretty) throws TransformerException {
         if (pretty) {
-            TRANSFORMER_PRETTY.transform(new DOMSource(document), new StreamResult(writer));
+            transform(document, new StreamResult(writer), PRETTY_TRANSFORMERS);
         } else {
-            TRANSFORMER.transform(new DOMSource(document), new StreamResult(writer));
+            transform(document, new StreamResult(writer), TRANSFORMERS);
         }
+    }
+
+    /**
+     * Formats a single node as a string, without an XML declaration.
+     * @param node the node.
+     * @return the node as a string.
+     * @throws TransformerException If an unrecoverable error occurs during the course of the transformation.
+     */
+    static String toString(Node node) throws TransformerException {
+        StringWriter writer = new StringWriter();
+        transform(node, new StreamResult(writer), FRAGMENT_TRANSFORMERS);
         return writer.toString();
     }
 
+    /**
+     * Serializes a node with a pooled transformer.
+     * @param node the node.
+     * @param result the writer or stream to serialize to.
+     * @param pool the idle transformers of the wanted configuration.
+     * @throws TransformerException If an unrecoverable error occurs during the course of the transformation.
+     */
+    private static void transform(Node node, StreamResult result, Pool<Transformer> pool)
+            throws TransformerException {
+        Transformer transformer = pool.poll();
+        if (transformer == null) {
+            FACTORY_LOCK.lock();
+            try {
+                transformer = TRANSFORMER_FACTORY.newTransformer();
+            } finally {
+                FACTORY_LOCK.unlock();
+            }
+
+            if (pool == PRETTY_TRANSFORMERS) {
+                transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            } else if (pool == FRAGMENT_TRANSFORMERS) {
+                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            }
+        }
+
+        try {
+            transformer.transform(new DOMSource(node), result);
+        } finally {
+            pool.offer(transformer);
+        }
+    }
+
     /**
      * @return the root document element.
      */
     public XMLElement getRoot() {
-        return new XMLElement(document.getDocumentElement());
+        return wrap(document.getDocumentElement());
+    }
+
+    /**
+     * Wraps an element of this document.
+     * @param element the element.
+     * @return the wrapper, of the kind used by this document.
+     */
+    XMLElement wrap(Element element) {
+        if (canonicalWrappers != null) {
+            return CanonicalElement.of(element, canonicalWrappers);
+        }
+        return new XMLElement(element);
+    }
+
+    /**
+     * Enables or disables canonical element wrappers for this document.
+     *
+     * When enabled, each element reached from this instance has a single
+     * {@link XMLElement} wrapper: navigating to an element that was reached
+     * before returns the same object rather than a new one, and
+     * <code>equals</code> is an identity check. Wrappers are weakly referenced,
+     * and kept by this instance rather than by the document, so this suits
+     * documents that are navigated repeatedly. Disabling the mode releases all
+     * the wrappers, and wrappers still held go back to creating new ones.
+     * Wrappers created with the {@link XMLElement} constructor are never
+     * canonical, and wrappers kept by another instance, even of the same
+     * document, aren't equal to these. The wrappers are looked up under a
+     * lock, so they add no restriction on sharing this instance.
+     * @param enabled true to keep one wrapper per element.
+     */
+    public void setCanonicalWrappers(boolean enabled) {
+        if (enabled && canonicalWrappers == null) {
+            canonicalWrappers = new CanonicalElement.Registry();
+        } else if (!enabled && canonicalWrappers != null) {
+            canonicalWrappers.release();
+            canonicalWrappers = null;
+        }
+    }
+
+    /**
+     * @return true if this document keeps one wrapper per element.
+     * @see #setCanonicalWrappers(boolean)
+     */
+    public boolean isCanonicalWrappers() {
+        return canonicalWrappers != null;
+    }
+
+    /**
+     * Appends the root element of another document to this document's root element.
+     * @param other the document to merge in.
+     * @param adopt true if the other document is disposable, in which case its
+     *        root is moved rather than copied, leaving it without a root element.
+     * @return the merged element, as part of this document.
+     * @see XMLElement#append(XMLElement, boolean)
+     */
+    public XMLElement merge(XML other, boolean adopt) {
+        return getRoot().append(other.getRoot(), adopt);
+    }
+
+    /**
+     * Computes the edits turning this document into another.
+     *
+     * Elements are matched by content and name rather than compared as text,
+     * so formatting, attribute order and namespace prefixes don't produce
+     * edits, and unchanged subtrees are skipped without being walked. Text
+     * is compared with leading and trailing whitespace trimmed. Moved
+     * elements show up as a removal and an insertion.
+     * @param other the target document.
+     * @return the edits, in the order they must be applied.
+     * @throws TransformerException If an inserted element can't be serialized.
+     */
+    public List<Edit> diff(XML other) throws TransformerException {
+        return XMLDiff.diff(document, other.document);
+    }
+
+    /**
+     * Applies edits to this document, in order.
+     *
+     * Edits are applied in place, so a failing edit leaves the ones before it
+     * applied. Element markup is parsed with {@link ParserProfile#FAST_UNTRUSTED}.
+     * @param edits the edits, as produced by {@link #diff(XML)} or {@link #stopChangeLog()}.
+     * @throws IllegalArgumentException if an edit doesn't fit the document.
+     * @throws SAXException If the markup of an inserted element can't be parsed.
+     * @throws IOException If the markup of an inserted element can't be read.
+     */
+    public void apply(List<Edit> edits) throws SAXException, IOException {
+        XMLPatch.apply(document, edits);
+    }
+
+    /**
+     * Starts recording the changes made to this document, discarding any previous record.
+     *
+     * Element insertions and removals, attributes and text set through
+     * {@link XMLElement} and its iterators, and edits applied with
+     * {@link #apply(List)}, are recorded as {@link Edit}s. Changes made
+     * directly to the DOM are not.
+     */
+    public void startChangeLog() {
+        ChangeLog.start(document);
+    }
+
+    /**
+     * Gets the changes recorded so far.
+     * @return the edits, in order, or an empty list if changes aren't being recorded.
+     */
+    public List<Edit> getChangeLog() {
+        ChangeLog log = ChangeLog.get(document);
+        if (log == null) {
+            return new ArrayList<Edit>();
+        }
+        return log.getEdits();
+    }
+
+    /**
+     * Stops recording the changes made to this document.
+     * @return the edits recorded, in order, or an empty list if changes weren't being recorded.
+     */
+    public List<Edit> stopChangeLog() {
+        ChangeLog log = ChangeLog.stop(document);
+        if (log == null) {
+            return new ArrayList<Edit>();
+        }
+        return log.getEdits();
+    }
+
+    /**
+     * Hashes the content of this document.
+     * @return the hash of the root element's content.
+     * @see XMLElement#contentHash()
+     */
+    public long contentHash() {
+        return getRoot().contentHash();
+    }
+
+    /**
+     * Compares the content of this document to another's.
+     * @param other the other document.
+     * @return true if both root elements have the same content.
+     * @see XMLElement#contentEquals(XMLElement)
+     */
+    public boolean contentEquals(XML other) {
+        return getRoot().contentEquals(other.getRoot());
+    }
+
+    /**
+     * Writes this document in canonical form.
+     * @param canonicalization the canonicalization algorithm.
+     * @param out the stream to write to. It isn't closed.
+     * @throws IOException If the stream can't be written.
+     * @see Canonicalization#write(Node, OutputStream)
+     */
+    public void canonicalize(Canonicalization canonicalization, OutputStream out) throws IOException {
+        canonicalization.write(document, out);
+    }
+
+    /**
+     * Computes the digest of this document in canonical form, in a single streaming pass.
+     * @param canonicalization the canonicalization algorithm.
+     * @param digest the digest to update.
+     * @return the digest.
+     * @see Canonicalization#digest(Node, MessageDigest)
+     */
+    public byte[] digest(Canonicalization canonicalization, MessageDigest digest) {
+        return canonicalization.digest(document, digest);
+    }
+
+    /**
+     * Takes a read-only snapshot of this document, which threads can share.
+     *
+     * DOM implementations aren't thread-safe even for reads, since nodes are
+     * expanded and node lists cached on first access. The snapshot is a copy
+     * that is built completely up front and never written to afterwards, so
+     * any number of threads can read it at once, through its elements, XPath
+     * or serialization, without copying it. Methods that would modify it
+     * throw {@link UnsupportedOperationException}, and its
+     * {@link #getDocument() document} must not be modified directly.
+     * @return the snapshot, unaffected by later changes to this document.
+     */
+    public XML freeze() {
+        return FrozenXML.of((Document) document.cloneNode(true));
     }
 
     /**
@@ -0,0 +1,480 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * A cache of parsed documents, keyed by a hash of their content.
+ *
+ * Documents are returned {@link XML#freeze() frozen}, and parsing the same
+ * content again returns the same instance, without parsing or copying it, to
+ * be shared by any number of threads. Callers that need to modify a document
+ * can {@link XML#clone() clone} it. Entries are evicted in least recently
+ * used order once the estimated size of the cached documents exceeds a limit.
+ *
+ * The cache is guarded by a {@link Lock} rather than monitors, so threads,
+ * virtual ones included, park rather than pin while waiting for it.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class XMLCache {
+
+    /**
+     * The estimated heap cost of a DOM node, in bytes.
+     */
+    private static final int NODE_SIZE = 64;
+
+    /**
+     * The digest algorithm used to key documents.
+     */
+    private static final String DIGEST = "SHA-256";
+
+    /**
+     * Starts the digest of a string, which is hashed as UTF-8.
+     */
+    private static final byte STRING = 0;
+
+    /**
+     * Starts the digest of bytes, which are parsed in the encoding they declare.
+     */
+    private static final byte BYTES = 1;
+
+    /**
+     * The maximum estimated size of the cached documents, in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The parser configuration used on misses.
+     */
+    private final ParserProfile profile;
+
+    /**
+     * Guards the entries and statistics.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * The cached documents, least recently used first.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    /**
+     * The estimated size of the cached documents, in bytes.
+     */
+    private long size;
+
+    /**
+     * The number of cache hits.
+     */
+    private long hits;
+
+    /**
+     * The number of cache misses.
+     */
+    private long misses;
+
+    /**
+     * The number of evicted documents.
+     */
+    private long evictions;
+
+    /**
+     * Creates a new {@link XMLCache}, parsing with the default profile.
+     * @param maxSize the maximum estimated size of the cached documents, in bytes.
+     */
+    public XMLCache(long maxSize) {
+        this(maxSize, ParserProfile.DEFAULT);
+    }
+
+    /**
+     * Creates a new {@link XMLCache}.
+     * @param maxSize the maximum estimated size of the cached documents, in bytes.
+     * @param profile the parser configuration used on misses.
+     */
+    public XMLCache(long maxSize, ParserProfile profile) {
+        this.maxSize = maxSize;
+        this.profile = profile;
+    }
+
+    /**
+     * Parses an XML string, or returns the document parsed from identical content.
+     * @param xml the XML string to parse.
+     * @return a read-only {@link XML} instance, possibly shared with other callers.
+     * @throws SAXException if an exception occurs during XML parsing.
+     * @throws IOException if an IO error occurs.
+     */
+    public XML parse(String xml) throws SAXException, IOException {
+        Key key;
+        try {
+            key = new Key(digest(STRING, xml.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported.", e);
+        }
+
+        XML cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Parse outside of the lock
+        return add(key, XML.parse(xml, profile));
+    }
+
+    /**
+     * Parses XML bytes, or returns the document parsed from identical bytes.
+     *
+     * The bytes are hashed as they are, without decoding them to a string
+     * first, and parsed in the encoding they declare. They never share an
+     * entry with a string, even one with the same characters.
+     * @param xml the XML bytes to parse.
+     * @return a read-only {@link XML} instance, possibly shared with other callers.
+     * @throws SAXException if an exception occurs during XML parsing.
+     * @throws IOException if an IO error occurs.
+     */
+    public XML parse(byte[] xml) throws SAXException, IOException {
+        Key key = new Key(digest(BYTES, xml));
+
+        XML cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Parse outside of the lock
+        return add(key, XML.parse(new ByteArrayInputStream(xml), profile));
+    }
+
+    /**
+     * Looks a document up, counting the hit or miss.
+     * @param key the content hash.
+     * @return the cached document, or null.
+     */
+    private XML get(Key key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry.xml;
+            }
+            misses++;
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Freezes a newly parsed document without copying it, and caches it if it fits.
+     * @param key the content hash.
+     * @param xml the document, which nothing else may use.
+     * @return the frozen document.
+     */
+    private XML add(Key key, XML xml) {
+        XML parsed = FrozenXML.of(xml.getDocument());
+        long estimate = estimateSize(parsed.getDocument());
+
+        if (estimate <= maxSize) {
+            put(key, new Entry(parsed, estimate));
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Adds a document to the cache, evicting others as needed.
+     * @param key the content hash.
+     * @param entry the document.
+     */
+    private void put(Key key, Entry entry) {
+        lock.lock();
+        try {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                size -= previous.size;
+            }
+            size += entry.size;
+
+            // Evict the least recently used documents
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                size -= iterator.next().size;
+                iterator.remove();
+                evictions++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes every document from the cache. Statistics are kept.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of cached documents.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the estimated size of the cached documents, in bytes.
+     */
+    public long getEstimatedSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the maximum estimated size of the cached documents, in bytes.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of parses answered from the cache.
+     */
+    public long getHitCount() {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of parses that had to parse their input.
+     */
+    public long getMissCount() {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of documents evicted to make room for others.
+     */
+    public long getEvictionCount() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the ratio of hits to parses, or zero before the first parse.
+     */
+    public double getHitRate() {
+        lock.lock();
+        try {
+            if (hits + misses == 0) {
+                return 0;
+            }
+
+            return (double) hits / (hits + misses);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "XMLCache[size=" + entries.size()
+                 + ", estimatedSize=" + size
+                 + ", maxSize=" + maxSize
+                 + ", hits=" + hits
+                 + ", misses=" + misses
+                 + ", evictions=" + evictions + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hashes XML content.
+     * @param kind {@link #STRING} or {@link #BYTES}, so the two never share a key.
+     * @param xml the content.
+     * @return the digest.
+     */
+    private static byte[] digest(byte kind, byte[] xml) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST);
+            digest.update(kind);
+            return digest.digest(xml);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST + " is not supported.", e);
+        }
+    }
+
+    /**
+     * Estimates the heap size of a frozen DOM tree, including the content
+     * hashes its elements get on first use.
+     * @param root the root of the tree.
+     * @return the estimated size, in bytes.
+     */
+    static long estimateSize(Node root) {
+        long estimate = 0;
+        int elements = 0;
+
+        Node node = root;
+        while (node != null) {
+            estimate += NODE_SIZE;
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                elements++;
+            }
+
+            // Count character data, and attributes
+            String value = node.getNodeValue();
+            if (value != null) {
+                estimate += 2L * value.length();
+            }
+            if (node.getAttributes() != null) {
+                for (int i = 0; i < node.getAttributes().getLength(); i++) {
+                    Node attribute = node.getAttributes().item(i);
+                    estimate += NODE_SIZE + 2L * attribute.getNodeValue().length();
+                }
+            }
+
+            // Move to the next node in document order
+            if (node.getFirstChild() != null) {
+                node = node.getFirstChild();
+            } else {
+                while (node != root && node.getNextSibling() == null) {
+                    node = node.getParentNode();
+                }
+                if (node == root) {
+                    node = null;
+                } else {
+                    node = node.getNextSibling();
+                }
+            }
+        }
+
+        return estimate + NodeHashes.estimateSize(elements);
+    }
+
+    /**
+     * A content hash.
+     */
+    private static class Key {
+
+        /**
+         * The digest.
+         */
+        private final byte[] digest;
+
+        /**
+         * The hash code of the digest.
+         */
+        private final int hash;
+
+        /**
+         * Creates a new {@link Key}.
+         * @param digest the digest.
+         */
+        Key(byte[] digest) {
+            this.digest = digest;
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(digest, ((Key) obj).digest);
+        }
+    }
+
+    /**
+     * A cached document.
+     */
+    private static class Entry {
+
+        /**
+         * The frozen document, shared by every caller.
+         */
+        private final XML xml;
+
+        /**
+         * The document's estimated size, in bytes.
+         */
+        private final long size;
+
+        /**
+         * Creates a new {@link Entry}.
+         * @param xml the document.
+         * @param size the document's estimated size, in bytes.
+         */
+        Entry(XML xml, long size) {
+            this.xml = xml;
+            this.size = size;
+        }
+    }
+
+}
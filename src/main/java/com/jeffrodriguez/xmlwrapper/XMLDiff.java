@@ -0,0 +1,418 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import javax.xml.transform.TransformerException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Computes an edit script between two documents.
+ *
+ * Every subtree of both documents is hashed once with {@link ContentHash}.
+ * Under each pair of matched elements, children with identical subtrees are
+ * paired first, the rest are paired by name, and pairs that would cross are
+ * dropped by taking the longest increasing subsequence. Identical subtrees are
+ * never descended into, so the cost is close to linear in the size of the
+ * documents.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class XMLDiff {
+
+    /**
+     * The hash of every element of both documents.
+     */
+    private final NodeHashes hashes = new NodeHashes();
+
+    /**
+     * The edits found so far.
+     */
+    private final List<Edit> edits = new ArrayList<Edit>();
+
+    /**
+     * Not instantiable outside {@link #diff(Document, Document)}.
+     */
+    private XMLDiff() {
+    }
+
+    /**
+     * Computes the edits turning one document into another.
+     * @param from the original document.
+     * @param to the target document.
+     * @return the edits, in the order they must be applied.
+     * @throws TransformerException If an inserted element can't be serialized.
+     */
+    static List<Edit> diff(Document from, Document to) throws TransformerException {
+        XMLDiff diff = new XMLDiff();
+        Element fromRoot = from.getDocumentElement();
+        Element toRoot = to.getDocumentElement();
+
+        String path = "/" + fromRoot.getNodeName() + "[1]";
+        if (!fromRoot.getNodeName().equals(toRoot.getNodeName())
+                || !equal(fromRoot.getNamespaceURI(), toRoot.getNamespaceURI())) {
+            diff.edits.add(Edit.replaceElement(path, XML.toString(toRoot)));
+            return diff.edits;
+        }
+
+        ContentHash.hash(fromRoot, diff.hashes);
+        ContentHash.hash(toRoot, diff.hashes);
+        diff.compare(path, fromRoot, toRoot);
+        return diff.edits;
+    }
+
+    /**
+     * Compares two elements with the same name.
+     * @param path the path of the element.
+     * @param from the original element.
+     * @param to the target element.
+     * @throws TransformerException If an inserted element can't be serialized.
+     */
+    private void compare(String path, Element from, Element to) throws TransformerException {
+        if (hashes.get(from) == hashes.get(to)) {
+            return;
+        }
+
+        compareAttributes(path, from, to);
+        compareChildren(path, from, to);
+    }
+
+    /**
+     * Compares the attributes of two elements.
+     * @param path the path of the element.
+     * @param from the original element.
+     * @param to the target element.
+     */
+    private void compareAttributes(String path, Element from, Element to) {
+        NamedNodeMap fromAttributes = from.getAttributes();
+        NamedNodeMap toAttributes = to.getAttributes();
+
+        for (int i = 0; i < fromAttributes.getLength(); i++) {
+            Node attribute = fromAttributes.item(i);
+            String name = attribute.getNodeName();
+            if (!ContentHash.isNamespaceDeclaration(name) && toAttributes.getNamedItem(name) == null) {
+                edits.add(Edit.removeAttribute(path, name));
+            }
+        }
+
+        for (int i = 0; i < toAttributes.getLength(); i++) {
+            Node attribute = toAttributes.item(i);
+            String name = attribute.getNodeName();
+            if (!ContentHash.isNamespaceDeclaration(name)) {
+                Node original = fromAttributes.getNamedItem(name);
+                if (original == null || !original.getNodeValue().equals(attribute.getNodeValue())) {
+                    edits.add(Edit.setAttribute(path, name, attribute.getNodeValue()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the child elements of two elements, and the text around them.
+     * @param path the path of the parent element.
+     * @param from the original parent.
+     * @param to the target parent.
+     * @throws TransformerException If an inserted element can't be serialized.
+     */
+    private void compareChildren(String path, Element from, Element to) throws TransformerException {
+        List<Element> fromChildren = children(from);
+        List<Element> toChildren = children(to);
+
+        // Pair identical subtrees, each with the first unpaired candidate
+        int[] pairs = new int[toChildren.size()];
+        Arrays.fill(pairs, -1);
+        boolean[] paired = new boolean[fromChildren.size()];
+
+        Map<Long, LinkedList<Integer>> byHash = new HashMap<Long, LinkedList<Integer>>();
+        for (int i = 0; i < fromChildren.size(); i++) {
+            Long hash = hashes.get(fromChildren.get(i));
+            LinkedList<Integer> candidates = byHash.get(hash);
+            if (candidates == null) {
+                candidates = new LinkedList<Integer>();
+                byHash.put(hash, candidates);
+            }
+            candidates.add(i);
+        }
+
+        for (int j = 0; j < toChildren.size(); j++) {
+            LinkedList<Integer> candidates = byHash.get(hashes.get(toChildren.get(j)));
+            if (candidates != null && !candidates.isEmpty()) {
+                int i = candidates.removeFirst();
+                pairs[j] = i;
+                paired[i] = true;
+            }
+        }
+
+        // Pair the remaining children by namespace and local name
+        Map<String, LinkedList<Integer>> byName = new HashMap<String, LinkedList<Integer>>();
+        for (int i = 0; i < fromChildren.size(); i++) {
+            if (!paired[i]) {
+                String name = expandedName(fromChildren.get(i));
+                LinkedList<Integer> candidates = byName.get(name);
+                if (candidates == null) {
+                    candidates = new LinkedList<Integer>();
+                    byName.put(name, candidates);
+                }
+                candidates.add(i);
+            }
+        }
+
+        for (int j = 0; j < toChildren.size(); j++) {
+            if (pairs[j] < 0) {
+                LinkedList<Integer> candidates = byName.get(expandedName(toChildren.get(j)));
+                if (candidates != null && !candidates.isEmpty()) {
+                    int i = candidates.removeFirst();
+                    pairs[j] = i;
+                    paired[i] = true;
+                }
+            }
+        }
+
+        // Drop the pairs that would require moving elements
+        keepIncreasing(pairs, paired);
+
+        // Remove unpaired children, last first so that earlier paths stay valid
+        int[] fromIndexes = siblingIndexes(fromChildren);
+        for (int i = fromChildren.size() - 1; i >= 0; i--) {
+            if (!paired[i]) {
+                edits.add(Edit.removeElement(childPath(path, fromChildren.get(i), fromIndexes[i])));
+            }
+        }
+
+        // Insert new children, first first so that positions are final
+        for (int j = 0; j < toChildren.size(); j++) {
+            if (pairs[j] < 0) {
+                edits.add(Edit.insertElement(path, j, XML.toString(toChildren.get(j))));
+            }
+        }
+
+        // The children are now the kept originals, named as in the document
+        // being patched, and the inserted targets
+        List<Element> patched = new ArrayList<Element>(toChildren.size());
+        for (int j = 0; j < toChildren.size(); j++) {
+            patched.add(pairs[j] >= 0 ? fromChildren.get(pairs[j]) : toChildren.get(j));
+        }
+
+        compareText(path, from, fromChildren, paired, to, pairs);
+
+        // Descend into the pairs
+        int[] patchedIndexes = siblingIndexes(patched);
+        for (int j = 0; j < toChildren.size(); j++) {
+            if (pairs[j] >= 0) {
+                Element child = patched.get(j);
+                compare(childPath(path, child, patchedIndexes[j]), child, toChildren.get(j));
+            }
+        }
+    }
+
+    /**
+     * Compares the text of two elements, once the child elements of the
+     * original have been removed and inserted to match the target.
+     *
+     * The text of an element without child elements is set as a whole, and
+     * trimmed. Other elements have their text set between child elements,
+     * exactly, where it differs.
+     * @param path the path of the element.
+     * @param from the original element.
+     * @param fromChildren the child elements of the original.
+     * @param paired whether each original child element is kept.
+     * @param to the target element.
+     * @param pairs the original child element kept at each target position, or -1.
+     */
+    private void compareText(String path, Element from, List<Element> fromChildren, boolean[] paired,
+            Element to, int[] pairs) {
+        if (pairs.length == 0) {
+            String text = ContentHash.text(to);
+            if (!ContentHash.text(from).equals(text)) {
+                edits.add(Edit.setText(path, text));
+            }
+            return;
+        }
+
+        // Removing an element joins the text around it
+        List<String> fromRuns = ContentHash.runs(from);
+        List<String> kept = new ArrayList<String>();
+        StringBuilder run = new StringBuilder(fromRuns.get(0));
+        for (int i = 0; i < fromChildren.size(); i++) {
+            if (paired[i]) {
+                kept.add(run.toString());
+                run.setLength(0);
+            }
+            run.append(fromRuns.get(i + 1));
+        }
+        kept.add(run.toString());
+
+        // Inserted elements go right before the element at their position, so the
+        // text before a kept element ends up before the elements inserted ahead of it
+        List<String> toRuns = ContentHash.runs(to);
+        int next = 0;
+        boolean afterKept = true;
+        for (int j = 0; j <= pairs.length; j++) {
+            String current = afterKept ? kept.get(next) : "";
+            if (!current.equals(toRuns.get(j))) {
+                edits.add(Edit.setText(path, j, toRuns.get(j)));
+            }
+
+            if (j < pairs.length) {
+                afterKept = pairs[j] >= 0;
+                if (afterKept) {
+                    next++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the longest set of pairs whose original positions increase with
+     * their target positions, unpairing the others.
+     * @param pairs the original position paired with each target position, or -1.
+     * @param paired whether each original position is paired.
+     */
+    private static void keepIncreasing(int[] pairs, boolean[] paired) {
+
+        // Patience sorting: tails[k] is the target position ending the best run of length k + 1
+        int[] tails = new int[pairs.length];
+        int[] previous = new int[pairs.length];
+        int length = 0;
+
+        for (int j = 0; j < pairs.length; j++) {
+            if (pairs[j] >= 0) {
+                int low = 0;
+                int high = length;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (pairs[tails[middle]] < pairs[j]) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+
+                if (low > 0) {
+                    previous[j] = tails[low - 1];
+                } else {
+                    previous[j] = -1;
+                }
+                tails[low] = j;
+                if (low == length) {
+                    length++;
+                }
+            }
+        }
+
+        // Mark the pairs to keep, walking back from the end of the best run
+        boolean[] keep = new boolean[pairs.length];
+        if (length > 0) {
+            for (int j = tails[length - 1]; j >= 0; j = previous[j]) {
+                keep[j] = true;
+            }
+        }
+
+        for (int j = 0; j < pairs.length; j++) {
+            if (pairs[j] >= 0 && !keep[j]) {
+                paired[pairs[j]] = false;
+                pairs[j] = -1;
+            }
+        }
+    }
+
+    /**
+     * Lists the child elements of an element.
+     * @param element the element.
+     * @return its child elements, in order.
+     */
+    private static List<Element> children(Element element) {
+        List<Element> children = new ArrayList<Element>();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) child);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Numbers each element among the preceding elements with the same name.
+     * @param elements sibling elements, in order.
+     * @return the index of each element among its namesakes, from 1.
+     */
+    private static int[] siblingIndexes(List<Element> elements) {
+        int[] indexes = new int[elements.size()];
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < indexes.length; i++) {
+            String name = elements.get(i).getNodeName();
+            Integer count = counts.get(name);
+            if (count == null) {
+                indexes[i] = 1;
+            } else {
+                indexes[i] = count + 1;
+            }
+            counts.put(name, indexes[i]);
+        }
+        return indexes;
+    }
+
+    /**
+     * Gets the name of an element as the hash sees it.
+     * @param element the element.
+     * @return the namespace URI and local name.
+     */
+    private static String expandedName(Element element) {
+        return "{" + element.getNamespaceURI() + "}" + SimplePath.localName(element);
+    }
+
+    /**
+     * Builds the path of a child element.
+     * @param path the path of the parent.
+     * @param child the child element.
+     * @param index the index of the child among its namesakes, from 1.
+     * @return the path of the child.
+     */
+    private static String childPath(String path, Element child, int index) {
+        return path + "/" + child.getNodeName() + "[" + index + "]";
+    }
+
+    /**
+     * Compares two possibly null strings.
+     * @param a a string.
+     * @param b another string.
+     * @return true if both are null or equal.
+     */
+    private static boolean equal(String a, String b) {
+        if (a == null) {
+            return b == null;
+        }
+        return a.equals(b);
+    }
+
+}
@@ -25,10 +25,19 @@
  */
 package com.jeffrodriguez.xmlwrapper;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
 
 /**
  * An {@link Element} wrapping utility class.
@@ -60,7 +69,16 @@ public class XMLElement {
      * @return the parent of this element.
      */
     public XMLElement getParent() {
-        return new XMLElement((Element) element.getParentNode());
+        return wrap((Element) element.getParentNode());
+    }
+
+    /**
+     * Wraps an element reached from this one, such as a child or the parent.
+     * @param other the element.
+     * @return the wrapper, of the same kind as this one.
+     */
+    XMLElement wrap(Element other) {
+        return new XMLElement(other);
     }
 
     /**
@@ -79,7 +97,80 @@ public class XMLElement {
     public XMLElement addChild(String name) {
         Element child = element.getOwnerDocument().createElement(name);
         element.appendChild(child);
-        return new XMLElement(child);
+
+        ChangeLog log = ChangeLog.get(element);
+        if (log != null) {
+            log.recordInsert(child);
+        }
+
+        return wrap(child);
+    }
+
+    /**
+     * Appends an existing element to this one.
+     *
+     * Elements of this document are moved. Elements of other documents are
+     * copied, leaving their document untouched.
+     * @param child the element to append.
+     * @return the appended element, as part of this document.
+     */
+    public XMLElement append(XMLElement child) {
+        return append(child, false);
+    }
+
+    /**
+     * Appends an existing element to this one.
+     *
+     * Elements of this document are moved. Elements of other documents are
+     * adopted if <code>adopt</code> is true, which moves them to this document
+     * without copying anything, but removes them from their original document.
+     * Otherwise they're deep-copied, leaving their document untouched.
+     * @param child the element to append.
+     * @param adopt true if an element of another document can be taken from it.
+     * @return the appended element, as part of this document.
+     */
+    public XMLElement append(XMLElement child, boolean adopt) {
+        Document document = element.getOwnerDocument();
+        Node node = child.getElement();
+
+        // Moving an element removes it from its old position, in its own document's log
+        ChangeLog sourceLog = null;
+        String movedFrom = null;
+        if (node.getParentNode() != null && (adopt || node.getOwnerDocument() == document)) {
+            sourceLog = ChangeLog.get(node);
+            if (sourceLog != null) {
+                movedFrom = ChangeLog.path((Element) node);
+            }
+        }
+
+        if (node.getOwnerDocument() != document) {
+            Node adopted = null;
+
+            // Adoption isn't supported between every DOM implementation
+            if (adopt) {
+                adopted = document.adoptNode(node);
+            }
+
+            if (adopted != null) {
+                node = adopted;
+            } else {
+                node = document.importNode(node, true);
+                movedFrom = null;
+            }
+        }
+
+        element.appendChild(node);
+
+        if (movedFrom != null) {
+            sourceLog.record(Edit.removeElement(movedFrom));
+        }
+
+        ChangeLog log = ChangeLog.get(element);
+        if (log != null) {
+            log.recordInsert((Element) node);
+        }
+
+        return wrap((Element) node);
     }
 
     /**
@@ -89,12 +180,19 @@ public class XMLElement {
      * @throws IllegalStateException if more than one element with the name are found.
      */
     public XMLElement getChild(String name) {
+        Instrumentation instrumentation = XML.getInstrumentation();
+        long start = 0;
+        if (instrumentation != Instrumentation.NONE) {
+            start = System.nanoTime();
+        }
 
         // The first matching child will be kept here
         Node child = null;
+        long visited = 0;
 
         // Iterate over all the child nodes
-        for (Node node : new NodeListIterator<Node>(element.getChildNodes()).toIterable()) {
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            visited++;
 
             // Look for Element instances that match the name given
             if (node instanceof Element && name.equals(node.getNodeName())) {
@@ -109,13 +207,17 @@ public class XMLElement {
             }
         }
 
+        if (instrumentation != Instrumentation.NONE) {
+            instrumentation.navigated(System.nanoTime() - start, visited);
+        }
+
         // Return null if no child was found
         if (child == null) {
             return null;
         }
 
         // Get the element
-        return new XMLElement((Element) child);
+        return wrap((Element) child);
     }
 
     /**
@@ -153,6 +255,89 @@ public class XMLElement {
         return child;
     }
 
+    /**
+     * Sets the text content of several child elements at once.
+     *
+     * The children are found in a single pass, and missing children are created
+     * and appended in the map's iteration order.
+     * @param values the text content of each child, by tag name.
+     * @return this element.
+     * @throws IllegalStateException if more than one element with one of the names is found.
+     */
+    public XMLElement setChildValues(Map<String, String> values) {
+
+        // Find the existing children in one pass
+        Map<String, Element> children = new HashMap<String, Element>();
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && values.containsKey(node.getNodeName())) {
+                if (children.put(node.getNodeName(), (Element) node) != null) {
+                    throw new IllegalStateException("More than one element with the name: " + node.getNodeName());
+                }
+            }
+        }
+
+        // Update the existing children, and create the missing ones
+        Document document = element.getOwnerDocument();
+        ChangeLog log = ChangeLog.get(element);
+        DocumentFragment created = null;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            Element child = children.get(entry.getKey());
+
+            if (child == null) {
+                child = document.createElement(entry.getKey());
+                if (created == null) {
+                    created = document.createDocumentFragment();
+                }
+                created.appendChild(child);
+            } else if (log != null) {
+                log.record(Edit.setText(ChangeLog.path(child), entry.getValue()));
+            }
+
+            setValue(child, entry.getValue());
+        }
+
+        if (created != null) {
+            Node first = created.getFirstChild();
+            element.appendChild(created);
+
+            if (log != null) {
+                for (Node node = first; node != null; node = node.getNextSibling()) {
+                    log.recordInsert((Element) node);
+                }
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Creates several new child elements and appends them to this one, in a single update.
+     * @param names the names of the elements.
+     * @return the new elements, in order.
+     */
+    public List<XMLElement> addChildren(String... names) {
+        Document document = element.getOwnerDocument();
+        DocumentFragment fragment = document.createDocumentFragment();
+        List<XMLElement> children = new ArrayList<XMLElement>(names.length);
+
+        for (String name : names) {
+            Element child = document.createElement(name);
+            fragment.appendChild(child);
+            children.add(wrap(child));
+        }
+
+        element.appendChild(fragment);
+
+        ChangeLog log = ChangeLog.get(element);
+        if (log != null) {
+            for (XMLElement child : children) {
+                log.recordInsert(child.getElement());
+            }
+        }
+
+        return children;
+    }
+
     /**
      * Gets an {@link Iterable} for the children of this element by tag name.
      * @param name the tag name of the children.
@@ -165,7 +350,30 @@ public class XMLElement {
 
         // Build the iterators
         final NodeListIterator<Element> nodeListIterator = new NodeListIterator(nodes);
-        return new XMLElementIterator(nodeListIterator).toIterable();
+        return new XMLElementIterator(nodeListIterator, this).toIterable();
+    }
+
+    /**
+     * Gets a snapshot of the direct children of this element by tag name.
+     *
+     * Unlike {@link #getChildren(String)}, only direct children are included,
+     * and the list doesn't follow later changes to the element. It's read-only
+     * and indexed, so its streams can be split for parallel processing; take it
+     * from a {@link XML#freeze() frozen} document to read the children from
+     * several threads.
+     * @param name the tag name of the children, or <code>*</code> for all of them.
+     * @return the children, in document order.
+     */
+    public List<XMLElement> getChildList(String name) {
+        Instrumentation instrumentation = XML.getInstrumentation();
+        if (instrumentation == Instrumentation.NONE) {
+            return ElementList.children(this, name);
+        }
+
+        long start = System.nanoTime();
+        ElementList children = ElementList.children(this, name);
+        instrumentation.navigated(System.nanoTime() - start, children.getVisited());
+        return children;
     }
 
     /**
@@ -173,10 +381,10 @@ public class XMLElement {
      * @return true if the element has children.
      */
     public boolean hasChildren() {
-        NodeListIterator iterator = new NodeListIterator(element.getChildNodes());
-
-        while (iterator.hasNext()) {
-            return iterator.next() instanceof Element;
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element) {
+                return true;
+            }
         }
 
         return false;
@@ -186,18 +394,29 @@ public class XMLElement {
      * @return true if the specified child element exists.
      */
     public boolean hasChild(String name) {
-        NodeListIterator iterator = new NodeListIterator(element.getChildNodes());
+        Instrumentation instrumentation = XML.getInstrumentation();
+        long start = 0;
+        if (instrumentation != Instrumentation.NONE) {
+            start = System.nanoTime();
+        }
 
-        while (iterator.hasNext()) {
-            Node node = iterator.next();
+        Node node = element.getFirstChild();
+        boolean found = false;
+        long visited = 0;
 
-            // If the element's name matches, return true.
-            if (node instanceof Element && ((Element) node).getTagName().equals(name)) {
-                return true;
-            }
+        while (!found && node != null) {
+            visited++;
+
+            // If the element's name matches, stop looking.
+            found = node instanceof Element && ((Element) node).getTagName().equals(name);
+            node = node.getNextSibling();
         }
 
-        return false;
+        if (instrumentation != Instrumentation.NONE) {
+            instrumentation.navigated(System.nanoTime() - start, visited);
+        }
+
+        return found;
     }
 
     /**
@@ -208,6 +427,33 @@ public class XMLElement {
      */
     public XMLElement setAttribute(String name, String value) {
         element.setAttribute(name, value);
+
+        ChangeLog log = ChangeLog.get(element);
+        if (log != null) {
+            log.record(Edit.setAttribute(ChangeLog.path(element), name, value));
+        }
+
+        return this;
+    }
+
+    /**
+     * Sets several attributes on the element.
+     * @param attributes the attribute values, by name.
+     * @return this element
+     */
+    public XMLElement setAttributes(Map<String, String> attributes) {
+        ChangeLog log = ChangeLog.get(element);
+        String path = null;
+        if (log != null) {
+            path = ChangeLog.path(element);
+        }
+
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            element.setAttribute(attribute.getKey(), attribute.getValue());
+            if (log != null) {
+                log.record(Edit.setAttribute(path, attribute.getKey(), attribute.getValue()));
+            }
+        }
         return this;
     }
 
@@ -225,25 +471,43 @@ public class XMLElement {
      * @param value the value to set.
      */
     public void setValue(String value) {
+        setValue(element, value);
 
-        // Delete any existing text/cdata nodes
-        NodeListIterator iterator = new NodeListIterator(element.getChildNodes());
-        while (iterator.hasNext()) {
+        ChangeLog log = ChangeLog.get(element);
+        if (log != null) {
+            log.record(Edit.setText(ChangeLog.path(element), value));
+        }
+    }
+
+    /**
+     * Sets the text content of an element.
+     *
+     * Existing text and cdata nodes are removed, and the value is appended
+     * as a new text node, after any child elements.
+     * @param element the element.
+     * @param value the value to set.
+     */
+    static void setValue(Element element, String value) {
 
-            // Get the child node
-            Node child = iterator.next();
+        // Delete any existing text/cdata nodes, following sibling links rather than a live node list
+        Node child = element.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
 
-            // Delete the child node if it's text or cdata
             switch (child.getNodeType()) {
                 case Node.TEXT_NODE:
                 case Node.CDATA_SECTION_NODE:
-                    iterator.remove();
+                    element.removeChild(child);
+                    break;
+                default:
+                    break;
             }
+
+            child = next;
         }
 
         // Create a new text node
-        Text textNode = element.getOwnerDocument().createTextNode(value);
-        element.appendChild(textNode);
+        element.appendChild(element.getOwnerDocument().createTextNode(value));
     }
 
     /**
@@ -254,7 +518,7 @@ public class XMLElement {
         StringBuilder value = new StringBuilder();
 
         // Append the values of text and cdata nodes.
-        for (Node child : NodeListIterator.iterable(element.getChildNodes())) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
             switch (child.getNodeType()) {
                 case Node.TEXT_NODE:
                 case Node.CDATA_SECTION_NODE:
@@ -293,6 +557,96 @@ public class XMLElement {
         return Integer.parseInt(value);
     }
 
+    /**
+     * Evaluates an XPath expression relative to this element, as a string.
+     * @param expression the XPath expression.
+     * @return the string value of the result.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    public String xpathString(String expression) throws XPathExpressionException {
+        return XML.xpathString(expression, element);
+    }
+
+    /**
+     * Evaluates an XPath expression relative to this element, as a number.
+     * @param expression the XPath expression.
+     * @return the numeric value of the result, NaN if it isn't a number.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    public double xpathNumber(String expression) throws XPathExpressionException {
+        return XML.xpathNumber(expression, element);
+    }
+
+    /**
+     * Evaluates an XPath expression relative to this element, as a boolean.
+     * @param expression the XPath expression.
+     * @return the boolean value of the result.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     */
+    public boolean xpathBoolean(String expression) throws XPathExpressionException {
+        return XML.xpathBoolean(expression, element);
+    }
+
+    /**
+     * Evaluates an XPath expression relative to this element, as a long.
+     * @param expression the XPath expression.
+     * @return the result, parsed as a long.
+     * @throws XPathExpressionException If expression cannot be compiled or evaluated.
+     * @throws NumberFormatException if the result isn't an integer.
+     */
+    public long xpathLong(String expression) throws XPathExpressionException {
+        return XML.xpathLong(expression, element);
+    }
+
+    /**
+     * Hashes the content of this element's subtree.
+     *
+     * Unlike {@link #hashCode()}, the hash depends on names, attributes, text
+     * and child elements rather than node identity, and text counts where it
+     * sits among the child elements. Attribute order, namespace prefixes,
+     * comments and surrounding whitespace in text are ignored. The whole
+     * subtree is hashed on every call, except in {@link XML#freeze() frozen}
+     * documents, which are hashed once.
+     * @return the hash.
+     */
+    public long contentHash() {
+        return ContentHash.hash(element, null);
+    }
+
+    /**
+     * Compares the content of this element's subtree to another's.
+     *
+     * Different hashes are rejected immediately. Equal hashes are confirmed by
+     * comparing the subtrees.
+     * @param other the other element.
+     * @return true if both subtrees have the same content, in the sense of {@link #contentHash()}.
+     */
+    public boolean contentEquals(XMLElement other) {
+        return contentHash() == other.contentHash() && ContentHash.equal(element, other.element);
+    }
+
+    /**
+     * Writes this element's subtree in canonical form.
+     * @param canonicalization the canonicalization algorithm.
+     * @param out the stream to write to. It isn't closed.
+     * @throws IOException If the stream can't be written.
+     * @see Canonicalization#write(Node, OutputStream)
+     */
+    public void canonicalize(Canonicalization canonicalization, OutputStream out) throws IOException {
+        canonicalization.write(element, out);
+    }
+
+    /**
+     * Computes the digest of this element's subtree in canonical form, in a single streaming pass.
+     * @param canonicalization the canonicalization algorithm.
+     * @param digest the digest to update.
+     * @return the digest.
+     * @see Canonicalization#digest(Node, MessageDigest)
+     */
+    public byte[] digest(Canonicalization canonicalization, MessageDigest digest) {
+        return canonicalization.digest(element, digest);
+    }
+
     @Override
     public int hashCode() {
         int hash = 7;
@@ -39,12 +39,27 @@ public class XMLElementIterator implements Iterator<XMLElement> {
      */
     private final NodeListIterator<Element> iterator;
 
+    /**
+     * The element whose {@link XMLElement#wrap(Element)} wraps the others, or null.
+     */
+    private final XMLElement wrapper;
+
     /**
      * Creates a new {@link XMLElementIterator}.
      * @param iterator the {@link NodeListIterator} to wrap.
      */
     public XMLElementIterator(NodeListIterator<Element> iterator) {
+        this(iterator, null);
+    }
+
+    /**
+     * Creates a new {@link XMLElementIterator} returning wrappers of a given kind.
+     * @param iterator the {@link NodeListIterator} to wrap.
+     * @param wrapper an element of the same kind as the ones to return, or null for plain {@link XMLElement}s.
+     */
+    XMLElementIterator(NodeListIterator<Element> iterator, XMLElement wrapper) {
         this.iterator = iterator;
+        this.wrapper = wrapper;
     }
 
     @Override
@@ -54,7 +69,10 @@ public class XMLElementIterator implements Iterator<XMLElement> {
 
     @Override
     public XMLElement next() {
-        return new XMLElement(iterator.next());
+        if (wrapper == null) {
+            return new XMLElement(iterator.next());
+        }
+        return wrapper.wrap(iterator.next());
     }
 
     @Override
@@ -0,0 +1,249 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.IOException;
+import java.util.List;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Applies {@link Edit}s to a document.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+final class XMLPatch {
+
+    /**
+     * Not instantiable.
+     */
+    private XMLPatch() {
+    }
+
+    /**
+     * Applies edits to a document, in order.
+     *
+     * If the document's changes are being recorded, the edits are recorded as
+     * they're applied.
+     * @param document the document.
+     * @param edits the edits.
+     * @throws IllegalArgumentException if an edit doesn't fit the document.
+     * @throws SAXException If the markup of an inserted element can't be parsed.
+     * @throws IOException If the markup of an inserted element can't be read.
+     */
+    static void apply(Document document, List<Edit> edits) throws SAXException, IOException {
+        ChangeLog log = ChangeLog.get(document);
+
+        for (Edit edit : edits) {
+            Element element = resolve(document, edit.getPath());
+
+            switch (edit.getType()) {
+                case INSERT_ELEMENT:
+                    insert(element, edit.getPosition(), parse(document, edit.getValue()), edit);
+                    break;
+                case REMOVE_ELEMENT:
+                    element.getParentNode().removeChild(element);
+                    break;
+                case REPLACE_ELEMENT:
+                    element.getParentNode().replaceChild(parse(document, edit.getValue()), element);
+                    break;
+                case SET_ATTRIBUTE:
+                    setAttribute(element, edit.getName(), edit.getValue());
+                    break;
+                case REMOVE_ATTRIBUTE:
+                    element.removeAttribute(edit.getName());
+                    break;
+                case SET_TEXT:
+                    if (edit.getPosition() < 0) {
+                        XMLElement.setValue(element, edit.getValue());
+                    } else {
+                        setText(element, edit.getPosition(), edit.getValue(), edit);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported edit: " + edit);
+            }
+
+            if (log != null) {
+                log.record(edit);
+            }
+        }
+    }
+
+    /**
+     * Finds the element at a path.
+     * @param document the document.
+     * @param path the path.
+     * @return the element.
+     * @throws IllegalArgumentException if the path is malformed or no such element exists.
+     */
+    static Element resolve(Document document, String path) {
+        Node node = document;
+        int position = 0;
+
+        while (position < path.length()) {
+            int open = path.indexOf('[', position);
+            int close = path.indexOf(']', open + 1);
+            if (path.charAt(position) != '/' || open < 0 || close < 0) {
+                throw new IllegalArgumentException("Malformed path: " + path);
+            }
+
+            String name = path.substring(position + 1, open);
+            int index;
+            try {
+                index = Integer.parseInt(path.substring(open + 1, close));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed path: " + path, e);
+            }
+
+            // Find the index-th child with the name
+            Node child = node.getFirstChild();
+            while (child != null) {
+                if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getNodeName())) {
+                    index--;
+                    if (index == 0) {
+                        break;
+                    }
+                }
+                child = child.getNextSibling();
+            }
+
+            if (child == null) {
+                throw new IllegalArgumentException("No element at path: " + path.substring(0, close + 1));
+            }
+
+            node = child;
+            position = close + 1;
+        }
+
+        if (node == document) {
+            throw new IllegalArgumentException("Malformed path: " + path);
+        }
+
+        return (Element) node;
+    }
+
+    /**
+     * Inserts an element among the child elements of another.
+     * @param parent the parent element.
+     * @param position the position of the new element among the child elements.
+     * @param child the new element.
+     * @param edit the edit, for error messages.
+     * @throws IllegalArgumentException if the parent has fewer child elements than the position.
+     */
+    private static void insert(Element parent, int position, Node child, Edit edit) {
+        int index = 0;
+        Node node = parent.getFirstChild();
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                if (index == position) {
+                    break;
+                }
+                index++;
+            }
+            node = node.getNextSibling();
+        }
+
+        if (index < position) {
+            throw new IllegalArgumentException("Position out of range: " + edit);
+        }
+
+        parent.insertBefore(child, node);
+    }
+
+    /**
+     * Replaces the text right before a child element.
+     *
+     * Comments and processing instructions between the elements are kept,
+     * and the new text follows them.
+     * @param element the element.
+     * @param position the position of the child element, or the number of child elements for the end.
+     * @param text the new text.
+     * @param edit the edit, for error messages.
+     * @throws IllegalArgumentException if the element has fewer child elements than the position.
+     */
+    private static void setText(Element element, int position, String text, Edit edit) {
+        int index = 0;
+        Node node = element.getFirstChild();
+        while (node != null && index <= position) {
+            Node next = node.getNextSibling();
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                if (index == position) {
+                    break;
+                }
+                index++;
+            } else if (index == position
+                    && (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE)) {
+                element.removeChild(node);
+            }
+            node = next;
+        }
+
+        if (index < position) {
+            throw new IllegalArgumentException("Position out of range: " + edit);
+        }
+
+        if (text.length() > 0) {
+            element.insertBefore(element.getOwnerDocument().createTextNode(text), node);
+        }
+    }
+
+    /**
+     * Sets an attribute, resolving its prefix against the element's namespaces.
+     * @param element the element.
+     * @param name the qualified name of the attribute.
+     * @param value the value.
+     */
+    private static void setAttribute(Element element, String name, String value) {
+        int colon = name.indexOf(':');
+        if (colon > 0) {
+            String namespaceURI = element.lookupNamespaceURI(name.substring(0, colon));
+            if (namespaceURI != null) {
+                element.setAttributeNS(namespaceURI, name, value);
+                return;
+            }
+        }
+
+        element.setAttribute(name, value);
+    }
+
+    /**
+     * Parses the markup of an element into a document.
+     *
+     * Edits may come from other services, so the markup is parsed as untrusted
+     * input: DOCTYPEs are rejected and external entities are never loaded.
+     * @param document the document the element is for.
+     * @param markup the markup.
+     * @return the element, owned by the document.
+     * @throws SAXException If the markup can't be parsed.
+     * @throws IOException If the markup can't be read.
+     */
+    private static Node parse(Document document, String markup) throws SAXException, IOException {
+        return document.importNode(XML.parse(markup, ParserProfile.FAST_UNTRUSTED).getDocument().getDocumentElement(), true);
+    }
+
+}
@@ -0,0 +1,209 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Evaluates many XPath expressions against a document at once.
+ *
+ * Expressions made only of name tests joined by <code>/</code> and
+ * <code>//</code> are compiled into a single matcher and evaluated together in
+ * one walk of the document. Any other expression is evaluated on its own.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class XPathBatch {
+
+    /**
+     * The expressions, in the order given.
+     */
+    private final String[] expressions;
+
+    /**
+     * The simple paths evaluated in a single walk.
+     */
+    private final SimplePath[] paths;
+
+    /**
+     * The index in {@link #expressions} of each simple path.
+     */
+    private final int[] pathExpressions;
+
+    /**
+     * The indexes in {@link #expressions} of the expressions evaluated separately.
+     */
+    private final int[] otherExpressions;
+
+    /**
+     * Creates a new {@link XPathBatch}.
+     * @param expressions the XPath expressions to evaluate.
+     * @throws XPathExpressionException if an expression cannot be compiled.
+     */
+    public XPathBatch(String... expressions) throws XPathExpressionException {
+        this.expressions = expressions.clone();
+
+        List<SimplePath> simple = new ArrayList<SimplePath>();
+        List<Integer> simpleIndexes = new ArrayList<Integer>();
+        List<Integer> otherIndexes = new ArrayList<Integer>();
+
+        // Split the simple paths from the others
+        for (int i = 0; i < expressions.length; i++) {
+            SimplePath path = SimplePath.parse(expressions[i]);
+
+            if (path != null) {
+                simple.add(path);
+                simpleIndexes.add(i);
+            } else {
+
+                // Fail early on invalid expressions
+                XML.compile(expressions[i]);
+                otherIndexes.add(i);
+            }
+        }
+
+        paths = simple.toArray(new SimplePath[simple.size()]);
+        pathExpressions = toArray(simpleIndexes);
+        otherExpressions = toArray(otherIndexes);
+    }
+
+    /**
+     * Creates a new {@link XPathBatch}.
+     * @param expressions the XPath expressions to evaluate.
+     * @throws XPathExpressionException if an expression cannot be compiled.
+     */
+    public XPathBatch(List<String> expressions) throws XPathExpressionException {
+        this(expressions.toArray(new String[expressions.size()]));
+    }
+
+    /**
+     * Converts a list of indexes to an array.
+     * @param list the indexes.
+     * @return the indexes as an array.
+     */
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Evaluates every expression against a document.
+     * @param xml the document.
+     * @return the elements selected by each expression, in document order, keyed by expression.
+     * @throws XPathExpressionException if an expression cannot be evaluated, or selects other nodes than elements.
+     */
+    public Map<String, List<XMLElement>> evaluate(XML xml) throws XPathExpressionException {
+        Document document = xml.getDocument();
+        XMLElement wrapper = xml.getRoot();
+
+        // Collect the results of each expression
+        List<List<XMLElement>> results = new ArrayList<List<XMLElement>>(expressions.length);
+        for (int i = 0; i < expressions.length; i++) {
+            results.add(new ArrayList<XMLElement>());
+        }
+
+        if (paths.length > 0) {
+            walk(document, wrapper, results);
+        }
+
+        for (int i : otherExpressions) {
+            NodeList nodes = (NodeList) XML.evaluate(expressions[i], document, XPathConstants.NODESET);
+
+            List<XMLElement> result = results.get(i);
+            for (int j = 0; j < nodes.getLength(); j++) {
+                Node node = nodes.item(j);
+                if (!(node instanceof Element)) {
+                    throw new XPathExpressionException("Expression did not select only elements: " + expressions[i]);
+                }
+                result.add(wrapper.wrap((Element) node));
+            }
+        }
+
+        // Key the results by expression
+        Map<String, List<XMLElement>> map = new LinkedHashMap<String, List<XMLElement>>();
+        for (int i = 0; i < expressions.length; i++) {
+            map.put(expressions[i], results.get(i));
+        }
+
+        return map;
+    }
+
+    /**
+     * Walks a document once, matching every simple path.
+     * @param document the document.
+     * @param wrapper the element whose {@link XMLElement#wrap(Element)} wraps the matches.
+     * @param results the results of each expression.
+     */
+    private void walk(Document document, XMLElement wrapper, List<List<XMLElement>> results) {
+        PathMatcher matcher = new PathMatcher(paths);
+
+        Node node = document.getFirstChild();
+        while (node != null) {
+
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+
+                // Record the paths matching this element
+                if (matcher.push(node.getNamespaceURI(), SimplePath.localName(node))) {
+                    XMLElement element = wrapper.wrap((Element) node);
+                    for (int i = 0; i < matcher.getMatchCount(); i++) {
+                        results.get(pathExpressions[matcher.getMatch(i)]).add(element);
+                    }
+                }
+
+                // Descend only if something can still match below
+                if (matcher.isActive() && node.getFirstChild() != null) {
+                    node = node.getFirstChild();
+                    continue;
+                }
+
+                matcher.pop();
+            }
+
+            // Move to the next sibling, climbing as needed
+            while (node.getNextSibling() == null) {
+                node = node.getParentNode();
+                if (node == document) {
+                    return;
+                }
+                matcher.pop();
+            }
+
+            node = node.getNextSibling();
+        }
+    }
+
+}
@@ -0,0 +1,397 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class AsyncXMLParserTest {
+
+    /**
+     * A document using most of the syntax the incremental parser handles.
+     */
+    private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!-- prolog -->\n"
+            + "<?target some data?>\n"
+            + "<foo xmlns=\"urn:foo\" xmlns:b=\"urn:bar\" id='1' b:name=\"a &amp; b &#x3c; &#62;\">\n"
+            + "  <b:bar>caf\u00e9 \u20ac \ud83d\ude00 &lt;tag&gt; &quot;x&quot; &apos;y&apos;</b:bar>\n"
+            + "  <baz><![CDATA[<raw> & ]]> text</baz>\n"
+            + "  <empty   attribute = \"a\tb\"/>\n"
+            + "  <!-- inner -->\n"
+            + "  <b:qux xmlns:b=\"urn:qux\" b:attribute=\"1\" xml:lang=\"en\"/>\n"
+            + "</foo>\n"
+            + "<!-- epilog -->\n";
+
+    /**
+     * Test of feed method, of class AsyncXMLParser.
+     */
+    @Test
+    public void testFeed() throws Exception {
+        System.out.println("feed");
+        byte[] bytes = DOCUMENT.getBytes("UTF-8");
+
+        // One byte at a time splits every token and multi-byte character
+        AsyncXMLParser instance = new AsyncXMLParser();
+        for (byte b : bytes) {
+            instance.feed(ByteBuffer.wrap(new byte[] {b}));
+        }
+        assertFalse(instance.getResult().isDone());
+
+        Future<XML> result = instance.endOfInput();
+        assertTrue(result.isDone());
+        assertEquals(XML.parse(DOCUMENT).toString(false), result.get().toString(false));
+        assertEquals("urn:qux", result.get().getDocument().getElementsByTagName("b:qux").item(0).getNamespaceURI());
+
+        // All at once, from a direct buffer
+        instance = new AsyncXMLParser();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        instance.feed(buffer);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(XML.parse(DOCUMENT).toString(false), instance.endOfInput().get().toString(false));
+    }
+
+    /**
+     * Test of feed method, of class AsyncXMLParser, with the coalescing profile.
+     */
+    @Test
+    public void testFeed_coalescing() throws Exception {
+        System.out.println("feed_coalescing");
+        AsyncXMLParser instance = new AsyncXMLParser(ParserProfile.COALESCING);
+        byte[] bytes = DOCUMENT.getBytes("UTF-8");
+        for (int i = 0; i < bytes.length; i += 7) {
+            instance.feed(ByteBuffer.wrap(bytes, i, Math.min(7, bytes.length - i)));
+        }
+
+        XML expected = XML.parse(DOCUMENT, ParserProfile.COALESCING);
+        assertEquals(expected.toString(false), instance.endOfInput().get().toString(false));
+    }
+
+    /**
+     * Test of feed method, of class AsyncXMLParser, with a declared encoding.
+     */
+    @Test
+    public void testFeed_encoding() throws Exception {
+        System.out.println("feed_encoding");
+        String document = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><foo>caf\u00e9</foo>";
+
+        AsyncXMLParser instance = new AsyncXMLParser();
+        instance.feed(ByteBuffer.wrap(document.getBytes("ISO-8859-1")));
+        assertEquals("caf\u00e9", instance.endOfInput().get().getRoot().getValue());
+
+        // Not parsed incrementally, but still supported
+        instance = new AsyncXMLParser();
+        instance.feed(ByteBuffer.wrap(document.replace("ISO-8859-1", "UTF-16").getBytes("UTF-16")));
+        assertEquals("caf\u00e9", instance.endOfInput().get().getRoot().getValue());
+    }
+
+    /**
+     * Test of feed method, of class AsyncXMLParser, with a DOCTYPE.
+     */
+    @Test
+    public void testFeed_doctype() throws Exception {
+        System.out.println("feed_doctype");
+        String document = "<!DOCTYPE foo [<!ENTITY bar \"baz\">]><foo>&bar;</foo>";
+
+        AsyncXMLParser instance = new AsyncXMLParser();
+        for (byte b : document.getBytes("UTF-8")) {
+            instance.feed(ByteBuffer.wrap(new byte[] {b}));
+        }
+        assertEquals("baz", instance.endOfInput().get().getRoot().getValue());
+
+        // Rejected by the untrusted profile
+        instance = new AsyncXMLParser(ParserProfile.FAST_UNTRUSTED);
+        instance.feed(ByteBuffer.wrap(document.getBytes("UTF-8")));
+        try {
+            instance.endOfInput().get();
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SAXException);
+        }
+    }
+
+    /**
+     * Test of feed method, of class AsyncXMLParser, with malformed input.
+     */
+    @Test
+    public void testFeed_malformed() throws Exception {
+        System.out.println("feed_malformed");
+        AsyncXMLParser instance = new AsyncXMLParser();
+        instance.feed(ByteBuffer.wrap("<foo><bar>".getBytes("UTF-8")));
+
+        try {
+            instance.feed(ByteBuffer.wrap("</foo>".getBytes("UTF-8")));
+            fail("Expected a SAXException");
+        } catch (SAXException e) {
+            assertTrue(e.getMessage().contains("</foo>") || e.getMessage().contains("foo"));
+        }
+
+        // The result fails as soon as the error is found
+        assertTrue(instance.getResult().isDone());
+        try {
+            instance.getResult().get();
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SAXException);
+        }
+
+        try {
+            instance.feed(ByteBuffer.wrap("<foo/>".getBytes("UTF-8")));
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        String[] malformed = {
+            "<foo a=\"1\" a=\"2\"/>",
+            "<foo>&unknown;</foo>",
+            "<b:foo/>",
+            "<foo/><bar/>",
+            "<foo/>text",
+            "<foo a=1/>",
+            "<foo><!-- a -- b --></foo>",
+            "<foo>]]></foo>",
+            "<foo>\u0001</foo>",
+            "<foo>&#0;</foo>",
+            "<foo a=\"&#xD800;\"/>",
+            "<foo>&#+65;</foo>",
+            "<foo/>&#32;",
+            "<foo xmlns:b=\"\"/>",
+            "<foo xmlns:a=\"urn:a\" xmlns:b=\"urn:a\" a:x=\"1\" b:x=\"2\"/>",
+            "</ foo>",
+            "<?xml> version=\"1.0\"?><foo/>",
+            "<?xml version=\"1.0\" e]coding=\"UTF-8\"?><foo/>",
+            "<?xml version=\"1.0\"encoding=\"UTF-8\"?><foo/>",
+        };
+        for (String document : malformed) {
+            instance = new AsyncXMLParser();
+            try {
+                instance.feed(ByteBuffer.wrap(document.getBytes("UTF-8")));
+                instance.endOfInput().get();
+                fail("Expected a failure for " + document);
+            } catch (SAXException e) {
+                assertTrue(instance.getResult().isDone());
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SAXException);
+            }
+        }
+    }
+
+    /**
+     * Test of feed method, of class AsyncXMLParser, with line ends split between buffers.
+     */
+    @Test
+    public void testFeed_lineEnds() throws Exception {
+        System.out.println("feed_lineEnds");
+        String document = "<foo a=\"v\r\nw\rx\" b=\"&#13;\">a\r\nb\rc\n\r<?pi d\r\ne?><![CDATA[f\r\ng]]>&#13;</foo>";
+
+        AsyncXMLParser instance = new AsyncXMLParser(ParserProfile.FAST_UNTRUSTED);
+        for (byte b : document.getBytes("UTF-8")) {
+            instance.feed(ByteBuffer.wrap(new byte[] {b}));
+        }
+
+        XML result = instance.endOfInput().get();
+        assertEquals(XML.parse(document, ParserProfile.FAST_UNTRUSTED).toString(false), result.toString(false));
+        assertEquals("v w x", result.getRoot().getAttribute("a"));
+        assertEquals("\r", result.getRoot().getAttribute("b"));
+    }
+
+    /**
+     * Test of feed method, of class AsyncXMLParser, against {@link XML#parse(java.io.InputStream, ParserProfile)}.
+     *
+     * Random documents, valid or not, split at random, must give the same
+     * document, or fail, either way.
+     */
+    @Test
+    public void testFeed_differential() throws Exception {
+        System.out.println("feed_differential");
+        Random random = new Random(42);
+
+        for (int i = 0; i < 2000; i++) {
+            String document = randomDocument(random);
+            byte[] bytes = document.getBytes("UTF-8");
+            ParserProfile profile = random.nextBoolean() ? ParserProfile.FAST_UNTRUSTED : ParserProfile.COALESCING;
+
+            String expected;
+            try {
+                expected = XML.parse(new ByteArrayInputStream(bytes), profile).toString(false);
+            } catch (SAXException e) {
+                expected = null;
+            } catch (IOException e) {
+                expected = null;
+            }
+
+            String actual;
+            AsyncXMLParser instance = new AsyncXMLParser(profile);
+            try {
+                for (int offset = 0; offset < bytes.length;) {
+                    int length = Math.min(bytes.length - offset, 1 + random.nextInt(8));
+                    instance.feed(ByteBuffer.wrap(bytes, offset, length));
+                    offset += length;
+                }
+                actual = instance.endOfInput().get().toString(false);
+            } catch (SAXException e) {
+                actual = null;
+            } catch (ExecutionException e) {
+                actual = null;
+            }
+
+            assertEquals(profile + " " + document, expected, actual);
+        }
+    }
+
+    /**
+     * Picks one of several strings.
+     * @param random the random source.
+     * @param choices the strings.
+     * @return one of the strings.
+     */
+    private static String pick(Random random, String... choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    /**
+     * Builds a random document, mixing valid and invalid syntax.
+     * @param random the random source.
+     * @return the document.
+     */
+    private static String randomDocument(Random random) {
+        StringBuilder document = new StringBuilder();
+        document.append(pick(random, "", "", "<?xml version=\"1.0\"?>\r\n", "<?xml version='1.0' encoding='UTF-8'?>",
+                "<?xml> version=\"1.0\"?>", "<?xml version=\"1.0\" e]coding=\"UTF-8\"?>", "<!-- c -->"));
+        document.append("<r xmlns:p=\"urn:p\">");
+        randomContent(random, document, 0);
+        document.append("</r>");
+        document.append(pick(random, "", "", "\r\n", "<?pi?>", "x", "&#32;"));
+
+        // Break some of them
+        if (random.nextInt(4) == 0) {
+            int at = random.nextInt(document.length());
+            document.insert(at, pick(random, "<", ">", "&", "\"", "/", "]]>", "\r", "=", "?", "-"));
+        }
+        return document.toString();
+    }
+
+    /**
+     * Appends random content to an element.
+     * @param random the random source.
+     * @param document the document being built.
+     * @param depth the depth of the element.
+     */
+    private static void randomContent(Random random, StringBuilder document, int depth) {
+        int count = random.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    String name = pick(random, "a", "p:b", "c.d", "\u00e9", "a\u00b7", "\u0300a", "1a", "q:a",
+                            "xmlns:a");
+                    document.append('<').append(name);
+                    document.append(pick(random, "", " x=\"1\"", " x='v\r\nw\t&#13;'", " p:x=\"&lt;\" x=\"1\"",
+                            " xmlns:q=\"\"", " xmlns:q=\"urn:p\" p:y=\"1\" q:y=\"2\"", " x=\"<\"", " x=\"&#0;\""));
+                    if (depth < 3 && random.nextBoolean()) {
+                        document.append('>');
+                        randomContent(random, document, depth + 1);
+                        document.append("</").append(name).append(pick(random, ">", " >", "\n>"));
+                    } else {
+                        document.append("/>");
+                    }
+                    break;
+                case 1:
+                    document.append(pick(random, "<!-- c -->", "<!--a--b-->", "<!--\r\n-->"));
+                    break;
+                case 2:
+                    document.append(pick(random, "<?pi data?>", "<?xml x?>", "<?p:i d\r\n?>", "<?pi?>"));
+                    break;
+                case 3:
+                    document.append(pick(random, "<![CDATA[x]]>", "<![CDATA[ ]]>", "<![CDATA[a\r\nb]]>"));
+                    break;
+                default:
+                    document.append(pick(random, "x", " ", "\r\n", "\r", "]]>", "]]", "&amp;", "&#65;", "&#x1F600;",
+                            "&#0;", "&#xD800;", "&#+65;", "\u0001", "\ufffe", "\ud83d\ude00", "&foo;", " y "));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Test of endOfInput method, of class AsyncXMLParser.
+     */
+    @Test
+    public void testEndOfInput() throws Exception {
+        System.out.println("endOfInput");
+        String[] incomplete = {"", "<", "<?xml version=\"1.0\"", "<foo><bar/>", "<foo><!-- x", "<foo a=\"1"};
+
+        for (String document : incomplete) {
+            AsyncXMLParser instance = new AsyncXMLParser();
+            instance.feed(ByteBuffer.wrap(document.getBytes("UTF-8")));
+            try {
+                instance.endOfInput().get();
+                fail("Expected an ExecutionException for " + document);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SAXException);
+            }
+        }
+
+        // Ending twice returns the same result
+        AsyncXMLParser instance = new AsyncXMLParser();
+        instance.feed(ByteBuffer.wrap("<foo/>".getBytes("UTF-8")));
+        assertSame(instance.endOfInput(), instance.endOfInput());
+    }
+
+    /**
+     * Test of endOfInput method, of class AsyncXMLParser, with instrumentation.
+     */
+    @Test
+    public void testEndOfInput_instrumentation() throws Exception {
+        System.out.println("endOfInput_instrumentation");
+        HistogramInstrumentation instrumentation = new HistogramInstrumentation(true);
+        XML.setInstrumentation(instrumentation);
+        try {
+            AsyncXMLParser instance = new AsyncXMLParser();
+            byte[] bytes = "<foo a=\"1\"><bar>x</bar></foo>".getBytes("UTF-8");
+            instance.feed(ByteBuffer.wrap(bytes, 0, 10));
+            instance.feed(ByteBuffer.wrap(bytes, 10, bytes.length - 10));
+            instance.endOfInput().get();
+
+            assertEquals(1, instrumentation.getParseTimes().getCount());
+            assertEquals(bytes.length, instrumentation.getParseLengths().getMax());
+            assertEquals(5, instrumentation.getNodeCounts().getMax());
+        } finally {
+            XML.setInstrumentation(null);
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class CanonicalizationTest {
+
+    /**
+     * Canonicalizes a node.
+     * @param canonicalization the algorithm.
+     * @param node the node.
+     * @return the canonical form, decoded.
+     */
+    private static String write(Canonicalization canonicalization, Node node) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        canonicalization.write(node, out);
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Test of write method, of class Canonicalization, with the start and end
+     * tags example of the Canonical XML specification.
+     */
+    @Test
+    public void testWrite_tags() throws Exception {
+        System.out.println("write_tags");
+        StringBuilder xml = new StringBuilder();
+        xml.append("<!DOCTYPE doc [<!ATTLIST e9 attr CDATA \"default\">]>\n");
+        xml.append("<doc>\n");
+        xml.append("   <e1   />\n");
+        xml.append("   <e2   ></e2>\n");
+        xml.append("   <e3   name = \"elem3\"   id=\"elem3\"   />\n");
+        xml.append("   <e4   name=\"elem4\"   id=\"elem4\"   ></e4>\n");
+        xml.append("   <e5 a:attr=\"out\" b:attr=\"sorted\" attr2=\"all\" attr=\"I'm\"\n");
+        xml.append("      xmlns:b=\"http://www.ietf.org\"\n");
+        xml.append("      xmlns:a=\"http://www.w3.org\"\n");
+        xml.append("      xmlns=\"http://example.org\"/>\n");
+        xml.append("   <e6 xmlns=\"\" xmlns:a=\"http://www.w3.org\">\n");
+        xml.append("      <e7 xmlns=\"http://www.ietf.org\">\n");
+        xml.append("         <e8 xmlns=\"\" xmlns:a=\"http://www.w3.org\">\n");
+        xml.append("            <e9 xmlns=\"\" xmlns:a=\"http://www.ietf.org\"/>\n");
+        xml.append("         </e8>\n");
+        xml.append("      </e7>\n");
+        xml.append("   </e6>\n");
+        xml.append("</doc>");
+
+        StringBuilder expected = new StringBuilder();
+        expected.append("<doc>\n");
+        expected.append("   <e1></e1>\n");
+        expected.append("   <e2></e2>\n");
+        expected.append("   <e3 id=\"elem3\" name=\"elem3\"></e3>\n");
+        expected.append("   <e4 id=\"elem4\" name=\"elem4\"></e4>\n");
+        expected.append("   <e5 xmlns=\"http://example.org\" xmlns:a=\"http://www.w3.org\" ");
+        expected.append("xmlns:b=\"http://www.ietf.org\" attr=\"I'm\" attr2=\"all\" b:attr=\"sorted\" a:attr=\"out\">");
+        expected.append("</e5>\n");
+        expected.append("   <e6 xmlns:a=\"http://www.w3.org\">\n");
+        expected.append("      <e7 xmlns=\"http://www.ietf.org\">\n");
+        expected.append("         <e8 xmlns=\"\">\n");
+        expected.append("            <e9 xmlns:a=\"http://www.ietf.org\" attr=\"default\"></e9>\n");
+        expected.append("         </e8>\n");
+        expected.append("      </e7>\n");
+        expected.append("   </e6>\n");
+        expected.append("</doc>");
+
+        assertEquals(expected.toString(), write(Canonicalization.INCLUSIVE, XML.parse(xml.toString()).getDocument()));
+    }
+
+    /**
+     * Test of write method, of class Canonicalization, with comments and
+     * processing instructions outside the document element.
+     */
+    @Test
+    public void testWrite_comments() throws Exception {
+        System.out.println("write_comments");
+        Node document = XML.parse("<?pi data?>\n<!-- c1 -->\n<doc>Hello<!-- c2 --></doc>\n<!-- c3 -->").getDocument();
+
+        assertEquals("<?pi data?>\n<doc>Hello</doc>", write(Canonicalization.INCLUSIVE, document));
+        assertEquals("<?pi data?>\n<!-- c1 -->\n<doc>Hello<!-- c2 --></doc>\n<!-- c3 -->",
+                write(Canonicalization.INCLUSIVE_WITH_COMMENTS, document));
+        assertEquals("<doc>Hello<!-- c2 --></doc>",
+                write(Canonicalization.EXCLUSIVE_WITH_COMMENTS, document.getLastChild().getPreviousSibling()));
+    }
+
+    /**
+     * Test of write method, of class Canonicalization, with characters that need escaping.
+     */
+    @Test
+    public void testWrite_escaping() throws Exception {
+        System.out.println("write_escaping");
+        Node document = XML.parse("<doc a=\"&quot;&#9;&#10;&lt;>\">&amp;&lt;&gt;\"<![CDATA[<x>]]>"
+                + "\u00e9\u20ac\ud83d\ude00</doc>").getDocument();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Canonicalization.INCLUSIVE.write(document, out);
+
+        String expected = "<doc a=\"&quot;&#x9;&#xA;&lt;>\">&amp;&lt;&gt;\"&lt;x&gt;\u00e9\u20ac\ud83d\ude00</doc>";
+        assertArrayEquals(expected.getBytes("UTF-8"), out.toByteArray());
+    }
+
+    /**
+     * Test of write method, of class Canonicalization, on a subtree.
+     */
+    @Test
+    public void testWrite_subtree() throws Exception {
+        System.out.println("write_subtree");
+        XML xml = XML.parse("<n0:local xmlns:n0=\"foo:bar\" xmlns:n3=\"ftp://example.org\" xml:space=\"preserve\">"
+                + "<n1:elem2 xmlns:n1=\"http://example.net\" xml:lang=\"en\">"
+                + "<n3:stuff xmlns:n3=\"ftp://example.org\"/></n1:elem2></n0:local>");
+        Element elem2 = (Element) xml.getDocument().getDocumentElement().getFirstChild();
+
+        assertEquals("<n1:elem2 xmlns:n0=\"foo:bar\" xmlns:n1=\"http://example.net\" xmlns:n3=\"ftp://example.org\""
+                + " xml:lang=\"en\" xml:space=\"preserve\"><n3:stuff></n3:stuff></n1:elem2>",
+                write(Canonicalization.INCLUSIVE, elem2));
+        assertEquals("<n1:elem2 xmlns:n1=\"http://example.net\" xml:lang=\"en\">"
+                + "<n3:stuff xmlns:n3=\"ftp://example.org\"></n3:stuff></n1:elem2>",
+                write(Canonicalization.EXCLUSIVE, elem2));
+    }
+
+    /**
+     * Test of write method, of class Canonicalization, on elements created without namespace declarations.
+     */
+    @Test
+    public void testWrite_undeclared() throws Exception {
+        System.out.println("write_undeclared");
+        XML xml = XML.create("foo");
+        Element root = xml.getDocument().getDocumentElement();
+        root.appendChild(xml.getDocument().createElementNS("urn:x", "x:bar"));
+
+        assertEquals("<foo><x:bar xmlns:x=\"urn:x\"></x:bar></foo>", write(Canonicalization.EXCLUSIVE, root));
+    }
+
+    /**
+     * Test of digest method, of class Canonicalization.
+     */
+    @Test
+    public void testDigest() throws Exception {
+        System.out.println("digest");
+        XML a = XML.parse("<foo b=\"2\" a=\"1\"><bar/></foo>");
+        XML b = XML.parse("<?xml version=\"1.0\"?>\n<foo a=\"1\" b=\"2\"><bar></bar></foo>");
+
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(
+                "<foo a=\"1\" b=\"2\"><bar></bar></foo>".getBytes("UTF-8"));
+
+        assertTrue(Arrays.equals(expected, a.digest(Canonicalization.INCLUSIVE, MessageDigest.getInstance("SHA-256"))));
+        assertTrue(Arrays.equals(expected, b.digest(Canonicalization.EXCLUSIVE, MessageDigest.getInstance("SHA-256"))));
+        assertTrue(Arrays.equals(expected,
+                a.getRoot().digest(Canonicalization.INCLUSIVE, MessageDigest.getInstance("SHA-256"))));
+    }
+
+    /**
+     * Test of getAlgorithm method, of class Canonicalization.
+     */
+    @Test
+    public void testGetAlgorithm() {
+        System.out.println("getAlgorithm");
+
+        assertEquals("http://www.w3.org/2001/10/xml-exc-c14n#", Canonicalization.EXCLUSIVE.getAlgorithm());
+    }
+
+}
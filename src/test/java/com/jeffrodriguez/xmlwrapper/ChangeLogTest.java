@@ -0,0 +1,67 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class ChangeLogTest {
+
+    /**
+     * Test of path method, of class ChangeLog.
+     */
+    @Test
+    public void testPath() throws Exception {
+        System.out.println("path");
+        Document document = XML.parse("<foo><bar/><baz/><bar><qux/></bar></foo>").getDocument();
+        Element qux = (Element) document.getElementsByTagName("qux").item(0);
+
+        assertEquals("/foo[1]", ChangeLog.path(document.getDocumentElement()));
+        assertEquals("/foo[1]/bar[2]/qux[1]", ChangeLog.path(qux));
+        assertSame(qux, XMLPatch.resolve(document, ChangeLog.path(qux)));
+    }
+
+    /**
+     * Test of get method, of class ChangeLog.
+     */
+    @Test
+    public void testGet() throws Exception {
+        System.out.println("get");
+        Document document = XML.parse("<foo/>").getDocument();
+
+        assertNull(ChangeLog.get(document));
+        ChangeLog.start(document);
+        assertNotNull(ChangeLog.get(document.getDocumentElement()));
+        assertNotNull(ChangeLog.stop(document));
+        assertNull(ChangeLog.get(document));
+    }
+
+}
@@ -0,0 +1,167 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares streaming compression with decompressing to a string first, and
+ * compressing the output of <code>toString</code> afterwards.
+ *
+ * Not run by the build. Run with
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.jeffrodriguez.xmlwrapper.CompressionBenchmark</code>,
+ * optionally passing the document size in megabytes and the buffer size in
+ * bytes as arguments.
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public final class CompressionBenchmark {
+
+    /**
+     * The number of measured rounds.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Not instantiable.
+     */
+    private CompressionBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args the document size in megabytes, and the buffer size in bytes.
+     * @throws Exception if the benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int megabytes = 32;
+        int bufferSize = Compression.DEFAULT_BUFFER_SIZE;
+        if (args.length > 0) {
+            megabytes = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            bufferSize = Integer.parseInt(args[1]);
+        }
+
+        // Build and compress a document of about the requested size
+        XML xml = XML.create("orders");
+        for (int i = 0; xml.getDocument().getDocumentElement().getChildNodes().getLength() * 100L
+                < megabytes * 1024L * 1024L; i++) {
+            XMLElement order = xml.getRoot().addChild("order");
+            order.setAttribute("id", Integer.toString(i));
+            order.setChildValue("customer", "Customer " + (i % 997));
+            order.setChildValue("total", Integer.toString(i * 7 % 10000));
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        xml.write(compressed, false, Compression.GZIP, bufferSize);
+        byte[] input = compressed.toByteArray();
+        long length = xml.toString(false).length();
+
+        System.out.println("Document: " + length / 1024 / 1024 + " MB, " + input.length / 1024 + " KB gzipped, "
+                + bufferSize + " byte buffers");
+
+        // Warm up, then measure
+        for (int round = -2; round < ROUNDS; round++) {
+            long twoStep = twoStep(input);
+            long streaming = streaming(input, bufferSize);
+            if (round >= 0) {
+                System.out.println(String.format("Round %d: two-step %.1f MB/s, streaming %.1f MB/s",
+                        round + 1, throughput(length, twoStep), throughput(length, streaming)));
+            }
+        }
+    }
+
+    /**
+     * Decompresses to a string, parses it, serializes it to a string and compresses that.
+     * @param input the compressed document.
+     * @return the time taken, in nanoseconds.
+     */
+    private static long twoStep(byte[] input) throws Exception {
+        long start = System.nanoTime();
+
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(input));
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            plain.write(buffer, 0, n);
+        }
+        XML xml = XML.parse(new String(plain.toByteArray(), "UTF-8"), ParserProfile.FAST_UNTRUSTED);
+
+        OutputStream out = new GZIPOutputStream(new Discard());
+        out.write(xml.toString(false).getBytes("UTF-8"));
+        out.close();
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Parses and writes the document through the compression streams.
+     * @param input the compressed document.
+     * @param bufferSize the buffer size.
+     * @return the time taken, in nanoseconds.
+     */
+    private static long streaming(byte[] input, int bufferSize) throws Exception {
+        long start = System.nanoTime();
+
+        XML xml = XML.parse(new ByteArrayInputStream(input), ParserProfile.FAST_UNTRUSTED, Compression.GZIP,
+                bufferSize);
+        xml.write(new Discard(), false, Compression.GZIP, bufferSize);
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Computes a throughput.
+     * @param length the uncompressed length, in bytes.
+     * @param nanos the time taken.
+     * @return the throughput, in megabytes per second.
+     */
+    private static double throughput(long length, long nanos) {
+        return length / 1024.0 / 1024.0 / (nanos / 1e9);
+    }
+
+    /**
+     * An {@link OutputStream} that drops everything written to it.
+     */
+    private static final class Discard extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class CompressionTest {
+
+    /**
+     * A stream that records whether it was closed.
+     */
+    private static final class TrackingOutputStream extends ByteArrayOutputStream {
+
+        /**
+         * True once closed.
+         */
+        private boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Builds a document.
+     * @return the document.
+     */
+    private static XML document() throws Exception {
+        XML xml = XML.create("foo");
+        for (int i = 0; i < 1000; i++) {
+            xml.getRoot().addChild("bar").setValue("caf\u00e9 " + i);
+        }
+        return xml;
+    }
+
+    /**
+     * Test of the write and parse methods of class XML, with every compression.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        System.out.println("roundTrip");
+
+        XML xml = document();
+        String expected = xml.toString(false);
+
+        for (Compression compression : Compression.values()) {
+            TrackingOutputStream out = new TrackingOutputStream();
+            xml.write(out, false, compression, 512);
+            assertFalse(out.closed);
+
+            ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+            XML result = XML.parse(in, ParserProfile.FAST_UNTRUSTED, compression, 512);
+            assertEquals(compression.name(), expected, result.toString(false));
+        }
+    }
+
+    /**
+     * Test of the GZIP compression, against the JDK codec.
+     */
+    @Test
+    public void testGzip() throws Exception {
+        System.out.println("gzip");
+
+        XML xml = document();
+
+        // Written as standard gzip, in UTF-8
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        xml.write(out, true, Compression.GZIP);
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            plain.write(buffer, 0, n);
+        }
+        assertEquals(xml.toString(true), new String(plain.toByteArray(), "UTF-8"));
+
+        // Read from standard gzip
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(plain.toByteArray());
+        gzip.close();
+        XML result = XML.parse(new ByteArrayInputStream(compressed.toByteArray()), ParserProfile.DEFAULT,
+                Compression.GZIP);
+        assertTrue(xml.contentEquals(result));
+
+        // Not gzip
+        try {
+            XML.parse(new ByteArrayInputStream(plain.toByteArray()), ParserProfile.DEFAULT, Compression.GZIP);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+}
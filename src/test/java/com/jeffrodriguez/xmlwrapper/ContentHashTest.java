@@ -0,0 +1,121 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class ContentHashTest {
+
+    /**
+     * Hashes the root element of a document.
+     * @param xml the document.
+     * @return the hash.
+     */
+    private static long hash(String xml) throws Exception {
+        return ContentHash.hash(XML.parse(xml).getDocument().getDocumentElement(), null);
+    }
+
+    /**
+     * Test of hash method, of class ContentHash.
+     */
+    @Test
+    public void testHash_insensitive() throws Exception {
+        System.out.println("hash_insensitive");
+        long expected = hash("<foo a=\"1\" b=\"2\"><bar>x</bar></foo>");
+
+        assertEquals(expected, hash("<foo b=\"2\" a=\"1\"><bar>x</bar></foo>"));
+        assertEquals(expected, hash("<foo a=\"1\" b=\"2\">\n  <bar>  x  </bar>\n</foo>"));
+        assertEquals(expected, hash("<foo a=\"1\" b=\"2\"><!-- c --><bar><![CDATA[x]]></bar></foo>"));
+    }
+
+    /**
+     * Test of hash method, of class ContentHash.
+     */
+    @Test
+    public void testHash_sensitive() throws Exception {
+        System.out.println("hash_sensitive");
+        long expected = hash("<foo a=\"1\"><bar>x</bar><baz/></foo>");
+
+        assertFalse(expected == hash("<foo a=\"2\"><bar>x</bar><baz/></foo>"));
+        assertFalse(expected == hash("<foo b=\"1\"><bar>x</bar><baz/></foo>"));
+        assertFalse(expected == hash("<foo a=\"1\"><bar>y</bar><baz/></foo>"));
+        assertFalse(expected == hash("<foo a=\"1\"><baz/><bar>x</bar></foo>"));
+        assertFalse(expected == hash("<foo a=\"1\"><bar>x</bar></foo>"));
+
+        // Text is hashed where it sits among the child elements
+        long mixed = hash("<p>Hello <b>big</b> world</p>");
+        assertFalse(mixed == hash("<p><b>big</b>Hello  world</p>"));
+        assertFalse(mixed == hash("<p>Hello world<b>big</b></p>"));
+        assertEquals(mixed, hash("<p> Hello <b>big</b><!-- c --><![CDATA[world]]> </p>"));
+    }
+
+    /**
+     * Test of hash method, of class ContentHash.
+     */
+    @Test
+    public void testHash_namespaces() throws Exception {
+        System.out.println("hash_namespaces");
+
+        assertEquals(hash("<a:foo xmlns:a=\"urn:x\"/>"), hash("<b:foo xmlns:b=\"urn:x\"/>"));
+        assertFalse(hash("<a:foo xmlns:a=\"urn:x\"/>") == hash("<a:foo xmlns:a=\"urn:y\"/>"));
+    }
+
+    /**
+     * Test of hash method, of class ContentHash.
+     */
+    @Test
+    public void testHash_subtrees() throws Exception {
+        System.out.println("hash_subtrees");
+        Element root = XML.parse("<foo><bar>x</bar><baz><bar>x</bar></baz></foo>").getDocument().getDocumentElement();
+        NodeHashes hashes = new NodeHashes();
+
+        long hash = ContentHash.hash(root, hashes);
+
+        assertEquals(4, hashes.size());
+        assertEquals(hash, hashes.get(root));
+        Node first = root.getFirstChild();
+        Node second = first.getNextSibling().getFirstChild();
+        assertEquals(hashes.get(first), hashes.get(second));
+    }
+
+    /**
+     * Test of text method, of class ContentHash.
+     */
+    @Test
+    public void testText() throws Exception {
+        System.out.println("text");
+        Element root = XML.parse("<foo> a <bar>b</bar><![CDATA[c]]> </foo>").getDocument().getDocumentElement();
+
+        assertEquals("a c", ContentHash.text(root));
+    }
+
+}
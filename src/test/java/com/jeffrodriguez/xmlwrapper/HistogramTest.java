@@ -0,0 +1,97 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class HistogramTest {
+
+    /**
+     * Test of record method, of class Histogram.
+     */
+    @Test
+    public void testRecord() {
+        System.out.println("record");
+        Histogram instance = new Histogram();
+
+        for (int i = 1; i <= 1000; i++) {
+            instance.record(i);
+        }
+
+        assertEquals(1000, instance.getCount());
+        assertEquals(500500, instance.getSum());
+        assertEquals(1, instance.getMin());
+        assertEquals(1000, instance.getMax());
+        assertEquals(500.5, instance.getMean(), 0.001);
+    }
+
+    /**
+     * Test of getPercentile method, of class Histogram.
+     */
+    @Test
+    public void testGetPercentile() {
+        System.out.println("getPercentile");
+        Histogram instance = new Histogram();
+
+        assertEquals(0, instance.getPercentile(50));
+
+        for (int i = 1; i <= 1000; i++) {
+            instance.record(i);
+        }
+
+        // Within the histogram's precision, and never below the true value
+        long p50 = instance.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125);
+        long p99 = instance.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+        assertEquals(1000, instance.getPercentile(100));
+        assertEquals(1, instance.getPercentile(0));
+
+        instance.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, instance.getPercentile(100));
+    }
+
+    /**
+     * Test of reset method, of class Histogram.
+     */
+    @Test
+    public void testReset() {
+        System.out.println("reset");
+        Histogram instance = new Histogram();
+        instance.record(42);
+
+        instance.reset();
+
+        assertEquals(0, instance.getCount());
+        assertEquals(0, instance.getMax());
+        assertEquals(0, instance.getPercentile(99));
+    }
+
+}
@@ -0,0 +1,228 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class JSONConverterTest {
+
+    /**
+     * An order, as XML.
+     */
+    private static final String ORDER_XML = "<order id=\"7\">\n"
+            + "  <item sku=\"a1\">Apple</item>\n"
+            + "  <item sku=\"b2\">Banana</item>\n"
+            + "  <note/>\n"
+            + "  <total>3.50</total>\n"
+            + "</order>";
+
+    /**
+     * The order, as JSON.
+     */
+    private static final String ORDER_JSON = "{\"order\":{\"@id\":\"7\","
+            + "\"item\":[{\"@sku\":\"a1\",\"#text\":\"Apple\"},{\"@sku\":\"b2\",\"#text\":\"Banana\"}],"
+            + "\"note\":\"\",\"total\":\"3.50\"}}";
+
+    /**
+     * Converts a document to JSON.
+     * @param converter the converter.
+     * @param xml the document.
+     * @return the JSON.
+     */
+    private static String write(JSONConverter converter, String xml) throws Exception {
+        StringWriter out = new StringWriter();
+        converter.write(XML.parse(xml), out);
+        return out.toString();
+    }
+
+    /**
+     * Streams a document to JSON.
+     * @param converter the converter.
+     * @param xml the document.
+     * @return the JSON.
+     */
+    private static String stream(JSONConverter converter, String xml) throws Exception {
+        StringWriter out = new StringWriter();
+        converter.write(new ByteArrayInputStream(xml.getBytes("UTF-8")), out);
+        return out.toString();
+    }
+
+    /**
+     * Test of write method, of class JSONConverter.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        System.out.println("write");
+
+        assertEquals(ORDER_JSON, write(new JSONConverter(), ORDER_XML));
+        assertEquals("{\"a\":{\"@x\":\"1\",\"#text\":\"hi\",\"b\":\"\"}}",
+                write(new JSONConverter(), "<a x=\"1\"> hi <b/></a>"));
+    }
+
+    /**
+     * Test of write method, of class JSONConverter, with whitespace-only text.
+     */
+    @Test
+    public void testWrite_whitespace() throws Exception {
+        System.out.println("write_whitespace");
+        JSONConverter converter = new JSONConverter();
+
+        // Kept with or without attributes, and dropped among children
+        assertEquals("{\"a\":\"  \"}", write(converter, "<a>  </a>"));
+        assertEquals("{\"a\":{\"@x\":\"1\",\"#text\":\"  \"}}", write(converter, "<a x=\"1\">  </a>"));
+        assertEquals("{\"a\":{\"b\":\"\"}}", write(converter, "<a>  <b/>  </a>"));
+
+        for (String xml : new String[] {"<a>  </a>", "<a x=\"1\">  </a>", "<a>  <b/>  </a>"}) {
+            assertEquals(write(converter, xml), stream(converter, xml));
+        }
+    }
+
+    /**
+     * Test of write method, of class JSONConverter, with a custom convention.
+     */
+    @Test
+    public void testWrite_convention() throws Exception {
+        System.out.println("write_convention");
+        JSONConverter converter = new JSONConverter(new JSONConvention("-", "$", "item"));
+
+        assertEquals("{\"order\":{\"-id\":\"1\",\"$\":\"x\",\"item\":[\"a\"]}}",
+                write(converter, "<order id=\"1\">x<item>a</item></order>"));
+    }
+
+    /**
+     * Test of write method, of class JSONConverter, with characters that need escaping.
+     */
+    @Test
+    public void testWrite_escaping() throws Exception {
+        System.out.println("write_escaping");
+        XML xml = XML.create("a");
+        xml.getRoot().setValue("\"\\\n\t" + (char) 1 + (char) 0x2028 + "/");
+
+        StringWriter out = new StringWriter();
+        new JSONConverter().write(xml, out);
+
+        assertEquals("{\"a\":\"\\\"\\\\\\n\\t\\u0001\\u2028/\"}", out.toString());
+    }
+
+    /**
+     * Test of write method, of class JSONConverter, streaming from bytes.
+     */
+    @Test
+    public void testWrite_stream() throws Exception {
+        System.out.println("write_stream");
+        JSONConverter converter = new JSONConverter(new JSONConvention("@", "#text", "item"));
+
+        assertEquals(ORDER_JSON, stream(converter, ORDER_XML));
+        assertEquals(write(converter, ORDER_XML), stream(converter, ORDER_XML));
+
+        // Attributes come in document order rather than the DOM's
+        String namespaced = "<a:foo xmlns:a=\"urn:a\" a:x=\"1\"><a:bar>2</a:bar></a:foo>";
+        assertEquals("{\"a:foo\":{\"@xmlns:a\":\"urn:a\",\"@a:x\":\"1\",\"a:bar\":\"2\"}}",
+                stream(converter, namespaced));
+        assertTrue(converter.read(new StringReader(stream(converter, namespaced))).contentEquals(
+                converter.read(new StringReader(write(converter, namespaced)))));
+    }
+
+    /**
+     * Test of write method, of class JSONConverter, streaming undeclared repeated elements.
+     */
+    @Test(expected = XMLStreamException.class)
+    public void testWrite_streamRepeated() throws Exception {
+        System.out.println("write_streamRepeated");
+
+        stream(new JSONConverter(), ORDER_XML);
+    }
+
+    /**
+     * Test of write method, of class JSONConverter, streaming interleaved array elements.
+     */
+    @Test
+    public void testWrite_streamInterleaved() throws Exception {
+        System.out.println("write_streamInterleaved");
+        JSONConverter converter = new JSONConverter(new JSONConvention("@", "#text", "item"));
+        String xml = "<r><item>1</item><note/><item>2</item></r>";
+
+        assertEquals("{\"r\":{\"item\":[\"1\",\"2\"],\"note\":\"\"}}", write(converter, xml));
+        try {
+            stream(converter, xml);
+            fail("Expected XMLStreamException");
+        } catch (XMLStreamException e) {
+            assertTrue(e.getMessage().contains("interleaved"));
+        }
+    }
+
+    /**
+     * Test of read method, of class JSONConverter.
+     */
+    @Test
+    public void testRead() throws Exception {
+        System.out.println("read");
+        JSONConverter converter = new JSONConverter();
+
+        XML xml = converter.read(new StringReader(ORDER_JSON));
+        assertTrue(xml.contentEquals(XML.parse(ORDER_XML)));
+
+        xml = converter.read(new StringReader(
+                " {\"a\" : {\"n\": -1.5e3, \"b\": [true, false], \"c\": null, \"d\": \"\\u00e9\\n\", \"e\": []}} "));
+        assertEquals("-1.5e3", xml.getRoot().getChildValue("n"));
+        assertEquals("", xml.getRoot().getChildValue("c"));
+        assertEquals("\u00e9\n", xml.getRoot().getChildValue("d"));
+        assertFalse(xml.getRoot().hasChild("e"));
+        assertEquals("{\"a\":{\"n\":\"-1.5e3\",\"b\":[\"true\",\"false\"],\"c\":\"\",\"d\":\"\\u00e9\\n\"}}"
+                .replace("\\u00e9", "\u00e9"), write(converter, xml.toString(false)));
+    }
+
+    /**
+     * Test of read method, of class JSONConverter, with malformed input.
+     */
+    @Test
+    public void testRead_malformed() throws Exception {
+        System.out.println("read_malformed");
+        JSONConverter converter = new JSONConverter();
+        String[] inputs = {"", "[]", "{\"a\":1", "{\"a\":01}", "{\"a\":\"x}", "{\"a\":1} x", "{\"a\":[[1]]}",
+            "{\"a\":tru}", "{\"a\":\"\\x\"}", "{\"1\":1}", "{\"a\":{\"first name\":1}}",
+            "{\"a\":{\"@1\":\"x\"}}", "{\"a\":\u0661}", "{\"a\":1.\u0661}"};
+
+        for (String input : inputs) {
+            try {
+                converter.read(new StringReader(input));
+                fail("Accepted " + input);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("offset"));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class NodeHashesTest {
+
+    /**
+     * Test of put method, of class NodeHashes.
+     */
+    @Test
+    public void testPut() throws Exception {
+        System.out.println("put");
+        Document document = XML.create("foo").getDocument();
+        Element[] elements = new Element[1000];
+        NodeHashes instance = new NodeHashes();
+
+        // Enough nodes to grow the table several times
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = document.createElement("bar");
+            instance.put(elements[i], i);
+        }
+        instance.put(elements[0], -1);
+
+        assertEquals(elements.length, instance.size());
+        assertEquals(-1, instance.get(elements[0]));
+        for (int i = 1; i < elements.length; i++) {
+            assertEquals(i, instance.get(elements[i]));
+        }
+    }
+
+    /**
+     * Test of get method, of class NodeHashes.
+     */
+    @Test
+    public void testGet_missing() throws Exception {
+        System.out.println("get_missing");
+        Document document = XML.create("foo").getDocument();
+        NodeHashes instance = new NodeHashes();
+        instance.put(document.getDocumentElement(), 1);
+
+        try {
+            instance.get(document.createElement("foo"));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test of estimateSize method, of class NodeHashes.
+     */
+    @Test
+    public void testEstimateSize() {
+        System.out.println("estimateSize");
+        assertEquals(NodeHashes.estimateSize(0), NodeHashes.estimateSize(32));
+        assertEquals(2 * NodeHashes.estimateSize(1000) - 32, NodeHashes.estimateSize(1025));
+    }
+
+}
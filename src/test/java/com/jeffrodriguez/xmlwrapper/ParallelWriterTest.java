@@ -0,0 +1,146 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class ParallelWriterTest {
+
+    /**
+     * The executor the groups are serialized on.
+     */
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Serializes a document in groups of a few nodes.
+     * @param xml the document.
+     * @param pretty true if the document should be indented.
+     * @return the output, or null if the document wasn't written.
+     */
+    private String write(XML xml, boolean pretty) throws Exception {
+        StringWriter writer = new StringWriter();
+        long length = ParallelWriter.write(xml.getDocument(), writer, pretty, executor, 5);
+        if (length < 0) {
+            assertEquals(0, writer.getBuffer().length());
+            return null;
+        }
+
+        assertEquals(writer.getBuffer().length(), length);
+        return writer.toString();
+    }
+
+    /**
+     * Test of write method, of class ParallelWriter.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        System.out.println("write");
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<foo xmlns=\"urn:foo\" xmlns:b=\"urn:bar\" b:id=\"1\" quote='\"'>\n");
+        for (int i = 0; i < 50; i++) {
+            xml.append("  <item n=\"").append(i).append("\" gt=\"a &gt; b\">");
+            xml.append("<b:bar>caf\u00e9 &amp; \u20ac</b:bar><empty/>");
+            xml.append("<mixed>text <i>inline</i> tail</mixed><![CDATA[<raw>]]>");
+            xml.append("</item>\n");
+            if (i % 5 == 0) {
+                xml.append("  <!-- comment ").append(i).append(" -->\n  <?pi data?>\n");
+            }
+        }
+        xml.append("</foo>");
+
+        // Whitespace kept, and stripped
+        for (ParserProfile profile : new ParserProfile[] {ParserProfile.DEFAULT, ParserProfile.COALESCING}) {
+            XML instance = XML.parse(xml.toString(), profile);
+            assertEquals(instance.toString(false), write(instance, false));
+        }
+        XML stripped = XML.parse(xml.toString(), ParserProfile.COALESCING);
+        assertEquals(stripped.toString(true), write(stripped, true));
+
+        // Built without namespace declarations
+        XML built = XML.create("foo");
+        for (int i = 0; i < 50; i++) {
+            XMLElement child = built.getRoot().addChild("bar");
+            child.setAttribute("n", Integer.toString(i));
+            Element namespaced = built.getDocument().createElementNS("urn:baz", "z:baz");
+            child.getElement().appendChild(namespaced);
+            child.addChild("qux").setValue("value " + i);
+        }
+        assertEquals(built.toString(false), write(built, false));
+        assertEquals(built.toString(true), write(built, true));
+    }
+
+    /**
+     * Test of write method, of class ParallelWriter, with documents that aren't split.
+     */
+    @Test
+    public void testWrite_sequential() throws Exception {
+        System.out.println("write_sequential");
+
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            items.append("<item>").append(i).append("</item>");
+        }
+
+        // Nodes outside the document element
+        assertNull(write(XML.parse("<!-- prolog --><foo>" + items + "</foo>"), false));
+        assertNull(write(XML.parse("<foo>" + items + "</foo><?pi epilog?>"), false));
+
+        // Too small
+        assertNull(write(XML.parse("<foo><item/></foo>"), false));
+
+        // Text of the document element turns indentation off
+        XML mixed = XML.parse("<foo>text" + items + "</foo>");
+        assertNull(write(mixed, true));
+        assertEquals(mixed.toString(false), write(mixed, false));
+
+        // Even whitespace, whose indentation depends on the JDK
+        XML indented = XML.parse("<foo>" + items.toString().replace("<item>", "\n  <item>") + "\n</foo>");
+        assertNull(write(indented, true));
+        assertEquals(indented.toString(false), write(indented, false));
+    }
+
+}
@@ -0,0 +1,181 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class ParallelXMLParserTest {
+
+    /**
+     * The executor the chunks are parsed on.
+     */
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Builds a document whose markup could mislead a naive split.
+     * @param items the number of children of the root.
+     * @return the document.
+     */
+    private static String document(int items) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<!-- prolog </foo> -->\n");
+        xml.append("<foo xmlns=\"urn:foo\" xmlns:b=\"urn:bar\" id=\"1\">\n");
+        for (int i = 0; i < items; i++) {
+            xml.append("  <item n=\"").append(i).append("\" gt=\"a > b\" lt='&lt;/item>'>");
+            xml.append("caf\u00e9 \u20ac <b:bar/>");
+            xml.append("<![CDATA[</item></foo><item>]]>");
+            xml.append("<!-- </item> --><?pi </item>?>");
+            xml.append("</item>\n");
+            if (i % 3 == 0) {
+                xml.append("  <empty/>text &amp; more\n");
+            }
+        }
+        xml.append("</foo>\n");
+        xml.append("<!-- epilog -->\n");
+        return xml.toString();
+    }
+
+    /**
+     * Test of parse method, of class ParallelXMLParser.
+     */
+    @Test
+    public void testParse() throws Exception {
+        System.out.println("parse");
+
+        byte[] input = document(200).getBytes("UTF-8");
+        for (ParserProfile profile : new ParserProfile[] {ParserProfile.DEFAULT, ParserProfile.COALESCING}) {
+            XML expected = XML.parse(new ByteArrayInputStream(input), profile);
+            HistogramInstrumentation instrumentation = new HistogramInstrumentation(false);
+            XML.setInstrumentation(instrumentation);
+            XML result;
+            try {
+                result = new ParallelXMLParser(profile, executor, 1024).parse(input);
+            } finally {
+                XML.setInstrumentation(null);
+            }
+
+            // Parsed in chunks, into the same document
+            assertTrue(instrumentation.getParseTimes().getCount() > 10);
+            assertTrue(expected.contentEquals(result));
+            assertEquals(200, result.xpathCount("//*[local-name() = 'item']"));
+            assertEquals("urn:bar", result.getDocument().getElementsByTagName("b:bar").item(0).getNamespaceURI());
+        }
+
+        // The exact text and order are kept
+        XML expected = XML.parse(new ByteArrayInputStream(input));
+        XML result = new ParallelXMLParser(ParserProfile.DEFAULT, executor, 1024).parse(input);
+        assertEquals(expected.toString(false), result.toString(false));
+    }
+
+    /**
+     * Test of parse method, of class ParallelXMLParser, with text around other nodes between the children.
+     */
+    @Test
+    public void testParse_coalescing() throws Exception {
+        System.out.println("parse_coalescing");
+
+        StringBuilder xml = new StringBuilder("<foo>");
+        for (int i = 0; i < 200; i++) {
+            xml.append("<item n=\"").append(i).append("\"/>a<!-- comment -->b<![CDATA[c]]>d<?pi e?>f\n");
+        }
+        xml.append("</foo>");
+        byte[] input = xml.toString().getBytes("UTF-8");
+
+        // Text merged across comments and CDATA sections is never split between chunks
+        for (ParserProfile profile : new ParserProfile[] {ParserProfile.DEFAULT, ParserProfile.COALESCING}) {
+            XML expected = XML.parse(new ByteArrayInputStream(input), profile);
+            XML result = new ParallelXMLParser(profile, executor, 64).parse(input);
+            assertEquals(expected.toString(false), result.toString(false));
+            assertEquals(expected.getDocument().getDocumentElement().getChildNodes().getLength(),
+                    result.getDocument().getDocumentElement().getChildNodes().getLength());
+        }
+    }
+
+    /**
+     * Test of parse method, of class ParallelXMLParser, with documents that aren't split.
+     */
+    @Test
+    public void testParse_sequential() throws Exception {
+        System.out.println("parse_sequential");
+
+        ParallelXMLParser instance = new ParallelXMLParser(ParserProfile.DEFAULT, executor, 1024);
+
+        // Too small to split
+        XML small = instance.parse(new ByteArrayInputStream("<foo><bar/></foo>".getBytes("UTF-8")));
+        assertEquals("foo", small.getRoot().getName());
+
+        // A DOCTYPE may declare entities
+        String doctype = "<?xml version=\"1.0\"?><!DOCTYPE foo [<!ENTITY e \"entity\">]>"
+                + document(100).substring(document(100).indexOf("<foo")).replace("text", "&e;");
+        XML expanded = instance.parse(doctype.getBytes("UTF-8"));
+        assertTrue(expanded.getDocument().getDocumentElement().getTextContent().contains("entity & more"));
+
+        // Other encodings
+        byte[] latin1 = document(100).replace("UTF-8", "windows-1252").getBytes("windows-1252");
+        assertEquals(100, instance.parse(latin1).xpathCount("//*[local-name() = 'item']"));
+    }
+
+    /**
+     * Test of parse method, of class ParallelXMLParser, with malformed input.
+     */
+    @Test
+    public void testParse_malformed() throws Exception {
+        System.out.println("parse_malformed");
+
+        ParallelXMLParser instance = new ParallelXMLParser(ParserProfile.DEFAULT, executor, 1024);
+        String xml = document(100);
+        int middle = xml.indexOf("<item n=\"50\"");
+
+        try {
+            instance.parse((xml.substring(0, middle) + "<broken>" + xml.substring(middle)).getBytes("UTF-8"));
+            fail("Expected SAXException");
+        } catch (SAXException e) {
+            // Expected
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import org.junit.Test;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class ParserProfileTest {
+
+    private static final String ENTITY = "<?xml version=\"1.0\"?>"
+                                       + "<!DOCTYPE foo [<!ENTITY bar \"baz\">]>"
+                                       + "<foo>&bar;</foo>";
+
+    private static final String EXTERNAL_ENTITY = "<?xml version=\"1.0\"?>"
+                                                + "<!DOCTYPE foo [<!ENTITY bar SYSTEM \"file:///does/not/exist\">]>"
+                                                + "<foo>&bar;</foo>";
+
+    private static final String DTD = "<!DOCTYPE foo [<!ELEMENT foo (bar)><!ELEMENT bar (#PCDATA)>]>";
+
+    /**
+     * Test of the DEFAULT profile.
+     */
+    @Test
+    public void testDefault() throws Exception {
+        System.out.println("default");
+
+        assertEquals("baz", XML.parse(ENTITY, ParserProfile.DEFAULT).getRoot().getValue());
+    }
+
+    /**
+     * Test of the FAST_UNTRUSTED profile.
+     */
+    @Test
+    public void testFastUntrusted() throws Exception {
+        System.out.println("fastUntrusted");
+
+        assertEquals("bar", XML.parse("<foo>bar</foo>", ParserProfile.FAST_UNTRUSTED).getRoot().getValue());
+    }
+
+    /**
+     * Test of the FAST_UNTRUSTED profile.
+     *
+     * DOCTYPEs must be rejected.
+     */
+    @Test(expected = SAXException.class)
+    public void testFastUntrusted_doctype() throws Exception {
+        System.out.println("fastUntrusted_doctype");
+
+        XML.parse(ENTITY, ParserProfile.FAST_UNTRUSTED);
+    }
+
+    /**
+     * Test of the FAST_UNTRUSTED profile.
+     *
+     * External entities must never be resolved.
+     */
+    @Test(expected = SAXException.class)
+    public void testFastUntrusted_externalEntity() throws Exception {
+        System.out.println("fastUntrusted_externalEntity");
+
+        XML.parse(EXTERNAL_ENTITY, ParserProfile.FAST_UNTRUSTED);
+    }
+
+    /**
+     * Test of the VALIDATING profile.
+     */
+    @Test
+    public void testValidating() throws Exception {
+        System.out.println("validating");
+
+        XML result = XML.parse(DTD + "<foo><bar>baz</bar></foo>", ParserProfile.VALIDATING);
+
+        assertEquals("baz", result.getRoot().getChildValue("bar"));
+    }
+
+    /**
+     * Test of the VALIDATING profile.
+     *
+     * Invalid documents must be rejected.
+     */
+    @Test(expected = SAXException.class)
+    public void testValidating_invalid() throws Exception {
+        System.out.println("validating_invalid");
+
+        XML.parse(DTD + "<foo><baz/></foo>", ParserProfile.VALIDATING);
+    }
+
+    /**
+     * Test of the VALIDATING profile, with an external DTD.
+     */
+    @Test
+    public void testValidating_externalDTD() throws Exception {
+        System.out.println("validating_externalDTD");
+
+        File dtd = File.createTempFile("foo", ".dtd");
+        try {
+            OutputStream out = new FileOutputStream(dtd);
+            try {
+                out.write("<!ELEMENT foo (bar)><!ELEMENT bar (#PCDATA)>".getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+
+            String doctype = "<?xml version=\"1.0\"?><!DOCTYPE foo SYSTEM \"" + dtd.toURI() + "\">";
+            XML result = XML.parse(doctype + "<foo><bar>baz</bar></foo>", ParserProfile.VALIDATING);
+            assertEquals("baz", result.getRoot().getChildValue("bar"));
+
+            try {
+                XML.parse(doctype + "<foo><baz/></foo>", ParserProfile.VALIDATING);
+                fail("Expected SAXException");
+            } catch (SAXException e) {
+                // Expected
+            }
+        } finally {
+            dtd.delete();
+        }
+    }
+
+    /**
+     * Test of the COALESCING profile.
+     */
+    @Test
+    public void testCoalescing() throws Exception {
+        System.out.println("coalescing");
+
+        XML result = XML.parse("<foo>a<![CDATA[<b>]]><!-- c -->d</foo>", ParserProfile.COALESCING);
+
+        Node child = result.getRoot().getElement().getFirstChild();
+        assertEquals(Node.TEXT_NODE, child.getNodeType());
+        assertEquals("a<b>d", child.getNodeValue());
+        assertNull(child.getNextSibling());
+    }
+
+    /**
+     * Test of the COALESCING profile.
+     *
+     * Whitespace-only text nodes must be dropped.
+     */
+    @Test
+    public void testCoalescing_whitespace() throws Exception {
+        System.out.println("coalescing_whitespace");
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<foo>\n");
+        xml.append("  <bar>\n");
+        xml.append("    <baz> x </baz>\n");
+        xml.append("    <baz/>\n");
+        xml.append("  </bar>\n");
+        xml.append("  <!-- comment -->\n");
+        xml.append("  <qux>\t<![CDATA[ ]]>\n</qux>\n");
+        xml.append("</foo>");
+
+        XML result = XML.parse(xml.toString(), ParserProfile.COALESCING);
+        XMLElement root = result.getRoot();
+
+        assertEquals(2, root.getElement().getChildNodes().getLength());
+        assertEquals(2, root.getChild("bar").getElement().getChildNodes().getLength());
+        assertEquals(" x ", root.getChild("bar").getElement().getFirstChild().getTextContent());
+        assertNull(root.getChild("qux").getElement().getFirstChild());
+        assertEquals(2, result.xpathCount("//baz"));
+    }
+
+}
@@ -0,0 +1,111 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class PathMatcherTest {
+
+    /**
+     * Test of push method, of class PathMatcher, with child steps.
+     */
+    @Test
+    public void testPush_child() {
+        System.out.println("push_child");
+
+        PathMatcher instance = new PathMatcher(SimplePath.parse("/foo/bar"));
+
+        assertFalse(instance.push(null, "foo"));
+        assertTrue(instance.isActive());
+        assertTrue(instance.push(null, "bar"));
+        assertFalse(instance.isActive());
+        instance.pop();
+        assertFalse(instance.push(null, "baz"));
+        assertFalse(instance.isActive());
+    }
+
+    /**
+     * Test of push method, of class PathMatcher, with descendant steps.
+     */
+    @Test
+    public void testPush_descendant() {
+        System.out.println("push_descendant");
+
+        PathMatcher instance = new PathMatcher(SimplePath.parse("//bar"));
+
+        assertFalse(instance.push(null, "foo"));
+        assertTrue(instance.push(null, "bar"));
+        assertTrue(instance.isActive());
+        assertTrue(instance.push(null, "bar"));
+        instance.pop();
+        instance.pop();
+        instance.pop();
+        assertEquals(0, instance.getDepth());
+    }
+
+    /**
+     * Test of push method, of class PathMatcher, with several paths.
+     */
+    @Test
+    public void testPush_multiplePaths() {
+        System.out.println("push_multiplePaths");
+
+        PathMatcher instance = new PathMatcher(
+                SimplePath.parse("/foo/bar"),
+                SimplePath.parse("//bar"),
+                SimplePath.parse("//baz"));
+
+        instance.push(null, "foo");
+        assertTrue(instance.push(null, "bar"));
+        assertEquals(2, instance.getMatchCount());
+        assertEquals(0, instance.getMatch(0));
+        assertEquals(1, instance.getMatch(1));
+
+        assertTrue(instance.push(null, "baz"));
+        assertEquals(1, instance.getMatchCount());
+        assertEquals(2, instance.getMatch(0));
+    }
+
+    /**
+     * Test of reset method, of class PathMatcher.
+     */
+    @Test
+    public void testReset() {
+        System.out.println("reset");
+
+        PathMatcher instance = new PathMatcher(SimplePath.parse("/foo"));
+
+        assertTrue(instance.push(null, "foo"));
+        instance.reset();
+        assertEquals(0, instance.getDepth());
+        assertTrue(instance.push(null, "foo"));
+    }
+
+}
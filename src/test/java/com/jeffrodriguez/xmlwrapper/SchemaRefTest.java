@@ -0,0 +1,212 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class SchemaRefTest {
+
+    private static final String XSD = "<?xml version=\"1.0\"?>"
+            + "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+            + "  <xs:element name=\"foo\">"
+            + "    <xs:complexType>"
+            + "      <xs:sequence>"
+            + "        <xs:element name=\"bar\" type=\"xs:int\" maxOccurs=\"unbounded\"/>"
+            + "      </xs:sequence>"
+            + "    </xs:complexType>"
+            + "  </xs:element>"
+            + "</xs:schema>";
+
+    private File file;
+
+    private SchemaRef instance;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("schema", ".xsd");
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(XSD.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        instance = new SchemaRef(file);
+    }
+
+    @After
+    public void tearDown() {
+        SchemaRef.clearCache();
+        file.delete();
+    }
+
+    /**
+     * Test of getSchema method, of class SchemaRef.
+     *
+     * Schemas must be compiled once per location.
+     */
+    @Test
+    public void testGetSchema() throws Exception {
+        System.out.println("getSchema");
+
+        assertNotNull(instance.getSchema());
+        assertSame(instance.getSchema(), new SchemaRef(file.toURI().toString()).getSchema());
+    }
+
+    /**
+     * Test of getSchema method, of class SchemaRef, with included and imported schema documents.
+     */
+    @Test
+    public void testGetSchema_include() throws Exception {
+        System.out.println("getSchema_include");
+
+        File directory = file.getParentFile();
+        File main = new File(directory, "main-" + file.getName());
+        File included = new File(directory, "included-" + file.getName());
+        File imported = new File(directory, "imported-" + file.getName());
+        try {
+            write(main, "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns:i=\"urn:imported\">"
+                    + "<xs:include schemaLocation=\"" + included.getName() + "\"/>"
+                    + "<xs:import namespace=\"urn:imported\" schemaLocation=\"" + imported.getName() + "\"/>"
+                    + "<xs:element name=\"foo\"><xs:complexType><xs:sequence>"
+                    + "<xs:element ref=\"bar\"/><xs:element ref=\"i:baz\"/>"
+                    + "</xs:sequence></xs:complexType></xs:element>"
+                    + "</xs:schema>");
+            write(included, "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+                    + "<xs:element name=\"bar\" type=\"xs:int\"/>"
+                    + "</xs:schema>");
+            write(imported, "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\""
+                    + " targetNamespace=\"urn:imported\">"
+                    + "<xs:element name=\"baz\" type=\"xs:int\"/>"
+                    + "</xs:schema>");
+
+            SchemaRef schema = new SchemaRef(main);
+            XML.parse("<foo><bar>1</bar><baz xmlns=\"urn:imported\">2</baz></foo>", schema);
+            try {
+                XML.parse("<foo><bar>1</bar><baz xmlns=\"urn:imported\">x</baz></foo>", schema);
+                fail("Expected SAXException");
+            } catch (SAXException e) {
+                // Expected
+            }
+        } finally {
+            main.delete();
+            included.delete();
+            imported.delete();
+        }
+    }
+
+    /**
+     * Writes a file.
+     * @param target the file.
+     * @param content the content, written as UTF-8.
+     * @throws IOException if the file can't be written.
+     */
+    private static void write(File target, String content) throws IOException {
+        OutputStream out = new FileOutputStream(target);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Test of equals method, of class SchemaRef.
+     */
+    @Test
+    public void testEquals() {
+        System.out.println("equals");
+
+        assertEquals(instance, new SchemaRef(file.toURI().toString()));
+        assertEquals(instance.hashCode(), new SchemaRef(file.toURI().toString()).hashCode());
+        assertFalse(instance.equals(new SchemaRef("file:///other.xsd")));
+    }
+
+    /**
+     * Test of parse method, of class XML, with a schema.
+     */
+    @Test
+    public void testParse() throws Exception {
+        System.out.println("parse");
+
+        XML result = XML.parse("<foo><bar>1</bar><bar>2</bar></foo>", instance);
+
+        assertEquals(2, result.xpathCount("/foo/bar"));
+
+        // Pooled parsers must be reusable
+        XML.parse("<foo><bar>3</bar></foo>", instance);
+        XML.parse("<foo>\n  <bar>4</bar>\n</foo>", ParserProfile.COALESCING, instance);
+    }
+
+    /**
+     * Test of parse method, of class XML, with a schema.
+     *
+     * Invalid documents must be rejected.
+     */
+    @Test(expected = SAXException.class)
+    public void testParse_invalid() throws Exception {
+        System.out.println("parse_invalid");
+
+        XML.parse("<foo><bar>baz</bar></foo>", instance);
+    }
+
+    /**
+     * Test of validate method, of class XML.
+     */
+    @Test
+    public void testValidate() throws Exception {
+        System.out.println("validate");
+
+        XML xml = XML.create("foo");
+        xml.getRoot().addChild("bar").setValue("1");
+        xml.validate(instance);
+
+        xml.getRoot().addChild("baz");
+        try {
+            xml.validate(instance);
+            fail("Expected the document to be invalid.");
+        } catch (SAXException e) {
+            // Expected
+        }
+
+        // The validator must still be usable after a failure
+        xml.getRoot().getElement().removeChild(xml.getRoot().getChild("baz").getElement());
+        xml.validate(instance);
+    }
+
+}
@@ -0,0 +1,101 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class SimplePathTest {
+
+    /**
+     * Test of parse method, of class SimplePath.
+     */
+    @Test
+    public void testParse() {
+        System.out.println("parse");
+
+        SimplePath path = SimplePath.parse("/foo//bar/*");
+
+        assertNotNull(path);
+        assertEquals(3, path.length());
+        assertFalse(path.isDescendant(0));
+        assertTrue(path.isDescendant(1));
+        assertFalse(path.isDescendant(2));
+    }
+
+    /**
+     * Test of parse method, of class SimplePath.
+     */
+    @Test
+    public void testParse_relative() {
+        System.out.println("parse_relative");
+
+        assertEquals(2, SimplePath.parse("foo/bar").length());
+        assertEquals(1, SimplePath.parse(".//bar").length());
+        assertTrue(SimplePath.parse(".//bar").isDescendant(0));
+    }
+
+    /**
+     * Test of parse method, of class SimplePath.
+     *
+     * Anything outside the subset must be rejected.
+     */
+    @Test
+    public void testParse_unsupported() {
+        System.out.println("parse_unsupported");
+
+        assertNull(SimplePath.parse(""));
+        assertNull(SimplePath.parse("/"));
+        assertNull(SimplePath.parse("/foo/"));
+        assertNull(SimplePath.parse("///foo"));
+        assertNull(SimplePath.parse("//foo[1]"));
+        assertNull(SimplePath.parse("//@bar"));
+        assertNull(SimplePath.parse("//x:foo"));
+        assertNull(SimplePath.parse("child::foo"));
+        assertNull(SimplePath.parse("count(//foo)"));
+        assertNull(SimplePath.parse("//foo | //bar"));
+    }
+
+    /**
+     * Test of matches method, of class SimplePath.
+     */
+    @Test
+    public void testMatches() {
+        System.out.println("matches");
+
+        SimplePath path = SimplePath.parse("/foo/*");
+
+        assertTrue(path.matches(0, null, "foo"));
+        assertTrue(path.matches(0, "", "foo"));
+        assertFalse(path.matches(0, null, "bar"));
+        assertFalse(path.matches(0, "urn:foo", "foo"));
+        assertTrue(path.matches(1, "urn:foo", "bar"));
+    }
+
+}
@@ -0,0 +1,161 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.xpath.XPathExpressionException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class StreamingXPathTest {
+
+    private static final String ENVELOPE = "<?xml version=\"1.0\"?>"
+                                         + "<envelope xmlns:a=\"urn:a\">"
+                                         + "<header><type>order</type><id>1</id></header>"
+                                         + "<body><a:order a:id=\"1\">text<item>x</item><![CDATA[<more>]]></a:order></body>"
+                                         + "</envelope>";
+
+    private static InputStream stream(String xml) throws Exception {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+
+    /**
+     * Test of constructor, of class StreamingXPath.
+     */
+    @Test(expected = XPathExpressionException.class)
+    public void testConstructor_unsupported() throws Exception {
+        System.out.println("constructor_unsupported");
+
+        new StreamingXPath("//type[1]");
+    }
+
+    /**
+     * Test of exists method, of class StreamingXPath.
+     */
+    @Test
+    public void testExists() throws Exception {
+        System.out.println("exists");
+
+        assertTrue(new StreamingXPath("/envelope/header/type").exists(stream(ENVELOPE)));
+        assertTrue(new StreamingXPath("//item").exists(stream(ENVELOPE)));
+        assertFalse(new StreamingXPath("/envelope/type").exists(stream(ENVELOPE)));
+        assertFalse(new StreamingXPath("//order").exists(stream(ENVELOPE)));
+    }
+
+    /**
+     * Test of firstValue method, of class StreamingXPath.
+     */
+    @Test
+    public void testFirstValue() throws Exception {
+        System.out.println("firstValue");
+
+        assertEquals("order", new StreamingXPath("/envelope/header/type").firstValue(stream(ENVELOPE)));
+        assertEquals("text<more>", new StreamingXPath("/envelope/body/*").firstValue(stream(ENVELOPE)));
+        assertNull(new StreamingXPath("/envelope/footer").firstValue(stream(ENVELOPE)));
+    }
+
+    /**
+     * Test of firstValue method, of class StreamingXPath.
+     *
+     * Reading must stop once the answer is known.
+     */
+    @Test
+    public void testFirstValue_stopsReading() throws Exception {
+        System.out.println("firstValue_stopsReading");
+
+        StringBuilder xml = new StringBuilder("<envelope><header><type>order</type></header><body>");
+        for (int i = 0; i < 100000; i++) {
+            xml.append("<item/>");
+        }
+        xml.append("<broken");
+
+        final byte[] bytes = xml.toString().getBytes("UTF-8");
+        final int[] read = new int[1];
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                read[0] += Math.max(count, 0);
+                return count;
+            }
+        };
+
+        assertEquals("order", new StreamingXPath("/envelope/header/type").firstValue(in));
+        assertTrue(read[0] < bytes.length / 2);
+    }
+
+    /**
+     * Test of firstElement method, of class StreamingXPath.
+     */
+    @Test
+    public void testFirstElement() throws Exception {
+        System.out.println("firstElement");
+
+        XMLElement result = new StreamingXPath("/envelope/body/*").firstElement(stream(ENVELOPE));
+
+        assertNotNull(result);
+        assertEquals("a:order", result.getName());
+        assertEquals("urn:a", result.getElement().getNamespaceURI());
+        assertEquals("1", result.getElement().getAttributeNS("urn:a", "id"));
+        assertEquals("x", result.getChildValue("item"));
+        assertEquals("text<more>", result.getValue());
+        assertEquals(result.getElement(), result.getElement().getOwnerDocument().getDocumentElement());
+
+        assertNull(new StreamingXPath("//missing").firstElement(stream(ENVELOPE)));
+    }
+
+    /**
+     * Test of firstElement method, of class StreamingXPath.
+     *
+     * Default namespace declarations are copied as <code>xmlns</code>.
+     */
+    @Test
+    public void testFirstElement_defaultNamespace() throws Exception {
+        System.out.println("firstElement_defaultNamespace");
+
+        String xml = "<r xmlns=\"urn:x\"><a><b xmlns=\"urn:y\"><c/></b></a></r>";
+
+        XMLElement a = new StreamingXPath("/*/*").firstElement(stream(xml));
+        assertEquals("urn:x", a.getElement().getNamespaceURI());
+        assertEquals("urn:x", a.getElement().getAttribute("xmlns"));
+        assertEquals("urn:y", a.getChild("b").getElement().getNamespaceURI());
+        assertEquals(1, a.getElement().getAttributes().getLength());
+
+        XMLElement b = new StreamingXPath("/*/*/*").firstElement(stream(xml));
+        XML document = new XML(b.getElement().getOwnerDocument());
+        assertEquals("urn:y", b.getElement().getAttribute("xmlns"));
+        assertEquals(1, b.getElement().getAttributes().getLength());
+        assertTrue(document.contentEquals(XML.parse("<b xmlns=\"urn:y\"><c/></b>")));
+        assertFalse(document.toString(false).contains("xmlns:"));
+    }
+
+}
@@ -0,0 +1,156 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class XMLCacheTest {
+
+    /**
+     * Test of parse method, of class XMLCache.
+     */
+    @Test
+    public void testParse() throws Exception {
+        System.out.println("parse");
+
+        XMLCache instance = new XMLCache(1024 * 1024);
+
+        XML first = instance.parse("<foo><bar>baz</bar></foo>");
+        XML second = instance.parse("<foo><bar>baz</bar></foo>");
+        XML third = instance.parse("<foo><bar>qux</bar></foo>");
+
+        assertEquals("baz", second.getRoot().getChildValue("bar"));
+        assertEquals("qux", third.getRoot().getChildValue("bar"));
+        assertEquals(1, instance.getHitCount());
+        assertEquals(2, instance.getMissCount());
+        assertEquals(1.0 / 3, instance.getHitRate(), 0.0001);
+        assertEquals(2, instance.size());
+        assertTrue(instance.getEstimatedSize() > 0);
+
+        // Every caller shares the same read-only document
+        assertSame(first, second);
+        try {
+            first.getRoot().setChildValue("bar", "changed");
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        // Clones can be modified
+        XML clone = second.clone();
+        clone.getRoot().setChildValue("bar", "changed");
+        assertEquals("baz", instance.parse("<foo><bar>baz</bar></foo>").getRoot().getChildValue("bar"));
+    }
+
+    /**
+     * Test of parse method, of class XMLCache, with bytes.
+     */
+    @Test
+    public void testParse_bytes() throws Exception {
+        System.out.println("parse_bytes");
+
+        XMLCache instance = new XMLCache(1024 * 1024);
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><foo>caf\u00e9</foo>";
+
+        // Parsed in the declared encoding, and cached by the bytes themselves
+        XML first = instance.parse(xml.getBytes("ISO-8859-1"));
+        assertEquals("caf\u00e9", first.getRoot().getValue());
+        assertSame(first, instance.parse(xml.getBytes("ISO-8859-1")));
+        assertEquals(1, instance.getHitCount());
+
+        // The same characters as a string, or as UTF-8 bytes read as ISO-8859-1, are other entries
+        assertEquals("caf\u00e9", instance.parse(xml).getRoot().getValue());
+        assertEquals("caf\u00c3\u00a9", instance.parse(xml.getBytes("UTF-8")).getRoot().getValue());
+        assertEquals(1, instance.getHitCount());
+        assertEquals(3, instance.size());
+    }
+
+    /**
+     * Test of eviction, of class XMLCache.
+     */
+    @Test
+    public void testEviction() throws Exception {
+        System.out.println("eviction");
+
+        long size = XMLCache.estimateSize(XML.parse("<foo>0</foo>").getDocument());
+        XMLCache instance = new XMLCache(2 * size);
+
+        instance.parse("<foo>0</foo>");
+        instance.parse("<foo>1</foo>");
+        instance.parse("<foo>0</foo>");
+        instance.parse("<foo>2</foo>");
+
+        // 1 was the least recently used
+        assertEquals(2, instance.size());
+        assertEquals(1, instance.getEvictionCount());
+        assertEquals(2 * size, instance.getEstimatedSize());
+
+        instance.parse("<foo>0</foo>");
+        assertEquals(2, instance.getHitCount());
+        instance.parse("<foo>1</foo>");
+        assertEquals(2, instance.getHitCount());
+    }
+
+    /**
+     * Test of parse method, of class XMLCache.
+     *
+     * Documents larger than the cache must not be cached.
+     */
+    @Test
+    public void testParse_tooLarge() throws Exception {
+        System.out.println("parse_tooLarge");
+
+        XMLCache instance = new XMLCache(1);
+
+        instance.parse("<foo/>");
+        instance.parse("<foo/>");
+
+        assertEquals(0, instance.size());
+        assertEquals(0, instance.getHitCount());
+        assertEquals(0, instance.getEstimatedSize());
+    }
+
+    /**
+     * Test of clear method, of class XMLCache.
+     */
+    @Test
+    public void testClear() throws Exception {
+        System.out.println("clear");
+
+        XMLCache instance = new XMLCache(1024 * 1024);
+        instance.parse("<foo/>");
+        instance.clear();
+
+        assertEquals(0, instance.size());
+        assertEquals(0, instance.getEstimatedSize());
+        assertEquals(1, instance.getMissCount());
+    }
+
+}
@@ -26,10 +26,16 @@
  */
 package com.jeffrodriguez.xmlwrapper;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Before;
+import org.w3c.dom.Text;
 
 /**
  * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
@@ -107,6 +113,62 @@ public class XMLElementTest {
         assertNotNull(instance.getChild(name));
     }
 
+    /**
+     * Test of append method, of class XMLElement.
+     *
+     * Elements of another document must be copied.
+     */
+    @Test
+    public void testAppend_copy() {
+        System.out.println("append_copy");
+
+        XML other = XML.create("quux");
+        other.getRoot().addChild("corge").setValue("grault");
+
+        XMLElement result = xml.getRoot().append(other.getRoot());
+
+        assertEquals(xml.getDocument(), result.getElement().getOwnerDocument());
+        assertEquals(xml.getRoot(), result.getParent());
+        assertEquals("grault", xml.getRoot().getChild("quux").getChildValue("corge"));
+        assertEquals("grault", other.getRoot().getChildValue("corge"));
+    }
+
+    /**
+     * Test of append method, of class XMLElement.
+     *
+     * Adopted elements must be moved from their document.
+     */
+    @Test
+    public void testAppend_adopt() {
+        System.out.println("append_adopt");
+
+        XML other = XML.create("quux");
+        XMLElement corge = other.getRoot().addChild("corge");
+
+        XMLElement result = xml.getRoot().append(corge, true);
+
+        assertSame(corge.getElement(), result.getElement());
+        assertEquals(xml.getDocument(), result.getElement().getOwnerDocument());
+        assertTrue(xml.getRoot().hasChild("corge"));
+        assertFalse(other.getRoot().hasChildren());
+    }
+
+    /**
+     * Test of append method, of class XMLElement.
+     *
+     * Elements of the same document must be moved.
+     */
+    @Test
+    public void testAppend_sameDocument() {
+        System.out.println("append_sameDocument");
+
+        XMLElement bar = xml.getRoot().getChild("bar");
+        xml.getRoot().getChildren("baz").iterator().next().append(bar);
+
+        assertFalse(xml.getRoot().hasChild("bar"));
+        assertEquals(1, xml.getDocument().getElementsByTagName("bar").getLength());
+    }
+
     /**
      * Test of getChild method, of class XMLElement.
      */
@@ -175,6 +237,55 @@ public class XMLElementTest {
         assertEquals(value, instance.getChild(child).getValue());
     }
 
+    /**
+     * Test of setChildValues method, of class XMLElement.
+     */
+    @Test
+    public void testSetChildValues() {
+        System.out.println("setChildValues");
+
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        values.put("bar", "1");
+        values.put("quux", "2");
+        values.put("corge", "3");
+
+        XMLElement instance = xml.getRoot();
+        assertSame(instance, instance.setChildValues(values));
+
+        assertEquals("1", instance.getChildValue("bar"));
+        assertEquals("qux", instance.getChild("bar").getAttribute("baz"));
+        assertEquals("2", instance.getChildValue("quux"));
+        assertEquals("3", instance.getChildValue("corge"));
+        assertEquals("quux", instance.getElement().getLastChild().getPreviousSibling().getNodeName());
+    }
+
+    /**
+     * Test of setChildValues method, of class XMLElement.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testSetChildValues_duplicateChild() {
+        System.out.println("setChildValues_duplicateChild");
+
+        xml.getRoot().setChildValues(Collections.singletonMap("baz", "1"));
+    }
+
+    /**
+     * Test of addChildren method, of class XMLElement.
+     */
+    @Test
+    public void testAddChildren() {
+        System.out.println("addChildren");
+
+        XMLElement instance = xml.getRoot().getChild("bar");
+        List<XMLElement> result = instance.addChildren("quux", "corge", "quux");
+
+        assertEquals(3, result.size());
+        assertEquals("corge", result.get(1).getName());
+        assertEquals(instance, result.get(2).getParent());
+        assertEquals(result.get(0).getElement(), instance.getElement().getFirstChild());
+        assertEquals(result.get(2).getElement(), instance.getElement().getLastChild());
+    }
+
     /**
      * Test of getChildren method, of class XMLElement.
      */
@@ -194,6 +305,56 @@ public class XMLElementTest {
         assertFalse(result.hasNext());
     }
 
+    /**
+     * Test of getChildList method, of class XMLElement.
+     */
+    @Test
+    public void testGetChildList() throws Exception {
+        System.out.println("getChildList");
+
+        XML document = XML.parse("<foo><bar a=\"1\"><bar a=\"2\"/></bar><baz/><bar a=\"3\"/></foo>");
+        XMLElement root = document.getRoot();
+        List<XMLElement> result = root.getChildList("bar");
+
+        // Only direct children, by index
+        assertEquals(2, result.size());
+        assertEquals("1", result.get(0).getAttribute("a"));
+        assertEquals("3", result.get(1).getAttribute("a"));
+        assertEquals(3, root.getChildList("*").size());
+        assertTrue(root.getChildList("qux").isEmpty());
+
+        // Every child node is examined once
+        HistogramInstrumentation instrumentation = new HistogramInstrumentation(false);
+        XML.setInstrumentation(instrumentation);
+        try {
+            root.getChildList("bar");
+            assertEquals(1, instrumentation.getNavigateNodes().getCount());
+            assertEquals(3, instrumentation.getNavigateNodes().getMax());
+        } finally {
+            XML.setInstrumentation(null);
+        }
+
+        // A snapshot, unaffected by later changes
+        root.addChild("bar");
+        assertEquals(2, result.size());
+
+        try {
+            result.remove(0);
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        // Frozen documents give frozen elements
+        XMLElement frozen = document.freeze().getRoot().getChildList("bar").get(0);
+        try {
+            frozen.setValue("x");
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
     /**
      * Test of hasChildren method, of class XMLElement.
      */
@@ -212,6 +373,19 @@ public class XMLElementTest {
         assertFalse(xml.getRoot().getChild("bar").hasChildren());
     }
 
+    /**
+     * Test of hasChildren method, of class XMLElement.
+     *
+     * Text before the first child element must be skipped.
+     */
+    @Test
+    public void testHasChildren_leadingText() throws Exception {
+        System.out.println("hasChildren_leadingText");
+
+        assertTrue(XML.parse("<foo>\n  <bar/>\n</foo>").getRoot().hasChildren());
+        assertFalse(XML.parse("<foo>\n  bar\n</foo>").getRoot().hasChildren());
+    }
+
     /**
      * Test of hasChild method, of class XMLElement.
      */
@@ -252,6 +426,24 @@ public class XMLElementTest {
         assertEquals("test", instance.getAttribute("baz"));
     }
 
+    /**
+     * Test of setAttributes method, of class XMLElement.
+     */
+    @Test
+    public void testSetAttributes() {
+        System.out.println("setAttributes");
+
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("baz", "quux");
+        attributes.put("corge", "grault");
+
+        XMLElement instance = xml.getRoot().getChild("bar");
+        assertSame(instance, instance.setAttributes(attributes));
+
+        assertEquals("quux", instance.getAttribute("baz"));
+        assertEquals("grault", instance.getAttribute("corge"));
+    }
+
     /**
      * Test of getAttribute method, of class XMLElement.
      */
@@ -295,6 +487,26 @@ public class XMLElementTest {
         assertEquals(value, instance.getValue());
     }
 
+    /**
+     * Test of setValue method, of class XMLElement.
+     *
+     * Existing text and cdata nodes must be replaced by a single text node.
+     */
+    @Test
+    public void testSetValue_replacesText() throws Exception {
+        System.out.println("setValue_replacesText");
+
+        XMLElement instance = XML.parse("<foo>a<bar/>b<![CDATA[c]]></foo>").getRoot();
+        instance.setValue("d");
+
+        assertEquals("d", instance.getValue());
+        assertEquals(2, instance.getElement().getChildNodes().getLength());
+        assertTrue(instance.hasChild("bar"));
+
+        // In mixed content, the new text goes after the child elements
+        assertEquals("<foo><bar/>d</foo>", XML.toString(instance.getElement()));
+    }
+
     /**
      * Test of getValueAsLong method, of class XMLElement.
      */
@@ -321,6 +533,27 @@ public class XMLElementTest {
         assertEquals(Integer.valueOf(Integer.MAX_VALUE), instance.getValueAsInteger());
     }
 
+    /**
+     * Test of xpathString, xpathNumber, xpathBoolean and xpathLong methods, of class XMLElement.
+     *
+     * Expressions are evaluated relative to the element.
+     */
+    @Test
+    public void testXpathScalars() throws Exception {
+        System.out.println("xpathScalars");
+
+        XMLElement instance = xml.getRoot().getChild("bar");
+        instance.setChildValue("quux", "42");
+
+        assertEquals("qux", instance.xpathString("@baz"));
+        assertEquals("42", instance.xpathString("quux"));
+        assertEquals(42.0, instance.xpathNumber("quux"), 0);
+        assertEquals(42L, instance.xpathLong("quux"));
+        assertTrue(instance.xpathBoolean("quux"));
+        assertFalse(instance.xpathBoolean("baz"));
+        assertEquals(2.0, instance.xpathNumber("count(../baz)"), 0);
+    }
+
     /**
      * Test of equals method, of class XMLElement.
      */
@@ -341,6 +574,60 @@ public class XMLElementTest {
         assertFalse(xml.getRoot().getChild("bar").equals(xml.getRoot()));
     }
 
+    /**
+     * Test of contentHash method, of class XMLElement.
+     */
+    @Test
+    public void testContentHash() throws Exception {
+        System.out.println("contentHash");
+        XML document = XML.parse("<foo><bar a=\"1\">x</bar><baz/></foo>");
+        XMLElement root = document.getRoot();
+        XMLElement bar = root.getChild("bar");
+
+        long rootHash = root.contentHash();
+        long barHash = bar.contentHash();
+        assertEquals(rootHash, root.contentHash());
+
+        // Changes are picked up, including those made to the DOM directly
+        bar.setAttribute("a", "2");
+        assertFalse(rootHash == root.contentHash());
+        assertFalse(barHash == bar.contentHash());
+
+        bar.setAttribute("a", "1");
+        assertEquals(rootHash, root.contentHash());
+
+        ((Text) bar.getElement().getFirstChild()).setData("y");
+        assertFalse(rootHash == root.contentHash());
+        assertFalse(barHash == bar.contentHash());
+
+        bar.setValue("x");
+        root.getChild("baz").addChild("qux");
+        assertFalse(rootHash == root.contentHash());
+        assertEquals(barHash, bar.contentHash());
+    }
+
+    /**
+     * Test of contentEquals method, of class XMLElement.
+     */
+    @Test
+    public void testContentEquals() throws Exception {
+        System.out.println("contentEquals");
+        XMLElement a = XML.parse("<foo><bar a=\"1\" b=\"2\">x</bar></foo>").getRoot();
+        XMLElement b = XML.parse("<foo>\n  <bar b=\"2\" a=\"1\"> x </bar>\n</foo>").getRoot();
+        XMLElement c = XML.parse("<foo><bar a=\"1\" b=\"2\">y</bar></foo>").getRoot();
+
+        assertTrue(a.contentEquals(b));
+        assertFalse(a.contentEquals(c));
+        assertFalse(a.equals(b));
+        assertTrue(a.getChild("bar").contentEquals(b.getChild("bar")));
+
+        // Text counts where it sits among the child elements
+        XMLElement d = XML.parse("<p>Hello <b>big</b> world</p>").getRoot();
+        XMLElement e = XML.parse("<p><b>big</b>Hello  world</p>").getRoot();
+        assertFalse(d.contentEquals(e));
+        assertFalse(ContentHash.equal(d.getElement(), e.getElement()));
+    }
+
     /**
      * Test of hashCode method, of class XMLElement.
      */
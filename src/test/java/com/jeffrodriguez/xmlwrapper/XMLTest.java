@@ -25,10 +25,23 @@
  */
 package com.jeffrodriguez.xmlwrapper;
 
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.xpath.XPathExpressionException;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
 
 /**
  * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
@@ -83,6 +96,72 @@ public class XMLTest {
         assertEquals("foo", result.getDocument().getDocumentElement().getTagName());
     }
 
+    /**
+     * Test of parse method, of class XML, with an input stream.
+     */
+    @Test
+    public void testParse_inputStream() throws Exception {
+        System.out.println("parse_inputStream");
+        byte[] bytes = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><foo>caf\u00e9</foo>".getBytes("ISO-8859-1");
+
+        HistogramInstrumentation instrumentation = new HistogramInstrumentation(false);
+        XML.setInstrumentation(instrumentation);
+        try {
+            XML result = XML.parse(new ByteArrayInputStream(bytes), ParserProfile.FAST_UNTRUSTED);
+            assertEquals("caf\u00e9", result.getRoot().getValue());
+            assertEquals(bytes.length, instrumentation.getParseLengths().getMax());
+        } finally {
+            XML.setInstrumentation(null);
+        }
+    }
+
+    /**
+     * Test of parse method, of class XML, from many concurrent threads.
+     *
+     * Runs on virtual threads when the JVM has them, and on a thread pool otherwise.
+     */
+    @Test
+    public void testParse_concurrent() throws Exception {
+        System.out.println("parse_concurrent");
+        final int parses = 5000;
+
+        ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+
+        final AtomicInteger failures = new AtomicInteger();
+        try {
+            for (int i = 0; i < parses; i++) {
+                final int id = i;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            XML xml = XML.parse("<foo id=\"" + id + "\"><bar>" + id + "</bar></foo>");
+                            boolean ok = xml.xpathString("/foo/@id").equals(String.valueOf(id));
+                            if (id % 10 == 0) {
+                                ok = ok && xml.toString(false).endsWith("<bar>" + id + "</bar></foo>");
+                            }
+                            if (!ok) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(executor.awaitTermination(5, TimeUnit.MINUTES));
+        assertEquals(0, failures.get());
+    }
+
     /**
      * Test of getDocument method, of class XML.
      */
@@ -120,6 +199,174 @@ public class XMLTest {
         assertEquals("false", result.next().getAttribute("baz"));
     }
 
+    /**
+     * Test of xpathList method, of class XML.
+     */
+    @Test
+    public void testXpathList() throws Exception {
+        System.out.println("xpathList");
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<foo>");
+        for (int i = 0; i < 1000; i++) {
+            xml.append("<bar i=\"").append(i).append("\"/>");
+        }
+        xml.append("</foo>");
+
+        XML instance = XML.parse(xml.toString()).freeze();
+        final List<XMLElement> result = instance.xpathList("//bar");
+        assertEquals(1000, result.size());
+        assertEquals("999", result.get(999).getAttribute("i"));
+
+        // Halves of the list can be read from separate threads
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Long>> sums = new ArrayList<Future<Long>>();
+            for (final List<XMLElement> half : Arrays.asList(result.subList(0, 500), result.subList(500, 1000))) {
+                sums.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        long sum = 0;
+                        for (XMLElement element : half) {
+                            sum += Long.parseLong(element.getAttribute("i"));
+                        }
+                        return sum;
+                    }
+                }));
+            }
+            assertEquals(999L * 1000 / 2, sums.get(0).get() + sums.get(1).get());
+        } finally {
+            executor.shutdown();
+        }
+
+        try {
+            instance.xpathList("//bar/@i");
+            fail("Expected XPathExpressionException");
+        } catch (XPathExpressionException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test of xpathElements method, of class XML, in lazy mode.
+     */
+    @Test
+    public void testXpathElements_lazy() throws Exception {
+        System.out.println("xpathElements_lazy");
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\"?>");
+        xml.append("<foo>");
+        xml.append("  <bar baz=\"true\"><bar baz=\"nested\"/></bar>");
+        xml.append("  <qux><bar baz=\"false\"/></qux>");
+        xml.append("</foo>");
+
+        XML instance = XML.parse(xml.toString());
+
+        Iterator<XMLElement> result = instance.xpathElements("//bar", true).iterator();
+
+        assertTrue(result.hasNext());
+        assertEquals("true", result.next().getAttribute("baz"));
+
+        assertTrue(result.hasNext());
+        assertEquals("nested", result.next().getAttribute("baz"));
+
+        assertTrue(result.hasNext());
+        assertEquals("false", result.next().getAttribute("baz"));
+
+        assertFalse(result.hasNext());
+
+        // Child steps only
+        result = instance.xpathElements("/foo/bar", true).iterator();
+        assertEquals("true", result.next().getAttribute("baz"));
+        assertFalse(result.hasNext());
+
+        // Unsupported expressions fall back to eager evaluation
+        result = instance.xpathElements("//bar[@baz='false']", true).iterator();
+        assertEquals("false", result.next().getAttribute("baz"));
+        assertFalse(result.hasNext());
+    }
+
+    /**
+     * Test of xpathFirst method, of class XML.
+     */
+    @Test
+    public void testXpathFirst() throws Exception {
+        System.out.println("xpathFirst");
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\"?>");
+        xml.append("<foo>");
+        xml.append("  <bar baz=\"true\"/>");
+        xml.append("  <bar baz=\"false\"/>");
+        xml.append("</foo>");
+
+        XML instance = XML.parse(xml.toString());
+
+        assertEquals("true", instance.xpathFirst("//bar").getAttribute("baz"));
+        assertEquals("false", instance.xpathFirst("//bar[@baz='false']").getAttribute("baz"));
+        assertNull(instance.xpathFirst("//qux"));
+        assertNull(instance.xpathFirst("//bar[@baz='qux']"));
+    }
+
+    /**
+     * Test of xpathCount method, of class XML.
+     */
+    @Test
+    public void testXpathCount() throws Exception {
+        System.out.println("xpathCount");
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\"?>");
+        xml.append("<foo>");
+        xml.append("  <bar baz=\"true\"/>");
+        xml.append("  <bar baz=\"false\"/>");
+        xml.append("</foo>");
+
+        XML instance = XML.parse(xml.toString());
+
+        assertEquals(2, instance.xpathCount("//bar"));
+        assertEquals(1, instance.xpathCount("/foo"));
+        assertEquals(0, instance.xpathCount("/bar"));
+        assertEquals(2, instance.xpathCount("//@baz"));
+    }
+
+    /**
+     * Test of xpathString, xpathNumber, xpathBoolean and xpathLong methods, of class XML.
+     */
+    @Test
+    public void testXpathScalars() throws Exception {
+        System.out.println("xpathScalars");
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\"?>");
+        xml.append("<foo>");
+        xml.append("  <bar baz=\"true\">9223372036854775807</bar>");
+        xml.append("  <bar baz=\"false\">1.5</bar>");
+        xml.append("</foo>");
+
+        XML instance = XML.parse(xml.toString());
+
+        assertEquals("true", instance.xpathString("/foo/bar/@baz"));
+        assertEquals("", instance.xpathString("/foo/qux"));
+        assertEquals(1.5, instance.xpathNumber("/foo/bar[2]"), 0);
+        assertEquals(2.0, instance.xpathNumber("count(//bar)"), 0);
+        assertTrue(Double.isNaN(instance.xpathNumber("/foo/qux")));
+        assertTrue(instance.xpathBoolean("//bar[@baz='false']"));
+        assertFalse(instance.xpathBoolean("//qux"));
+        assertEquals(Long.MAX_VALUE, instance.xpathLong("/foo/bar[1]"));
+    }
+
+    /**
+     * Test of xpathLong method, of class XML.
+     */
+    @Test(expected = NumberFormatException.class)
+    public void testXpathLong_notANumber() throws Exception {
+        System.out.println("xpathLong_notANumber");
+
+        XML.parse("<foo>bar</foo>").xpathLong("/foo");
+    }
+
     /**
      * Test of toString method, of class XML.
      */
@@ -140,12 +387,29 @@ public class XMLTest {
         xml.append("</foo>");
         xml.append(lineSeparator);
 
-        String expected = xml.toString();
-
         XML instance = XML.parse(xml.toString());
 
         String actual = instance.toString(true);
 
+        // From Java 9 on, the JDK's serializer puts the whitespace text on lines of its own and indents by four
+        String expected = xml.toString();
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            StringBuilder indented = new StringBuilder();
+            indented.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+            indented.append(lineSeparator);
+            indented.append("<foo>");
+            indented.append(lineSeparator);
+            indented.append("      ");
+            indented.append(lineSeparator);
+            indented.append("    <bar/>");
+            indented.append(lineSeparator);
+            indented.append("    ");
+            indented.append(lineSeparator);
+            indented.append("</foo>");
+            indented.append(lineSeparator);
+            expected = indented.toString();
+        }
+
         assertEquals(expected, actual);
     }
 
@@ -171,6 +435,35 @@ public class XMLTest {
         assertEquals(expected, actual);
     }
 
+    /**
+     * Test of write method, of class XML.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        System.out.println("write");
+
+        XML instance = XML.create("foo");
+        for (int i = 0; i < 20000; i++) {
+            instance.getRoot().addChild("bar").setAttribute("i", Integer.toString(i));
+        }
+
+        StringWriter writer = new StringWriter();
+        instance.write(writer, true);
+        assertEquals(instance.toString(true), writer.toString());
+
+        // On several threads, with the same result
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (boolean pretty : new boolean[] {false, true}) {
+                writer = new StringWriter();
+                instance.write(writer, pretty, executor);
+                assertEquals(instance.toString(pretty), writer.toString());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     /**
      * Test of getRoot method, of class XML.
      */
@@ -187,6 +480,462 @@ public class XMLTest {
         assertEquals(rootName, result.getName());
     }
 
+    /**
+     * Test of merge method, of class XML.
+     */
+    @Test
+    public void testMerge() throws Exception {
+        System.out.println("merge");
+
+        XML instance = XML.create("foo");
+        XML cached = XML.parse("<bar><baz/></bar>");
+        XML disposable = XML.parse("<qux/>");
+
+        instance.merge(cached, false);
+        instance.merge(disposable, true);
+
+        assertEquals(1, instance.xpathCount("/foo/bar/baz"));
+        assertEquals(1, instance.xpathCount("/foo/qux"));
+        assertEquals(1, cached.xpathCount("/bar/baz"));
+        assertNull(disposable.getDocument().getDocumentElement());
+    }
+
+    /**
+     * Test of diff method, of class XML.
+     */
+    @Test
+    public void testDiff_identical() throws Exception {
+        System.out.println("diff_identical");
+        XML a = XML.parse("<foo a=\"1\" b=\"2\"><bar>x</bar><baz/></foo>");
+        XML b = XML.parse("<foo b=\"2\" a=\"1\">\n  <bar> x </bar>\n  <baz></baz>\n</foo>");
+
+        assertTrue(a.diff(b).isEmpty());
+    }
+
+    /**
+     * Test of diff method, of class XML.
+     */
+    @Test
+    public void testDiff_attributesAndText() throws Exception {
+        System.out.println("diff_attributesAndText");
+        XML a = XML.parse("<foo><bar a=\"1\" b=\"2\">x</bar></foo>");
+        XML b = XML.parse("<foo><bar a=\"3\" c=\"4\">y</bar></foo>");
+
+        List<Edit> edits = a.diff(b);
+
+        assertEquals(Arrays.asList(
+                Edit.removeAttribute("/foo[1]/bar[1]", "b"),
+                Edit.setAttribute("/foo[1]/bar[1]", "a", "3"),
+                Edit.setAttribute("/foo[1]/bar[1]", "c", "4"),
+                Edit.setText("/foo[1]/bar[1]", "y")), edits);
+    }
+
+    /**
+     * Test of diff method, of class XML.
+     */
+    @Test
+    public void testDiff_children() throws Exception {
+        System.out.println("diff_children");
+        XML a = XML.parse("<foo><a/><b>1</b><c/><b>2</b></foo>");
+        XML b = XML.parse("<foo><b>1</b><d/><c/><b>3</b><e/></foo>");
+
+        List<Edit> edits = a.diff(b);
+
+        assertEquals(Arrays.asList(
+                Edit.removeElement("/foo[1]/a[1]"),
+                Edit.insertElement("/foo[1]", 1, "<d/>"),
+                Edit.insertElement("/foo[1]", 4, "<e/>"),
+                Edit.setText("/foo[1]/b[2]", "3")), edits);
+    }
+
+    /**
+     * Test of diff method, of class XML.
+     */
+    @Test
+    public void testDiff_moved() throws Exception {
+        System.out.println("diff_moved");
+        XML a = XML.parse("<foo><a>1</a><b>2</b></foo>");
+        XML b = XML.parse("<foo><b>2</b><a>1</a></foo>");
+
+        List<Edit> edits = a.diff(b);
+
+        assertEquals(2, edits.size());
+        assertEquals(Edit.Type.REMOVE_ELEMENT, edits.get(0).getType());
+        assertEquals(Edit.Type.INSERT_ELEMENT, edits.get(1).getType());
+    }
+
+    /**
+     * Test of diff method, of class XML.
+     */
+    @Test
+    public void testDiff_root() throws Exception {
+        System.out.println("diff_root");
+        XML a = XML.parse("<foo/>");
+        XML b = XML.parse("<bar/>");
+
+        assertEquals(Arrays.asList(Edit.replaceElement("/foo[1]", "<bar/>")), a.diff(b));
+    }
+
+    /**
+     * Test of apply method, of class XML.
+     */
+    @Test
+    public void testApply_diff() throws Exception {
+        System.out.println("apply_diff");
+        String[][] pairs = {
+            {"<foo><a/><b>1</b><c/><b>2</b></foo>", "<foo><b>1</b><d/><c/><b>3</b><e/></foo>"},
+            {"<foo><a>1</a><b>2</b><c x=\"1\"/></foo>", "<foo><c y=\"2\"/><b>2</b><a>1</a></foo>"},
+            {"<foo><a><b><c>1</c></b></a></foo>", "<foo><a><b><c>2</c><c>3</c></b></a><a/></foo>"},
+            {"<foo/>", "<bar><baz/></bar>"}
+        };
+
+        for (String[] pair : pairs) {
+            XML from = XML.parse(pair[0]);
+            XML to = XML.parse(pair[1]);
+
+            from.apply(from.diff(to));
+
+            assertTrue(from.diff(to).isEmpty());
+        }
+    }
+
+    /**
+     * Test of apply method, of class XML, with documents using different prefixes.
+     */
+    @Test
+    public void testApply_prefixes() throws Exception {
+        System.out.println("apply_prefixes");
+        XML from = XML.parse("<r xmlns:a=\"urn:x\"><a:x>1</a:x><a:x n=\"1\"><a:y>2</a:y></a:x></r>");
+        XML to = XML.parse("<r xmlns:b=\"urn:x\"><b:x>1</b:x><b:x n=\"2\"><b:y>3</b:y></b:x></r>");
+
+        from.apply(from.diff(to));
+
+        assertTrue(from.contentEquals(to));
+        assertEquals("<r xmlns:a=\"urn:x\"><a:x>1</a:x><a:x n=\"2\"><a:y>3</a:y></a:x></r>",
+                from.toString(false).substring(from.toString(false).indexOf("<r")));
+    }
+
+    /**
+     * Test of apply method, of class XML, with mixed content.
+     */
+    @Test
+    public void testApply_mixed() throws Exception {
+        System.out.println("apply_mixed");
+        String[][] pairs = {
+            {"<r>a<i/>b</r>", "<r>x<i/>y</r>"},
+            {"<p>Hello <b>big</b> world</p>", "<p>Hello <i>new</i> <b>big</b> world!</p>"},
+            {"<p>a<x/>b<y/>c</p>", "<p>a<y/>d</p>"},
+            {"<p>a<x/>b</p>", "<p><z/>a<x/><z/>b<z/>c</p>"},
+            {"<p>a<!-- c --><x/>b</p>", "<p>d<x/>b</p>"},
+            {"<p>text</p>", "<p>before<x/>after</p>"},
+            {"<p>before<x/>after</p>", "<p>text</p>"},
+            {"<p>Hello <b>big</b> world</p>", "<p><b>big</b>Hello  world</p>"}
+        };
+
+        for (String[] pair : pairs) {
+            XML from = XML.parse(pair[0]);
+            XML to = XML.parse(pair[1]);
+
+            from.apply(from.diff(to));
+
+            assertEquals(pair[1], XML.toString(from.getRoot().getElement()).replace("<!-- c -->", ""));
+        }
+    }
+
+    /**
+     * Test of apply method, of class XML.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testApply_missing() throws Exception {
+        System.out.println("apply_missing");
+        XML xml = XML.parse("<foo><bar/></foo>");
+
+        xml.apply(Arrays.asList(Edit.setText("/foo[1]/bar[2]", "x")));
+    }
+
+    /**
+     * Test of apply method, of class XML.
+     *
+     * Inserted markup must not declare a DOCTYPE or reference external entities.
+     */
+    @Test(expected = SAXException.class)
+    public void testApply_doctype() throws Exception {
+        System.out.println("apply_doctype");
+        XML xml = XML.parse("<foo/>");
+
+        xml.apply(Arrays.asList(Edit.insertElement("/foo[1]", 0,
+                "<!DOCTYPE bar [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><bar>&e;</bar>")));
+    }
+
+    /**
+     * Test of startChangeLog method, of class XML.
+     */
+    @Test
+    public void testChangeLog() throws Exception {
+        System.out.println("changeLog");
+        XML xml = XML.parse("<foo><bar>1</bar><baz/></foo>");
+        XML copy = xml.clone();
+
+        xml.startChangeLog();
+        XMLElement root = xml.getRoot();
+        root.addChild("qux").setAttribute("a", "1");
+        root.getChild("bar").setValue("2");
+        root.setChildValue("quux", "3");
+        Iterator<XMLElement> iterator = root.getChildren("baz").iterator();
+        iterator.remove();
+        root.append(root.getChild("bar"));
+        List<Edit> edits = xml.stopChangeLog();
+
+        assertEquals(8, edits.size());
+        assertEquals(Edit.insertElement("/foo[1]", 2, "<qux/>"), edits.get(0));
+        assertEquals(Edit.setAttribute("/foo[1]/qux[1]", "a", "1"), edits.get(1));
+        assertTrue(xml.getChangeLog().isEmpty());
+
+        copy.apply(edits);
+        assertTrue(copy.diff(xml).isEmpty());
+        assertEquals("<foo><qux a=\"1\"/><quux>3</quux><bar>2</bar></foo>",
+                copy.toString(false).replaceFirst("<\\?xml[^>]*>", ""));
+    }
+
+    /**
+     * Test of contentEquals method, of class XML.
+     */
+    @Test
+    public void testContentEquals() throws Exception {
+        System.out.println("contentEquals");
+        XML a = XML.parse("<a:foo xmlns:a=\"urn:x\"><bar/><!-- note --></a:foo>");
+        XML b = XML.parse("<b:foo xmlns:b=\"urn:x\"><bar></bar></b:foo>");
+
+        assertTrue(a.contentEquals(b));
+        assertEquals(a.contentHash(), b.contentHash());
+        assertTrue(a.contentEquals(a.clone()));
+        assertFalse(a.contentEquals(XML.parse("<foo><bar/></foo>")));
+    }
+
+    /**
+     * Test of setInstrumentation method, of class XML.
+     */
+    @Test
+    public void testSetInstrumentation() throws Exception {
+        System.out.println("setInstrumentation");
+        HistogramInstrumentation instrumentation = new HistogramInstrumentation(true);
+        assertSame(Instrumentation.NONE, XML.getInstrumentation());
+
+        XML.setInstrumentation(instrumentation);
+        try {
+            String input = "<foo a=\"1\"><bar>x</bar></foo>";
+            XML xml = XML.parse(input);
+            String output = xml.toString(false);
+            xml.xpathString("/foo/bar[. = 'x']");
+            xml.xpathString("/foo/bar[. = 'x']");
+            xml.getRoot().getChild("bar");
+
+            assertEquals(1, instrumentation.getParseTimes().getCount());
+            assertEquals(input.length(), instrumentation.getParseLengths().getMax());
+            assertEquals(5, instrumentation.getNodeCounts().getMax());
+            assertEquals(output.length(), instrumentation.getSerializeLengths().getMax());
+            assertEquals(1, instrumentation.getCompileTimes().get("/foo/bar[. = 'x']").getCount());
+            assertEquals(2, instrumentation.getEvaluateTimes().get("/foo/bar[. = 'x']").getCount());
+            assertEquals(1, instrumentation.getNavigateNodes().getCount());
+        } finally {
+            XML.setInstrumentation(null);
+        }
+
+        assertSame(Instrumentation.NONE, XML.getInstrumentation());
+    }
+
+    /**
+     * Test of setCanonicalWrappers method, of class XML.
+     */
+    @Test
+    public void testSetCanonicalWrappers() throws Exception {
+        System.out.println("setCanonicalWrappers");
+
+        XML instance = XML.parse("<foo><bar><baz/></bar><qux/></foo>");
+        assertFalse(instance.isCanonicalWrappers());
+        assertNotSame(instance.getRoot(), instance.getRoot());
+
+        instance.setCanonicalWrappers(true);
+        assertTrue(instance.isCanonicalWrappers());
+
+        // Every way of reaching an element gives the same wrapper
+        XMLElement root = instance.getRoot();
+        XMLElement bar = root.getChild("bar");
+        assertSame(root, instance.getRoot());
+        assertSame(root, bar.getParent());
+        assertSame(bar, root.getChildList("bar").get(0));
+        assertSame(bar, root.getChildren("bar").iterator().next());
+        assertSame(bar, instance.xpathFirst("/foo/bar"));
+        assertSame(bar, instance.xpathElements("//bar").iterator().next());
+        assertSame(bar, instance.xpathElements("//bar", true).iterator().next());
+        assertSame(bar.getChild("baz"), instance.xpathList("//baz").get(0));
+
+        // New elements too
+        XMLElement added = root.addChild("quux");
+        assertSame(added, root.getChild("quux"));
+
+        // Equality is identity, and other wrappers of the element are different
+        assertEquals(bar, root.getChild("bar"));
+        assertFalse(bar.equals(new XMLElement(bar.getElement())));
+
+        // Other instances of the document keep their own wrappers
+        assertFalse(new XML(instance.getDocument()).isCanonicalWrappers());
+        assertNotSame(root, new XML(instance.getDocument()).getRoot());
+
+        // Wrappers belong to their instance, so those of another one aren't equal, canonical or not
+        XML other = new XML(instance.getDocument());
+        assertFalse(root.equals(other.getRoot()));
+        assertFalse(other.getRoot().equals(root));
+        other.setCanonicalWrappers(true);
+        assertSame(other.getRoot(), other.getRoot());
+        assertFalse(root.equals(other.getRoot()));
+        assertFalse(other.getRoot().equals(root));
+
+        // A document without a root has a single null wrapper too
+        XML empty = new XML(XML.create("foo").getDocument());
+        empty.getDocument().removeChild(empty.getDocument().getDocumentElement());
+        empty.setCanonicalWrappers(true);
+        assertNull(empty.getRoot().getElement());
+        assertSame(empty.getRoot(), empty.getRoot());
+
+        // Disabling releases the wrappers, including those held
+        instance.setCanonicalWrappers(false);
+        assertFalse(instance.isCanonicalWrappers());
+        assertNotSame(instance.getRoot(), instance.getRoot());
+        assertNotSame(root, bar.getParent());
+        assertNotSame(bar.getChild("baz"), bar.getChild("baz"));
+        assertNotSame(root.getChild("bar"), root.getChild("bar"));
+        instance.setCanonicalWrappers(true);
+        assertNotSame(root, instance.getRoot());
+        assertSame(instance.getRoot(), instance.getRoot());
+    }
+
+    /**
+     * Test of freeze method, of class XML.
+     */
+    @Test
+    public void testFreeze() throws Exception {
+        System.out.println("freeze");
+        XML xml = XML.parse("<foo a=\"1\"><bar>x</bar><baz><bar>y</bar></baz></foo>");
+        XML frozen = xml.freeze();
+        assertSame(frozen, frozen.freeze());
+
+        // A snapshot, unaffected by later changes
+        xml.getRoot().getChild("bar").setValue("changed");
+        assertEquals("x", frozen.getRoot().getChildValue("bar"));
+        assertEquals("1", frozen.getRoot().getAttribute("a"));
+        assertEquals("y", frozen.xpathFirst("/foo/baz/bar").getValue());
+        assertEquals(XML.parse("<foo a=\"1\"><bar>x</bar><baz><bar>y</bar></baz></foo>").contentHash(),
+                frozen.contentHash());
+
+        int count = 0;
+        for (XMLElement bar : frozen.getRoot().getChildren("bar")) {
+            assertTrue(bar.hasChildren() || bar.getValue().length() == 1);
+            count++;
+        }
+        assertEquals(2, count);
+
+        // Every way of reaching an element is read-only
+        List<XMLElement> reached = new ArrayList<XMLElement>();
+        reached.add(frozen.getRoot());
+        reached.add(frozen.getRoot().getChild("baz").getChild("bar").getParent());
+        reached.add(frozen.getRoot().getChildren("baz").iterator().next());
+        reached.add(frozen.xpathElements("//baz").iterator().next());
+        reached.add(frozen.xpathElements("//baz", true).iterator().next());
+        reached.add(frozen.xpathFirst("//baz[bar]"));
+        for (XMLElement element : reached) {
+            try {
+                element.addChild("qux");
+                fail("Expected an UnsupportedOperationException");
+            } catch (UnsupportedOperationException e) {
+                // Expected
+            }
+        }
+
+        try {
+            frozen.getRoot().setAttribute("a", "2");
+            fail("Expected an UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        try {
+            frozen.merge(XML.create("qux"), true);
+            fail("Expected an UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        // A clone can be modified again
+        XML thawed = frozen.clone();
+        thawed.getRoot().addChild("qux");
+        assertTrue(thawed.getRoot().hasChild("qux"));
+        assertFalse(frozen.getRoot().hasChild("qux"));
+    }
+
+    /**
+     * Test of freeze method, of class XML, with concurrent readers.
+     */
+    @Test
+    public void testFreeze_concurrent() throws Exception {
+        System.out.println("freeze_concurrent");
+        StringBuilder input = new StringBuilder("<foo>");
+        for (int i = 0; i < 200; i++) {
+            input.append("<item id=\"").append(i).append("\"><name>n").append(i).append("</name></item>");
+        }
+        input.append("</foo>");
+
+        // Parsed with deferred node expansion, which a frozen copy must not rely on
+        final XML frozen = XML.parse(input.toString()).freeze();
+        final long hash = XML.parse(input.toString()).contentHash();
+        final AtomicInteger failures = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 0; round < 20; round++) {
+                            int i = 0;
+                            for (XMLElement item : frozen.getRoot().getChildren("item")) {
+                                if (!item.getChildValue("name").equals("n" + i)
+                                        || !item.getAttribute("id").equals(String.valueOf(i))) {
+                                    failures.incrementAndGet();
+                                }
+                                i++;
+                            }
+
+                            i = 0;
+                            for (XMLElement name : frozen.xpathElements("/foo/item/name")) {
+                                if (!name.getValue().equals("n" + i)) {
+                                    failures.incrementAndGet();
+                                }
+                                i++;
+                            }
+                            if (i != 200) {
+                                failures.incrementAndGet();
+                            }
+
+                            // The first threads here hash the document
+                            if (frozen.contentHash() != hash) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+    }
+
     /**
      * Test of clone method, of class XML.
      */
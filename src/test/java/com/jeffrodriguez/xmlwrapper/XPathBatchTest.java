@@ -0,0 +1,127 @@
+/* This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package com.jeffrodriguez.xmlwrapper;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.xml.xpath.XPathExpressionException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:jeff@jeffrodriguez.com">Jeff Rodriguez</a>
+ */
+public class XPathBatchTest {
+
+    private XML xml;
+
+    @Before
+    public void setUp() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\"?>");
+        builder.append("<foo>");
+        builder.append("  <bar id=\"1\"><baz id=\"2\"/></bar>");
+        builder.append("  <!-- comment -->");
+        builder.append("  <bar id=\"3\"><qux><baz id=\"4\"/></qux></bar>");
+        builder.append("</foo>");
+
+        xml = XML.parse(builder.toString());
+    }
+
+    /**
+     * Returns the id attributes of some elements.
+     */
+    private static String ids(List<XMLElement> elements) {
+        StringBuilder ids = new StringBuilder();
+        for (XMLElement element : elements) {
+            ids.append(element.getAttribute("id"));
+        }
+        return ids.toString();
+    }
+
+    /**
+     * Test of evaluate method, of class XPathBatch.
+     */
+    @Test
+    public void testEvaluate() throws Exception {
+        System.out.println("evaluate");
+
+        XPathBatch instance = new XPathBatch("/foo/bar", "//baz", "/foo/bar/baz", "//*", "/quux", "foo//qux/*");
+
+        Map<String, List<XMLElement>> result = instance.evaluate(xml);
+
+        assertEquals(Arrays.asList("/foo/bar", "//baz", "/foo/bar/baz", "//*", "/quux", "foo//qux/*"),
+                     Arrays.asList(result.keySet().toArray()));
+        assertEquals("13", ids(result.get("/foo/bar")));
+        assertEquals("24", ids(result.get("//baz")));
+        assertEquals("2", ids(result.get("/foo/bar/baz")));
+        assertEquals(6, result.get("//*").size());
+        assertTrue(result.get("/quux").isEmpty());
+        assertEquals("4", ids(result.get("foo//qux/*")));
+    }
+
+    /**
+     * Test of evaluate method, of class XPathBatch.
+     *
+     * Expressions outside the simple subset are evaluated on their own.
+     */
+    @Test
+    public void testEvaluate_complexExpressions() throws Exception {
+        System.out.println("evaluate_complexExpressions");
+
+        XPathBatch instance = new XPathBatch(Arrays.asList("//baz[@id='4']", "//bar"));
+
+        Map<String, List<XMLElement>> result = instance.evaluate(xml);
+
+        assertEquals("4", ids(result.get("//baz[@id='4']")));
+        assertEquals("13", ids(result.get("//bar")));
+    }
+
+    /**
+     * Test of evaluate method, of class XPathBatch.
+     *
+     * Expressions selecting other nodes than elements are rejected.
+     */
+    @Test(expected = XPathExpressionException.class)
+    public void testEvaluate_attributes() throws Exception {
+        System.out.println("evaluate_attributes");
+
+        new XPathBatch("//bar", "//baz/@id").evaluate(xml);
+    }
+
+    /**
+     * Test of constructor, of class XPathBatch.
+     */
+    @Test(expected = XPathExpressionException.class)
+    public void testConstructor_invalidExpression() throws Exception {
+        System.out.println("constructor_invalidExpression");
+
+        new XPathBatch("//bar[");
+    }
+
+}